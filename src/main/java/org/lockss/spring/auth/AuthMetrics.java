@@ -0,0 +1,145 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of the outcomes of {@link SpringAuthenticationFilter}, and
+ * histograms of the time it spends, overall and in the IP access check
+ * and password verification.  Times exclude the rest of the filter
+ * chain.
+ */
+public class AuthMetrics {
+
+  /** The outcome of a request, as decided by the filter */
+  public enum Outcome {
+    /** Passed on to the rest of the chain */
+    ALLOWED("allowed"),
+    /** Refused by the IP access rules (403) */
+    FORBIDDEN_IP("forbiddenIp"),
+    /** No credentials supplied (401) */
+    UNAUTHENTICATED("unauthenticated"),
+    /** Malformed or invalid credentials or token (401) */
+    BAD_CREDENTIALS("badCredentials"),
+    /** Service not ready to authenticate, or saturated (503) */
+    NOT_READY("notReady"),
+    /** Refused by the login throttle (429) */
+    THROTTLED("throttled");
+
+    private final String metricName;
+
+    Outcome(String metricName) {
+      this.metricName = metricName;
+    }
+
+    public String getMetricName() {
+      return metricName;
+    }
+  }
+
+  public static final String PREFIX = "lockss.restAuth.";
+
+  private final LongAdder[] outcomes = new LongAdder[Outcome.values().length];
+  private final LatencyHistogram filterLatency =
+    new LatencyHistogram(PREFIX + "latency.filter");
+  private final LatencyHistogram ipCheckLatency =
+    new LatencyHistogram(PREFIX + "latency.ipCheck");
+  private final LatencyHistogram passwordCheckLatency =
+    new LatencyHistogram(PREFIX + "latency.passwordCheck");
+
+  public AuthMetrics() {
+    for (int ix = 0; ix < outcomes.length; ix++) {
+      outcomes[ix] = new LongAdder();
+    }
+  }
+
+  /** Record the outcome of a request and the time the filter took */
+  void recordOutcome(Outcome outcome, long nanos) {
+    outcomes[outcome.ordinal()].increment();
+    filterLatency.record(nanos);
+  }
+
+  void recordIpCheck(long nanos) {
+    ipCheckLatency.record(nanos);
+  }
+
+  void recordPasswordCheck(long nanos) {
+    passwordCheckLatency.record(nanos);
+  }
+
+  /** Return the number of requests with the outcome */
+  public long getCount(Outcome outcome) {
+    return outcomes[outcome.ordinal()].sum();
+  }
+
+  /** Return the histogram of time spent in the filter */
+  public LatencyHistogram getFilterLatency() {
+    return filterLatency;
+  }
+
+  /** Return the histogram of time spent checking IP access */
+  public LatencyHistogram getIpCheckLatency() {
+    return ipCheckLatency;
+  }
+
+  /** Return the histogram of time spent verifying passwords */
+  public LatencyHistogram getPasswordCheckLatency() {
+    return passwordCheckLatency;
+  }
+
+  /** Register all the metrics with the registry */
+  public void publishTo(MetricsRegistry registry) {
+    for (Outcome outcome : Outcome.values()) {
+      LongAdder count = outcomes[outcome.ordinal()];
+      registry.registerCounter(PREFIX + "outcome." + outcome.getMetricName(),
+			       count::sum);
+    }
+    for (LatencyHistogram hist : new LatencyHistogram[] {
+	filterLatency, ipCheckLatency, passwordCheckLatency}) {
+      registry.registerHistogram(hist.getName(), hist);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("[AuthMetrics:");
+    for (Outcome outcome : Outcome.values()) {
+      sb.append(' ').append(outcome.getMetricName()).append('=')
+	.append(getCount(outcome));
+    }
+    sb.append(", ").append(filterLatency);
+    sb.append(", ").append(ipCheckLatency);
+    sb.append(", ").append(passwordCheckLatency);
+    return sb.append(']').toString();
+  }
+}
@@ -0,0 +1,128 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+/**
+ * Immutable snapshot of the configuration that governs {@link
+ * SpringAuthenticationFilter}'s decisions.  A new one is built whenever
+ * the relevant config changes and published through a single volatile
+ * reference, so each request sees a consistent set of values with one
+ * read, and config-derived values (such as the authentication mode and
+ * compiled IP filters) are computed once rather than per request.
+ */
+final class AuthPolicy {
+
+  /** The supported values of {@link
+   * SpringAuthenticationFilter#PARAM_AUTH_TYPE} */
+  enum AuthMode {
+    NONE(SpringAuthenticationFilter.NONE_AUTH_TYPE),
+    BASIC(SpringAuthenticationFilter.BASIC_AUTH_TYPE),
+    TOKEN(SpringAuthenticationFilter.TOKEN_AUTH_TYPE),
+    X509(SpringAuthenticationFilter.X509_AUTH_TYPE);
+
+    private final String configName;
+
+    AuthMode(String configName) {
+      this.configName = configName;
+    }
+
+    /** Return the AuthMode with the config name, or null if none */
+    static AuthMode fromConfigName(String name) {
+      for (AuthMode mode : values()) {
+	if (mode.configName.equals(name)) {
+	  return mode;
+	}
+      }
+      return null;
+    }
+  }
+
+  /** True once the first config has been loaded */
+  final boolean isConfigSet;
+  /** The configured authentication type, for error messages */
+  final String authType;
+  /** The authentication mode, or null if authType is invalid */
+  final AuthMode authMode;
+  final boolean allowUnauthenticatedRead;
+  final boolean logForbidden;
+  final boolean allowLocal;
+  /** The configured access list, null if none has been installed */
+  final CompiledIpFilter ipFilter;
+  /** Loopback and container subnets */
+  final CompiledIpFilter localFilter;
+  final IpDecisionCache ipDecisionCache;
+  /** Proxies whose X-Forwarded-For headers are believed, null if none */
+  final CompiledIpFilter trustedProxies;
+  /** Configured routes */
+  final RouteTable routes;
+  /** Incremented in each new policy, tags cached IP decisions */
+  final int generation;
+
+  AuthPolicy(boolean isConfigSet,
+	     String authType,
+	     boolean allowUnauthenticatedRead,
+	     boolean logForbidden,
+	     boolean allowLocal,
+	     CompiledIpFilter ipFilter,
+	     CompiledIpFilter localFilter,
+	     IpDecisionCache ipDecisionCache,
+	     CompiledIpFilter trustedProxies,
+	     RouteTable routes,
+	     int generation) {
+    this.isConfigSet = isConfigSet;
+    this.authType = authType;
+    this.authMode = AuthMode.fromConfigName(authType);
+    this.allowUnauthenticatedRead = allowUnauthenticatedRead;
+    this.logForbidden = logForbidden;
+    this.allowLocal = allowLocal;
+    this.ipFilter = ipFilter;
+    this.localFilter = localFilter;
+    this.ipDecisionCache = ipDecisionCache;
+    this.trustedProxies = trustedProxies;
+    this.routes = routes;
+    this.generation = generation;
+  }
+
+  /** Return a copy of this policy marked as configured */
+  AuthPolicy withConfigSet() {
+    return new AuthPolicy(true, authType, allowUnauthenticatedRead,
+			  logForbidden, allowLocal, ipFilter, localFilter,
+			  ipDecisionCache, trustedProxies, routes, generation);
+  }
+
+  @Override
+  public String toString() {
+    return "[AuthPolicy: " + authType
+      + (isConfigSet ? "" : ", unconfigured")
+      + ", gen: " + generation + "]";
+  }
+}
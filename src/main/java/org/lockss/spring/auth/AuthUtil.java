@@ -54,6 +54,19 @@ public class AuthUtil {
 			  permissibleRoles);
   }
 
+  /**
+   * Called by service impls to check whether the currently authenticated
+   * user has the necessary roles for a specific request.  Throws
+   * AccessControlException if the check fails.
+   *
+   * @param permissionMask the permission mask, from {@link
+   * Roles#permissionMask(String...)}, usually stored in a constant
+   */
+  public static void checkHasRole(int permissionMask) {
+    AuthUtil.checkHasRole(SecurityContextHolder.getContext().getAuthentication(),
+			  permissionMask);
+  }
+
   /**
    * Checks whether the user has the role required to fulfill a set of roles.
    * Throws AccessControlException if the check fails.
@@ -64,6 +77,61 @@ public class AuthUtil {
    */
   public static void checkHasRole(Authentication authToken,
 				  String... permissibleRoles) {
+    int permissionMask = Roles.BIT_USER_ADMIN;
+    if (permissibleRoles != null) {
+      for (String permissibleRole : permissibleRoles) {
+	int bit = Roles.roleBit(permissibleRole);
+	if (bit == 0) {
+	  // Not a known role, must compare names
+	  checkHasRoleByName(authToken, permissibleRoles);
+	  return;
+	}
+	permissionMask |= bit;
+      }
+    }
+    checkHasRole(authToken, permissionMask);
+  }
+
+  /**
+   * Checks whether the user has any of the roles in the permission mask.
+   * Throws AccessControlException if the check fails.
+   *
+   * @param authToken the user's Authentication
+   * @param permissionMask the permission mask, from {@link
+   * Roles#permissionMask(String...)}
+   */
+  public static void checkHasRole(Authentication authToken,
+				  int permissionMask) {
+    if ((getRoleMask(authToken) & permissionMask) != 0) {
+      return;
+    }
+    // The user is not authorized because it does not have any of the
+    // permissible roles.
+    String message;
+    if (permissionMask == Roles.BIT_USER_ADMIN) {
+      message = "Unauthorized like any non-administrator";
+    } else {
+      message = "Unauthorized because user '" + authToken.getName()
+        + "'does not have any of the permissible roles";
+    }
+    log.debug2(message);
+    throw new AccessControlException(message);
+  }
+
+  /**
+   * Return the role mask of the user, from the token if it's a {@link
+   * LockssAuthenticationToken}, else computed from its authorities
+   */
+  public static int getRoleMask(Authentication authToken) {
+    if (authToken instanceof LockssAuthenticationToken) {
+      return ((LockssAuthenticationToken)authToken).getRoleMask();
+    }
+    return LockssAuthenticationToken.roleMaskOf(authToken.getAuthorities());
+  }
+
+  /** Check roles by name, for permissible roles that have no bit */
+  private static void checkHasRoleByName(Authentication authToken,
+					 String... permissibleRoles) {
     String userName = authToken.getName();
     Collection<String> userRoles = new ArrayList<>();
     for (GrantedAuthority auth : authToken.getAuthorities()) {
@@ -71,7 +139,7 @@ public class AuthUtil {
     }
     log.debug2("userName = {}", userName);
     log.debug2("userRoles = {}", userRoles);
-    log.debug2("permissibleRoles = {}", Arrays.toString(permissibleRoles));
+    log.debug2("permissibleRoles = {}", (Object)permissibleRoles);
 
     // An administrator is always authorized.
     if (userRoles.contains(Roles.ROLE_ALL_ACCESS)) {
@@ -79,14 +147,6 @@ public class AuthUtil {
       return;
     }
 
-    // Check whether there are no permissible roles.
-    if (permissibleRoles == null || permissibleRoles.length == 0) {
-      // Yes: Normal users are not authorized.
-      String message = "Unauthorized like any non-administrator";
-      log.debug2(message);
-      throw new AccessControlException(message);
-    }
-
     // Loop though all the permissible roles.
     for (String permissibleRole : permissibleRoles) {
       log.trace("permissibleRole = {}", permissibleRole);
@@ -0,0 +1,293 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.lockss.account.*;
+import org.lockss.log.L4JLogger;
+import org.lockss.util.time.TimeBase;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+/**
+ * Issues and verifies short-lived bearer tokens, for the
+ * <code>token</code> authentication type.  A client that authenticates
+ * with Basic credentials is given a token naming the user and its roles,
+ * signed with an HMAC key private to this instance.  Subsequent requests
+ * presenting the token are authenticated by checking the signature,
+ * without verifying a password.
+ * <p>
+ * Tokens have the form <code><i>payload</i>.<i>signature</i></code>, both
+ * unpadded base64url.  The payload is
+ * <code><i>keyId</i>:<i>expiration</i>:<i>fingerprint</i>:<i>roles</i>:<i>user</i></code>.
+ * The signing key is replaced at a configurable interval; tokens signed
+ * with the current or the previous key are accepted.
+ * <p>
+ * The fingerprint is a keyed hash of the account's password, roles and
+ * enabled state when the token was issued.  Each user's current
+ * fingerprint is looked up in the AccountManager at most once per
+ * recheck interval, so tokens are revoked, within that interval, when
+ * the account is deleted, disabled, or its password or roles change.
+ */
+class BearerTokens {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  private static final String MAC_ALG = "HmacSHA256";
+  private static final Base64.Encoder B64ENC =
+    Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder B64DEC = Base64.getUrlDecoder();
+
+  private final long ttl;
+  private final long rotationInterval;
+  private final long recheckInterval;
+  private final Principals principals;
+
+  private final SigningKey fingerprintKey = new SigningKey(0);
+  private volatile SigningKey currentKey;
+  private volatile SigningKey previousKey;
+
+  // User name -> account fingerprint, refreshed every recheckInterval
+  private final Map<String,Fingerprint> fingerprints =
+    new ConcurrentHashMap<>();
+
+  private final AtomicLong issued = new AtomicLong();
+  private final AtomicLong verified = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  /**
+   * @param ttl the time (ms) for which an issued token is valid
+   * @param rotationInterval the time (ms) after which the signing key is
+   * replaced.  Tokens are accepted for no longer than twice this.
+   * @param recheckInterval the time (ms) after which a user's account is
+   * rechecked for changes that revoke its tokens
+   * @param principals source of the shared authentication tokens
+   */
+  BearerTokens(long ttl, long rotationInterval, long recheckInterval,
+	       Principals principals) {
+    this.ttl = ttl;
+    this.rotationInterval = rotationInterval;
+    this.recheckInterval = recheckInterval;
+    this.principals = principals;
+    this.currentKey = new SigningKey(1);
+  }
+
+  boolean isSameAs(long ttl, long rotationInterval, long recheckInterval) {
+    return ttl == this.ttl
+      && rotationInterval == this.rotationInterval
+      && recheckInterval == this.recheckInterval;
+  }
+
+  /** Return a new token for the account */
+  String issue(UserAccount acct) {
+    long now = TimeBase.nowMs();
+    SigningKey key = getSigningKey(now);
+    StringBuilder sb = new StringBuilder();
+    sb.append(key.id).append(':')
+      .append(now + ttl).append(':')
+      .append(fingerprint(acct)).append(':')
+      .append(String.join(",", acct.getRoleSet())).append(':')
+      .append(acct.getName());
+    String payload =
+      B64ENC.encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    issued.incrementAndGet();
+    return payload + "." + B64ENC.encodeToString(key.sign(payload));
+  }
+
+  /**
+   * Return an authentication for the user named in the token, or null if
+   * the token is malformed, has an invalid signature, has expired, or
+   * has been revoked
+   *
+   * @param token the token, as returned by {@link #issue(UserAccount)}
+   * @param acctMgr the AccountManager, consulted at most once per
+   * recheck interval per user
+   */
+  UsernamePasswordAuthenticationToken verify(String token,
+					     AccountManager acctMgr) {
+    try {
+      UsernamePasswordAuthenticationToken res = verify0(token, acctMgr);
+      (res != null ? verified : rejected).incrementAndGet();
+      return res;
+    } catch (IllegalArgumentException e) {
+      log.debug2("Malformed token", e);
+      rejected.incrementAndGet();
+      return null;
+    }
+  }
+
+  private UsernamePasswordAuthenticationToken verify0(String token,
+						      AccountManager acctMgr) {
+    int dot = token.indexOf('.');
+    if (dot <= 0) {
+      return null;
+    }
+    String payload = token.substring(0, dot);
+    byte[] sig = B64DEC.decode(token.substring(dot + 1));
+    long now = TimeBase.nowMs();
+    // The key id is needed to check the signature
+    String[] fields =
+      new String(B64DEC.decode(payload), StandardCharsets.UTF_8)
+      .split(":", 5);
+    if (fields.length != 5) {
+      return null;
+    }
+    SigningKey key = findKey(Integer.parseInt(fields[0]), now);
+    if (key == null || !MessageDigest.isEqual(key.sign(payload), sig)) {
+      log.debug2("Token signature invalid or key expired");
+      return null;
+    }
+    if (now >= Long.parseLong(fields[1])) {
+      log.debug2("Token expired");
+      return null;
+    }
+    String user = fields[4];
+    if (!fields[2].equals(getCurrentFingerprint(user, acctMgr, now))) {
+      log.debug("Token for {} revoked by account change", user);
+      return null;
+    }
+    return principals.forUser(user, fields[3]);
+  }
+
+  /** Return the key to sign new tokens with, replacing it first if it's
+   * due to be rotated */
+  private SigningKey getSigningKey(long now) {
+    SigningKey key = currentKey;
+    if (now - key.created < rotationInterval) {
+      return key;
+    }
+    synchronized (this) {
+      key = currentKey;
+      if (now - key.created >= rotationInterval) {
+	log.debug2("Rotating token signing key {}", key.id);
+	previousKey = key;
+	key = currentKey = new SigningKey(key.id + 1);
+      }
+      return key;
+    }
+  }
+
+  /** Return the current or previous key with the id, or null if it's
+   * neither or has been retired for longer than a rotation interval */
+  private SigningKey findKey(int id, long now) {
+    SigningKey key = currentKey;
+    if (key.id == id) {
+      return key;
+    }
+    key = previousKey;
+    if (key != null && key.id == id
+	&& now - key.created < 2 * rotationInterval) {
+      return key;
+    }
+    return null;
+  }
+
+  /** Return the fingerprint of the user's current account state, or null
+   * if the account doesn't exist or is disabled */
+  private String getCurrentFingerprint(String user, AccountManager acctMgr,
+				       long now) {
+    Fingerprint fp = fingerprints.get(user);
+    if (fp == null || now - fp.checked >= recheckInterval) {
+      UserAccount acct = acctMgr.getUserOrNull(user);
+      if (acct == null) {
+	fingerprints.remove(user);
+	return null;
+      }
+      fp = new Fingerprint(fingerprint(acct), now);
+      fingerprints.put(user, fp);
+    }
+    return fp.value;
+  }
+
+  private String fingerprint(UserAccount acct) {
+    if (!acct.isEnabled()) {
+      return null;
+    }
+    String state = acct.getPassword() + "\0" + acct.getRoles();
+    byte[] mac = fingerprintKey.sign(state);
+    return B64ENC.encodeToString(Arrays.copyOf(mac, 12));
+  }
+
+  long getIssuedCount() {
+    return issued.get();
+  }
+
+  long getVerifiedCount() {
+    return verified.get();
+  }
+
+  long getRejectedCount() {
+    return rejected.get();
+  }
+
+  /** A random HMAC key */
+  private static class SigningKey {
+    final int id;
+    final long created = TimeBase.nowMs();
+    private final ThreadLocal<Mac> macs;
+
+    SigningKey(int id) {
+      this.id = id;
+      byte[] keyBytes = new byte[32];
+      new SecureRandom().nextBytes(keyBytes);
+      SecretKeySpec key = new SecretKeySpec(keyBytes, MAC_ALG);
+      this.macs = ThreadLocal.withInitial(() -> {
+	  try {
+	    Mac mac = Mac.getInstance(MAC_ALG);
+	    mac.init(key);
+	    return mac;
+	  } catch (GeneralSecurityException e) {
+	    throw new IllegalStateException("Can't create " + MAC_ALG, e);
+	  }
+	});
+    }
+
+    byte[] sign(String data) {
+      return macs.get().doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private static class Fingerprint {
+    final String value;
+    final long checked;
+
+    Fingerprint(String value, long checked) {
+      this.value = value;
+      this.checked = checked;
+    }
+  }
+}
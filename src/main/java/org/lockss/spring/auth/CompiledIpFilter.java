@@ -0,0 +1,494 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.*;
+
+import org.lockss.log.L4JLogger;
+import org.lockss.util.IpFilter;
+
+/**
+ * An immutable IP access filter compiled from the same include/exclude
+ * specs as {@link IpFilter}, represented as binary prefix tries (one for
+ * IPv4, one for IPv6) in primitive arrays.  Checking an address walks at
+ * most 32 or 128 nodes and allocates nothing.  As with IpFilter, an
+ * address is allowed if it matches an include and doesn't match any
+ * exclude.  The IpFilter the specs were validated with is kept, and
+ * consulted for any address this class can't parse itself.
+ */
+final class CompiledIpFilter {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  private static final byte INCLUDE = 1;
+  private static final byte EXCLUDE = 2;
+
+  // Node 0 is the null link, 1 and 2 are the IPv4 and IPv6 roots
+  private static final int NIL = 0;
+  private static final int ROOT4 = 1;
+  private static final int ROOT6 = 2;
+
+  private static final int INVALID = -1;
+  private static final int V4 = 4;
+  private static final int V6 = 6;
+
+  /** Scratch space for parsing addresses on the request path */
+  private static final ThreadLocal<long[]> SCRATCH =
+    ThreadLocal.withInitial(() -> new long[2]);
+
+  private final int[] zero;
+  private final int[] one;
+  private final byte[] flags;
+  private final IpFilter fallback;
+  private final boolean isCompiled;
+
+  private CompiledIpFilter(Builder b, IpFilter fallback, boolean isCompiled) {
+    this.isCompiled = isCompiled;
+    this.zero = Arrays.copyOf(b.zero, b.size);
+    this.one = Arrays.copyOf(b.one, b.size);
+    this.flags = Arrays.copyOf(b.flags, b.size);
+    this.fallback = fallback;
+  }
+
+  /**
+   * Build a CompiledIpFilter from lists of include and exclude specs.
+   * @param includes the include specs
+   * @param excludes the exclude specs
+   * @return the compiled filter
+   * @throws IpFilter.MalformedException if IpFilter rejects any spec
+   */
+  static CompiledIpFilter compile(List<String> includes,
+				  List<String> excludes)
+      throws IpFilter.MalformedException {
+    IpFilter filter = new IpFilter();
+    filter.setFilters(includes, excludes);
+    return compile(filter, includes, excludes);
+  }
+
+  /**
+   * Build a CompiledIpFilter from semicolon-separated include and exclude
+   * specs, in the form accepted by {@link IpFilter#setFilters(String,
+   * String)}.
+   * @param includes the include specs
+   * @param excludes the exclude specs
+   * @return the compiled filter
+   * @throws IpFilter.MalformedException if IpFilter rejects any spec
+   */
+  static CompiledIpFilter compile(String includes, String excludes)
+      throws IpFilter.MalformedException {
+    IpFilter filter = new IpFilter();
+    filter.setFilters(includes, excludes);
+    return compile(filter, splitSpecs(includes), splitSpecs(excludes));
+  }
+
+  private static CompiledIpFilter compile(IpFilter filter,
+					  List<String> includes,
+					  List<String> excludes) {
+    Builder b = new Builder();
+    if (!b.addAll(includes, INCLUDE) || !b.addAll(excludes, EXCLUDE)) {
+      // Something IpFilter accepts that we don't understand.  Leave the
+      // tries empty and let every lookup go to the IpFilter.
+      log.debug("Using uncompiled IP filter: incl: {}, excl: {}",
+		includes, excludes);
+      return new CompiledIpFilter(new Builder(), filter, false);
+    }
+    return new CompiledIpFilter(b, filter, true);
+  }
+
+  /** Return a filter that allows nothing */
+  static CompiledIpFilter empty() {
+    return new CompiledIpFilter(new Builder(), new IpFilter(), true);
+  }
+
+  static List<String> splitSpecs(String specs) {
+    if (specs == null) {
+      return Collections.emptyList();
+    }
+    List<String> res = new ArrayList<>();
+    for (String spec : specs.split(";")) {
+      spec = spec.trim();
+      if (!spec.isEmpty()) {
+	res.add(spec);
+      }
+    }
+    return res;
+  }
+
+  /** Return true if the specs were compiled into tries, false if all
+   * lookups are delegated to IpFilter */
+  boolean isCompiled() {
+    return isCompiled;
+  }
+
+  /**
+   * Return true if the address is allowed by the filter
+   * @param ip an IPv4 or IPv6 address literal
+   * @throws IpFilter.MalformedException if the address can't be parsed
+   */
+  boolean isIpAllowed(String ip) throws IpFilter.MalformedException {
+    if (!isCompiled) {
+      return fallback.isIpAllowed(ip);
+    }
+    long[] bits = SCRATCH.get();
+    switch (parseAddr(ip, 0, ip.length(), bits)) {
+    case V4:
+      return walk(ROOT4, bits[1] << 32, 0, 32);
+    case V6:
+      return walk(ROOT6, bits[0], bits[1], 128);
+    default:
+      return fallback.isIpAllowed(ip);
+    }
+  }
+
+  /** Walk the trie along the address bits, accumulating the flags of
+   * every prefix node passed through */
+  private boolean walk(int node, long hi, long lo, int nbits) {
+    int acc = flags[node];
+    for (int i = 0; i < nbits && (acc & EXCLUDE) == 0; i++) {
+      long word = i < 64 ? hi : lo;
+      boolean bit = (word << (i & 63)) < 0;
+      node = bit ? one[node] : zero[node];
+      if (node == NIL) {
+	break;
+      }
+      acc |= flags[node];
+    }
+    return (acc & (INCLUDE | EXCLUDE)) == INCLUDE;
+  }
+
+  /** Growable arrays used only while compiling */
+  private static class Builder {
+    int[] zero = new int[64];
+    int[] one = new int[64];
+    byte[] flags = new byte[64];
+    int size = 3;
+
+    boolean addAll(List<String> specs, byte flag) {
+      if (specs == null) {
+	return true;
+      }
+      for (String spec : specs) {
+	if (!add(spec.trim(), flag)) {
+	  return false;
+	}
+      }
+      return true;
+    }
+
+    /** Add one spec (a.b.c.d, a.b.c.d/n, a.b.c.d/m.m.m.m, a.b.*.*,
+     * x:x::x or x:x::x/n).  Return false if it isn't understood. */
+    boolean add(String spec, byte flag) {
+      long[] bits = new long[2];
+      int slash = spec.indexOf('/');
+      String addr = slash < 0 ? spec : spec.substring(0, slash);
+      int type;
+      int prefix;
+      if (addr.indexOf('*') >= 0) {
+	prefix = parseWildcard(addr, bits);
+	if (prefix < 0 || slash >= 0) {
+	  return false;
+	}
+	type = V4;
+      } else {
+	type = parseAddr(addr, 0, addr.length(), bits);
+	if (type == INVALID) {
+	  return false;
+	}
+	// An IPv4-mapped address with an IPv6 prefix length
+	boolean mapped = type == V4 && addr.indexOf(':') >= 0;
+	int width = type == V4 ? 32 : 128;
+	if (slash < 0) {
+	  prefix = width;
+	} else {
+	  String len = spec.substring(slash + 1);
+	  if (type == V4 && len.indexOf('.') >= 0) {
+	    long[] mask = new long[2];
+	    if (parseAddr(len, 0, len.length(), mask) != V4) {
+	      return false;
+	    }
+	    prefix = maskLength((int)mask[1]);
+	  } else {
+	    try {
+	      prefix = Integer.parseInt(len);
+	    } catch (NumberFormatException e) {
+	      return false;
+	    }
+	    if (mapped) {
+	      prefix -= 96;
+	    }
+	  }
+	  if (prefix < 0 || prefix > width) {
+	    return false;
+	  }
+	}
+      }
+      if (type == V4) {
+	insert(ROOT4, bits[1] << 32, 0, prefix, flag);
+      } else {
+	insert(ROOT6, bits[0], bits[1], prefix, flag);
+      }
+      return true;
+    }
+
+    void insert(int node, long hi, long lo, int prefix, byte flag) {
+      for (int i = 0; i < prefix; i++) {
+	long word = i < 64 ? hi : lo;
+	boolean bit = (word << (i & 63)) < 0;
+	int[] links = bit ? one : zero;
+	if (links[node] == NIL) {
+	  int child = newNode();
+	  // newNode() may have reallocated the arrays
+	  (bit ? one : zero)[node] = child;
+	}
+	node = (bit ? one : zero)[node];
+      }
+      flags[node] |= flag;
+    }
+
+    int newNode() {
+      if (size == zero.length) {
+	int n = size * 2;
+	zero = Arrays.copyOf(zero, n);
+	one = Arrays.copyOf(one, n);
+	flags = Arrays.copyOf(flags, n);
+      }
+      return size++;
+    }
+  }
+
+  /** Return the length of a contiguous dotted IPv4 netmask, or -1 if the
+   * mask isn't contiguous */
+  private static int maskLength(int mask) {
+    int len = Integer.bitCount(mask);
+    int expected = len == 0 ? 0 : (int)(0xffffffffL << (32 - len));
+    return mask == expected ? len : -1;
+  }
+
+  /** Parse a.b.*.* or a.b.* into bits[1], return the prefix length or -1 */
+  private static int parseWildcard(String addr, long[] bits) {
+    String[] parts = addr.split("\\.", -1);
+    if (parts.length > 4) {
+      return -1;
+    }
+    long val = 0;
+    int prefix = 0;
+    boolean star = false;
+    for (String part : parts) {
+      if (part.equals("*")) {
+	star = true;
+      } else if (star) {
+	return -1;
+      } else {
+	int octet = parseOctet(part, 0, part.length());
+	if (octet < 0) {
+	  return -1;
+	}
+	val |= (long)octet << (24 - prefix);
+	prefix += 8;
+      }
+    }
+    bits[0] = 0;
+    bits[1] = val;
+    return star ? prefix : -1;
+  }
+
+  /**
+   * Parse an IPv4 or IPv6 literal in s[from, to).  An IPv4 address, or
+   * an IPv4-mapped IPv6 address, is stored in the low 32 bits of bits[1];
+   * an IPv6 address in bits[0] (high 64) and bits[1] (low 64).  Any
+   * "%zone" suffix is ignored.
+   * @return V4, V6 or INVALID
+   */
+  static int parseAddr(String s, int from, int to, long[] bits) {
+    int pct = s.indexOf('%', from);
+    if (pct >= 0 && pct < to) {
+      to = pct;
+    }
+    if (s.indexOf(':', from) < 0 || s.indexOf(':', from) >= to) {
+      long v4 = parseV4(s, from, to);
+      if (v4 < 0) {
+	return INVALID;
+      }
+      bits[0] = 0;
+      bits[1] = v4;
+      return V4;
+    }
+    if (!parseV6(s, from, to, bits)) {
+      return INVALID;
+    }
+    if (bits[0] == 0 && (bits[1] >>> 32) == 0xffffL) {
+      bits[1] &= 0xffffffffL;
+      return V4;
+    }
+    return V6;
+  }
+
+  /** Parse a dotted quad, return its value or -1 */
+  private static long parseV4(String s, int from, int to) {
+    long val = 0;
+    int start = from;
+    int octets = 0;
+    for (int i = from; i <= to; i++) {
+      if (i == to || s.charAt(i) == '.') {
+	int octet = parseOctet(s, start, i);
+	if (octet < 0 || ++octets > 4) {
+	  return -1;
+	}
+	val = (val << 8) | octet;
+	start = i + 1;
+      }
+    }
+    return octets == 4 ? val : -1;
+  }
+
+  private static int parseOctet(String s, int from, int to) {
+    int len = to - from;
+    if (len < 1 || len > 3) {
+      return -1;
+    }
+    int val = 0;
+    for (int i = from; i < to; i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+	return -1;
+      }
+      val = val * 10 + (c - '0');
+    }
+    return val <= 255 ? val : -1;
+  }
+
+  /** Parse an IPv6 literal into bits[0..1], return false if malformed */
+  private static boolean parseV6(String s, int from, int to, long[] bits) {
+    // Groups before and after "::" are accumulated separately, then
+    // combined with the appropriate number of zero groups between.
+    long headHi = 0, headLo = 0, tailHi = 0, tailLo = 0;
+    int headCount = 0, tailCount = 0;
+    boolean gap = false;
+    int i = from;
+    if (to - from >= 2 && s.charAt(i) == ':' && s.charAt(i + 1) == ':') {
+      gap = true;
+      i += 2;
+    }
+    while (i < to) {
+      int start = i;
+      int group = 0;
+      while (i < to && s.charAt(i) != ':' && s.charAt(i) != '.') {
+	int d = hexDigit(s.charAt(i));
+	if (d < 0 || i - start >= 4) {
+	  return false;
+	}
+	group = (group << 4) | d;
+	i++;
+      }
+      if (i < to && s.charAt(i) == '.') {
+	// Embedded IPv4 address must be last, counts as two groups
+	long v4 = parseV4(s, start, to);
+	if (v4 < 0) {
+	  return false;
+	}
+	for (int shift = 16; shift >= 0; shift -= 16) {
+	  int g = (int)((v4 >>> shift) & 0xffff);
+	  if (gap) {
+	    tailHi = (tailHi << 16) | (tailLo >>> 48);
+	    tailLo = (tailLo << 16) | g;
+	    tailCount++;
+	  } else {
+	    headHi = (headHi << 16) | (headLo >>> 48);
+	    headLo = (headLo << 16) | g;
+	    headCount++;
+	  }
+	}
+	i = to;
+	break;
+      }
+      if (i == start) {
+	return false;
+      }
+      if (gap) {
+	tailHi = (tailHi << 16) | (tailLo >>> 48);
+	tailLo = (tailLo << 16) | group;
+	tailCount++;
+      } else {
+	headHi = (headHi << 16) | (headLo >>> 48);
+	headLo = (headLo << 16) | group;
+	headCount++;
+      }
+      if (i < to) {
+	// at ':'
+	i++;
+	if (i < to && s.charAt(i) == ':') {
+	  if (gap) {
+	    return false;
+	  }
+	  gap = true;
+	  i++;
+	} else if (i == to) {
+	  return false;
+	}
+      }
+    }
+    if (gap) {
+      if (headCount + tailCount > 7) {
+	return false;
+      }
+      int shift = 16 * (8 - headCount);
+      bits[0] = shlHi(headHi, headLo, shift) | tailHi;
+      bits[1] = shlLo(headLo, shift) | tailLo;
+    } else {
+      if (headCount != 8) {
+	return false;
+      }
+      bits[0] = headHi;
+      bits[1] = headLo;
+    }
+    return true;
+  }
+
+  private static int hexDigit(char c) {
+    if (c >= '0' && c <= '9') return c - '0';
+    if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+    if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+    return -1;
+  }
+
+  /** High word of the 128-bit value (hi, lo) shifted left n (0-128) */
+  private static long shlHi(long hi, long lo, int n) {
+    if (n == 0) return hi;
+    if (n >= 128) return 0;
+    if (n >= 64) return lo << (n - 64);
+    return (hi << n) | (lo >>> (64 - n));
+  }
+
+  /** Low word of the 128-bit value (hi, lo) shifted left n (0-128) */
+  private static long shlLo(long lo, int n) {
+    return n >= 64 ? 0 : lo << n;
+  }
+}
@@ -0,0 +1,222 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.*;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.lockss.log.L4JLogger;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.core.MethodClassKey;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.authorization.*;
+import org.springframework.security.authorization.method.PreAuthorizeAuthorizationManager;
+import org.springframework.security.core.*;
+
+/**
+ * {@link AuthorizationManager} for {@link PreAuthorize} that compiles
+ * the common expression forms, <code>hasRole</code>,
+ * <code>hasAnyRole</code>, <code>hasAuthority</code> and
+ * <code>hasAnyAuthority</code> with literal arguments, into a check of
+ * the caller's authorities (a role mask test for LOCKSS roles), the first
+ * time each method is called.  Other expressions are evaluated by
+ * Spring's SpEL-based {@link PreAuthorizeAuthorizationManager}.
+ */
+public class CompiledPreAuthorizeManager
+  implements AuthorizationManager<MethodInvocation> {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  /** Spring's default prefix added to the argument of hasRole() */
+  public static final String DEFAULT_ROLE_PREFIX = "ROLE_";
+
+  private static final Pattern SIMPLE_EXPR =
+    Pattern.compile("\\s*(hasRole|hasAnyRole|hasAuthority|hasAnyAuthority)"
+		    + "\\s*\\(\\s*(.*?)\\s*\\)\\s*");
+  private static final Pattern QUOTED_ARG =
+    Pattern.compile("\\s*(?:'([^'\\\\]*)'|\"([^\"\\\\]*)\")\\s*(?:,|$)");
+
+  private static final AuthorizationDecision GRANTED =
+    new AuthorizationDecision(true);
+  private static final AuthorizationDecision DENIED =
+    new AuthorizationDecision(false);
+
+  // Marks methods that have no PreAuthorize annotation
+  private static final Check NO_CHECK = new Check(Collections.emptySet());
+  // Marks methods whose expression must be evaluated by SpEL
+  private static final Check SPEL = new Check(Collections.emptySet());
+
+  private final String rolePrefix;
+  private final AuthorizationManager<MethodInvocation> fallback;
+  private final Map<MethodClassKey,Check> checks = new ConcurrentHashMap<>();
+
+  /**
+   * Evaluates other expressions with a default
+   * PreAuthorizeAuthorizationManager, which can't resolve bean
+   * references.  {@link SpringSecurityConfigurer} supplies one with the
+   * application's expression handler.
+   */
+  public CompiledPreAuthorizeManager() {
+    this(DEFAULT_ROLE_PREFIX, new PreAuthorizeAuthorizationManager());
+  }
+
+  /**
+   * @param rolePrefix the prefix hasRole() adds to its arguments
+   * @param fallback evaluates expressions that can't be compiled
+   */
+  public CompiledPreAuthorizeManager(String rolePrefix,
+				     AuthorizationManager<MethodInvocation> fallback) {
+    this.rolePrefix = rolePrefix;
+    this.fallback = fallback;
+  }
+
+  @Override
+  public AuthorizationDecision check(Supplier<Authentication> authentication,
+				     MethodInvocation mi) {
+    Check check = getCheck(mi);
+    if (check == NO_CHECK) {
+      return null;
+    }
+    if (check == SPEL) {
+      return fallback.check(authentication, mi);
+    }
+    return check.isGranted(authentication.get()) ? GRANTED : DENIED;
+  }
+
+  /** Return true if the method's expression has been compiled */
+  boolean isCompiled(MethodInvocation mi) {
+    Check check = getCheck(mi);
+    return check != NO_CHECK && check != SPEL;
+  }
+
+  private Check getCheck(MethodInvocation mi) {
+    Method method = mi.getMethod();
+    Class<?> targetClass =
+      mi.getThis() != null ? AopUtils.getTargetClass(mi.getThis()) : null;
+    return checks.computeIfAbsent(new MethodClassKey(method, targetClass),
+				  k -> compile(method, targetClass));
+  }
+
+  private Check compile(Method method, Class<?> targetClass) {
+    Method specificMethod = AopUtils.getMostSpecificMethod(method, targetClass);
+    PreAuthorize ann =
+      AnnotationUtils.findAnnotation(specificMethod, PreAuthorize.class);
+    if (ann == null) {
+      ann = AnnotationUtils.findAnnotation(specificMethod.getDeclaringClass(),
+					   PreAuthorize.class);
+    }
+    if (ann == null) {
+      return NO_CHECK;
+    }
+    Set<String> authorities = parse(ann.value());
+    if (authorities == null) {
+      log.debug2("Using SpEL for {}: {}", specificMethod, ann.value());
+      return SPEL;
+    }
+    log.debug2("Compiled {}: {}", specificMethod, ann.value());
+    return new Check(authorities);
+  }
+
+  /**
+   * Return the set of authorities, any one of which satisfies the
+   * expression, or null if it isn't one of the compilable forms.
+   */
+  Set<String> parse(String expr) {
+    Matcher m = SIMPLE_EXPR.matcher(expr);
+    if (!m.matches()) {
+      return null;
+    }
+    String fn = m.group(1);
+    String args = m.group(2);
+    if (args.endsWith(",")) {
+      return null;
+    }
+    boolean isRole = fn.equals("hasRole") || fn.equals("hasAnyRole");
+    boolean isAny = fn.startsWith("hasAny");
+    Set<String> res = new HashSet<>();
+    Matcher am = QUOTED_ARG.matcher(args);
+    int pos = 0;
+    while (pos < args.length()) {
+      if (!am.find(pos) || am.start() != pos) {
+	return null;
+      }
+      String arg = am.group(1) != null ? am.group(1) : am.group(2);
+      res.add(isRole && !arg.startsWith(rolePrefix) ? rolePrefix + arg : arg);
+      pos = am.end();
+    }
+    if (res.isEmpty() || (!isAny && res.size() != 1)) {
+      return null;
+    }
+    return res;
+  }
+
+  /** A compiled expression: the caller must have any of the authorities */
+  private static class Check {
+    final Set<String> authorities;
+    // Nonzero if all the authorities are LOCKSS roles
+    final int mask;
+
+    Check(Set<String> authorities) {
+      this.authorities = authorities;
+      int m = 0;
+      for (String auth : authorities) {
+	int bit = Roles.roleBit(auth);
+	// Every user's mask has BIT_ANY, whether or not it has that role
+	if (bit == 0 || bit == Roles.BIT_ANY) {
+	  m = 0;
+	  break;
+	}
+	m |= bit;
+      }
+      this.mask = m;
+    }
+
+    boolean isGranted(Authentication auth) {
+      if (auth == null) {
+	return false;
+      }
+      if (mask != 0 && auth instanceof LockssAuthenticationToken) {
+	return (((LockssAuthenticationToken)auth).getRoleMask() & mask) != 0;
+      }
+      for (GrantedAuthority ga : auth.getAuthorities()) {
+	if (authorities.contains(ga.getAuthority())) {
+	  return true;
+	}
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.lockss.account.*;
+import org.lockss.log.L4JLogger;
+import org.lockss.util.time.TimeBase;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+/**
+ * Bounded, time-limited cache of Authorization headers whose credentials
+ * have already been verified, so that repeated requests from the same
+ * client needn't pay for a password hash on every call.  Entries are
+ * keyed by an HMAC of the header (with a key private to this instance)
+ * rather than by the header itself, so cleartext credentials are never
+ * retained.  An entry is discarded if the underlying {@link UserAccount}
+ * has been replaced, disabled, or its password or roles have changed.
+ */
+class CredentialCache {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  private static final String MAC_ALG = "HmacSHA256";
+
+  private final int maxSize;
+  private final long ttl;
+  private final Map<String,Entry> map;
+  private final ThreadLocal<Mac> macs;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param maxSize the maximum number of entries; if zero the cache is
+   * disabled
+   * @param ttl the time, in milliseconds, an entry remains valid
+   */
+  CredentialCache(int maxSize, long ttl) {
+    this.maxSize = maxSize;
+    this.ttl = ttl;
+    this.map = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+	  return size() > CredentialCache.this.maxSize;
+	}
+      };
+    byte[] keyBytes = new byte[32];
+    new SecureRandom().nextBytes(keyBytes);
+    SecretKeySpec key = new SecretKeySpec(keyBytes, MAC_ALG);
+    this.macs = ThreadLocal.withInitial(() -> {
+	try {
+	  Mac mac = Mac.getInstance(MAC_ALG);
+	  mac.init(key);
+	  return mac;
+	} catch (GeneralSecurityException e) {
+	  throw new IllegalStateException("Can't create " + MAC_ALG, e);
+	}
+      });
+  }
+
+  boolean isEnabled() {
+    return maxSize > 0;
+  }
+
+  int getMaxSize() {
+    return maxSize;
+  }
+
+  long getTtl() {
+    return ttl;
+  }
+
+  /** Return the cache key for an Authorization header, or null if the
+   * cache is disabled */
+  String keyFor(String authHeader) {
+    if (!isEnabled() || authHeader == null) {
+      return null;
+    }
+    byte[] digest =
+      macs.get().doFinal(authHeader.getBytes(StandardCharsets.UTF_8));
+    return Base64.getEncoder().withoutPadding().encodeToString(digest);
+  }
+
+  /**
+   * Return the authentication token previously stored under the key, if
+   * it hasn't expired and the user's account hasn't changed since.
+   *
+   * @param key the key returned by {@link #keyFor(String)}
+   * @param acctMgr the AccountManager, used to check that the account is
+   * unchanged
+   * @return the cached token, or null
+   */
+  UsernamePasswordAuthenticationToken get(String key,
+					  AccountManager acctMgr) {
+    if (key == null) {
+      return null;
+    }
+    Entry ent;
+    synchronized (map) {
+      ent = map.get(key);
+    }
+    if (ent != null) {
+      if (TimeBase.nowMs() < ent.expiration &&
+	  ent.isValidFor(acctMgr.getUserOrNull(ent.userName))) {
+	hits.incrementAndGet();
+	return ent.token;
+      }
+      log.debug2("Discarding stale credential cache entry for {}",
+		 ent.userName);
+      remove(key);
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /** Remember that the credentials with this key were verified for the
+   * account */
+  void put(String key, UserAccount acct,
+	   UsernamePasswordAuthenticationToken token) {
+    if (key == null) {
+      return;
+    }
+    Entry ent = new Entry(acct, token, TimeBase.nowMs() + ttl);
+    synchronized (map) {
+      map.put(key, ent);
+    }
+  }
+
+  void remove(String key) {
+    synchronized (map) {
+      map.remove(key);
+    }
+  }
+
+  /** Discard all entries */
+  void clear() {
+    synchronized (map) {
+      map.clear();
+    }
+  }
+
+  int size() {
+    synchronized (map) {
+      return map.size();
+    }
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+
+  /** The verified token, and enough of the account state to detect that
+   * it has been changed */
+  private static class Entry {
+    final String userName;
+    final UserAccount acct;
+    final String password;
+    final String roles;
+    final UsernamePasswordAuthenticationToken token;
+    final long expiration;
+
+    Entry(UserAccount acct, UsernamePasswordAuthenticationToken token,
+	  long expiration) {
+      this.userName = acct.getName();
+      this.acct = acct;
+      this.password = acct.getPassword();
+      this.roles = acct.getRoles();
+      this.token = token;
+      this.expiration = expiration;
+    }
+
+    boolean isValidFor(UserAccount cur) {
+      return cur == acct
+	&& cur.isEnabled()
+	&& Objects.equals(password, cur.getPassword())
+	&& Objects.equals(roles, cur.getRoles());
+    }
+  }
+}
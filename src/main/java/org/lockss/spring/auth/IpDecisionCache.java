@@ -0,0 +1,124 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Small, lock-free, direct-mapped cache of IP access decisions, keyed by
+ * the unparsed remote address or X-Forwarded-For header value.  Each
+ * entry is tagged with the config generation in effect when the decision
+ * was made; entries from any other generation are treated as misses, so
+ * a decision is never served after the access lists change.  Colliding
+ * keys simply replace each other.
+ */
+class IpDecisionCache {
+
+  static final int UNKNOWN = 0;
+  static final int ALLOWED = 1;
+  static final int DENIED = 2;
+
+  private final AtomicReferenceArray<Entry> entries;
+  private final int mask;
+  private final int configuredSize;
+
+  /**
+   * @param size the number of slots, rounded up to a power of two.  If
+   * zero the cache is disabled.
+   */
+  IpDecisionCache(int size) {
+    configuredSize = size;
+    int slots = size <= 1 ? Math.max(size, 0)
+      : Integer.highestOneBit(size - 1) << 1;
+    entries = new AtomicReferenceArray<>(slots);
+    mask = slots - 1;
+  }
+
+  int getSize() {
+    return entries.length();
+  }
+
+  /** Return the size this cache was created with, before rounding */
+  int getConfiguredSize() {
+    return configuredSize;
+  }
+
+  /**
+   * Return {@link #ALLOWED} or {@link #DENIED} if a decision for this
+   * address and path restriction was recorded in the given generation,
+   * else {@link #UNKNOWN}
+   */
+  int get(String addr, boolean isRestrictedPath, int generation) {
+    if (mask < 0) {
+      return UNKNOWN;
+    }
+    Entry ent = entries.get(index(addr, isRestrictedPath));
+    if (ent != null
+	&& ent.generation == generation
+	&& ent.isRestrictedPath == isRestrictedPath
+	&& ent.addr.equals(addr)) {
+      return ent.allowed ? ALLOWED : DENIED;
+    }
+    return UNKNOWN;
+  }
+
+  /** Record a decision */
+  void put(String addr, boolean isRestrictedPath, int generation,
+	   boolean allowed) {
+    if (mask < 0) {
+      return;
+    }
+    entries.set(index(addr, isRestrictedPath),
+		new Entry(addr, isRestrictedPath, generation, allowed));
+  }
+
+  private int index(String addr, boolean isRestrictedPath) {
+    int h = addr.hashCode() ^ (isRestrictedPath ? 0x5bd1e995 : 0);
+    h ^= (h >>> 16);
+    return h & mask;
+  }
+
+  private static class Entry {
+    final String addr;
+    final boolean isRestrictedPath;
+    final int generation;
+    final boolean allowed;
+
+    Entry(String addr, boolean isRestrictedPath, int generation,
+	  boolean allowed) {
+      this.addr = addr;
+      this.isRestrictedPath = isRestrictedPath;
+      this.generation = generation;
+      this.allowed = allowed;
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.lockss.account.*;
+import org.lockss.log.L4JLogger;
+import org.lockss.util.time.TimeBase;
+
+/**
+ * Answers "might this user name exist?" from a {@link UsernameFilter} of
+ * the known accounts, so that attempts with random user names are
+ * refused without looking up the account.  The filter is rebuilt in the
+ * background, on a single shared thread, when accounts are added or
+ * removed (noticed when the number of accounts differs from the number
+ * the filter was built from) and when it's older than the rebuild
+ * interval.  Request threads never wait for a rebuild.  Until a rebuild
+ * prompted by an account change completes, names the filter rejects are
+ * confirmed with the AccountManager, so a new account isn't refused.
+ */
+class KnownUsers {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  // Runs rebuilds for all instances; its thread exits when idle
+  private static final ThreadPoolExecutor REBUILD_EXECUTOR =
+    new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+			   new LinkedBlockingQueue<>(),
+			   r -> {
+			     Thread th = new Thread(r, "UsernameFilterRebuild");
+			     th.setDaemon(true);
+			     return th;
+			   });
+  static {
+    REBUILD_EXECUTOR.allowCoreThreadTimeOut(true);
+  }
+
+  private final double fpp;
+  private final long rebuildInterval;
+  private final Executor executor;
+
+  private volatile UsernameFilter filter;
+  private volatile long builtAt;
+  private final AtomicBoolean isRebuilding = new AtomicBoolean();
+
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong rebuilds = new AtomicLong();
+  private volatile long lastRebuildNanos;
+
+  /**
+   * @param fpp the false positive probability of the filter
+   * @param rebuildInterval the max age (ms) of the filter
+   */
+  KnownUsers(double fpp, long rebuildInterval) {
+    this(fpp, rebuildInterval, REBUILD_EXECUTOR);
+  }
+
+  /**
+   * @param fpp the false positive probability of the filter
+   * @param rebuildInterval the max age (ms) of the filter
+   * @param executor runs rebuilds
+   */
+  KnownUsers(double fpp, long rebuildInterval, Executor executor) {
+    this.fpp = fpp;
+    this.rebuildInterval = rebuildInterval;
+    this.executor = executor;
+  }
+
+  boolean isSameAs(double fpp, long rebuildInterval) {
+    return fpp == this.fpp && rebuildInterval == this.rebuildInterval;
+  }
+
+  /**
+   * Return false if the user name definitely doesn't exist
+   * @param name the user name
+   * @param acctMgr the AccountManager, from which the filter is built
+   */
+  boolean mightExist(String name, AccountManager acctMgr) {
+    UsernameFilter f = filter;
+    if (f == null || TimeBase.msSince(builtAt) >= rebuildInterval) {
+      requestRebuild(acctMgr);
+    }
+    if (f == null || f.mightContain(name)) {
+      return true;
+    }
+    // getUsers() is a view of the account map, so this is cheap
+    if (acctMgr.getUsers().size() != f.size()) {
+      // Accounts have changed since the filter was built.  Rebuild it,
+      // and until then don't trust its rejections.
+      requestRebuild(acctMgr);
+      if (acctMgr.getUserOrNull(name) != null) {
+	log.debug2("User {} not in filter, accounts changed", name);
+	return true;
+      }
+    }
+    rejected.incrementAndGet();
+    return false;
+  }
+
+  /** Start a rebuild of the filter unless one is in progress */
+  private void requestRebuild(AccountManager acctMgr) {
+    if (!isRebuilding.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      executor.execute(() -> {
+	  try {
+	    rebuild(acctMgr);
+	  } catch (RuntimeException e) {
+	    log.warn("Couldn't rebuild user name filter", e);
+	    // Don't retry until the next interval
+	    builtAt = TimeBase.nowMs();
+	  } finally {
+	    isRebuilding.set(false);
+	  }
+	});
+    } catch (RejectedExecutionException e) {
+      log.warn("Couldn't start user name filter rebuild", e);
+      isRebuilding.set(false);
+    }
+  }
+
+  private void rebuild(AccountManager acctMgr) {
+    long start = System.nanoTime();
+    List<String> names = new ArrayList<>();
+    for (UserAccount acct : acctMgr.getUsers()) {
+      names.add(acct.getName());
+    }
+    UsernameFilter f = UsernameFilter.build(names, fpp);
+    lastRebuildNanos = System.nanoTime() - start;
+    builtAt = TimeBase.nowMs();
+    filter = f;
+    rebuilds.incrementAndGet();
+    log.debug2("Rebuilt {} in {}us", f, lastRebuildNanos / 1000);
+  }
+
+  /** Return the number of names refused */
+  long getRejectedCount() {
+    return rejected.get();
+  }
+
+  /** Return the number of times the filter has been built */
+  long getRebuildCount() {
+    return rebuilds.get();
+  }
+
+  /** Return the time (ns) the last rebuild took */
+  long getLastRebuildNanos() {
+    return lastRebuildNanos;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.*;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * An authenticated token that also carries the user's role mask (see
+ * {@link Roles#userRoleMask(Collection)}), so that authorization checks
+ * needn't examine the authorities.  Tokens are shared by all requests
+ * from a user (see {@link Principals}), so they're immutable: details
+ * and credential erasure are ignored, and the authenticated flag can't
+ * be changed.
+ */
+public class LockssAuthenticationToken
+  extends UsernamePasswordAuthenticationToken {
+
+  private final int roleMask;
+
+  public LockssAuthenticationToken(Object principal, Object credentials,
+				   Collection<? extends GrantedAuthority> authorities) {
+    super(principal, credentials, authorities);
+    this.roleMask = roleMaskOf(authorities);
+  }
+
+  /** Return the role mask of the user */
+  public int getRoleMask() {
+    return roleMask;
+  }
+
+  /** Shared tokens carry no request-specific details */
+  @Override
+  public void setDetails(Object details) {
+  }
+
+  /** Shared tokens carry no credentials to erase */
+  @Override
+  public void eraseCredentials() {
+  }
+
+  /** @throws IllegalArgumentException always, as the token is shared */
+  @Override
+  public void setAuthenticated(boolean isAuthenticated)
+      throws IllegalArgumentException {
+    throw new IllegalArgumentException("Shared authentication token can't be changed");
+  }
+
+  /** Return the role mask of a user with the authorities */
+  static int roleMaskOf(Collection<? extends GrantedAuthority> authorities) {
+    int mask = Roles.BIT_ANY;
+    for (GrantedAuthority auth : authorities) {
+      mask |= Roles.roleBit(auth.getAuthority());
+    }
+    return mask;
+  }
+}
@@ -0,0 +1,264 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.lockss.log.L4JLogger;
+
+/**
+ * Throttles authentication attempts, using {@link TokenBuckets} keyed by
+ * client IP address (request rate and failed logins) and by username
+ * (failed logins).  Checks are made before any password is verified, so
+ * a client retrying a bad password costs little.  Each limit may be
+ * disabled independently, and is replaced only when its parameters
+ * change.
+ *
+ * Per-user buckets are kept only for existing accounts, each in its own
+ * bucket in a bounded LRU map, so failures for other names (which may be
+ * chosen by an attacker) can't exhaust a real user's limit.  A
+ * successful login discards the user's bucket.
+ */
+class LoginThrottle {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  // Null when the corresponding limit is disabled
+  private volatile TokenBuckets ipRequests;
+  private volatile TokenBuckets ipFailures;
+  private volatile UserFailures userFailures;
+
+  private final LongAdder admitted = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+
+  /** Limit the rate of requests requiring authentication from each IP */
+  void setIpRequestLimit(int stripes, int burst, long interval) {
+    ipRequests = makeBuckets(ipRequests, "IP request", stripes, burst,
+			     interval);
+  }
+
+  /** Limit the rate of failed logins from each IP */
+  void setIpFailureLimit(int stripes, int burst, long interval) {
+    ipFailures = makeBuckets(ipFailures, "IP failed login", stripes, burst,
+			     interval);
+  }
+
+  /** Limit the rate of failed logins for each username, remembering
+   * failures for at most maxUsers users */
+  void setUserFailureLimit(int maxUsers, int burst, long interval) {
+    UserFailures cur = userFailures;
+    if (maxUsers <= 0 || burst <= 0 || interval <= 0) {
+      if (cur != null) {
+	log.debug("Disabling user failed login limit");
+      }
+      userFailures = null;
+      return;
+    }
+    if (burst > TokenBuckets.MAX_BURST) {
+      log.warn("user failed login burst {} too large, using {}",
+	       burst, TokenBuckets.MAX_BURST);
+      burst = TokenBuckets.MAX_BURST;
+    }
+    if (cur != null && cur.isSameAs(maxUsers, burst, interval)) {
+      return;
+    }
+    UserFailures res = new UserFailures(maxUsers, burst, interval);
+    log.debug("Installing user failed login limit: {}", res);
+    userFailures = res;
+  }
+
+  private static TokenBuckets makeBuckets(TokenBuckets cur, String name,
+					  int stripes, int burst,
+					  long interval) {
+    if (burst <= 0 || interval <= 0) {
+      if (cur != null) {
+	log.debug("Disabling {} limit", name);
+      }
+      return null;
+    }
+    if (cur != null && cur.isSameAs(stripes, burst, interval)) {
+      return cur;
+    }
+    if (burst > TokenBuckets.MAX_BURST) {
+      log.warn("{} burst {} too large, using {}",
+	       name, burst, TokenBuckets.MAX_BURST);
+      burst = TokenBuckets.MAX_BURST;
+    }
+    TokenBuckets res = new TokenBuckets(stripes, burst, interval);
+    log.debug("Installing {} limit: {}", name, res);
+    return res;
+  }
+
+  /**
+   * Check whether a request from this IP may proceed to authentication,
+   * counting it against the IP's request rate.
+   * @return zero if the request may proceed, else the time (ms) after
+   * which the client should retry
+   */
+  long checkIp(String ip) {
+    TokenBuckets failBuckets = ipFailures;
+    if (failBuckets != null && !failBuckets.isAvailable(ip)) {
+      rejected.increment();
+      return failBuckets.timeUntilAvailable(ip);
+    }
+    TokenBuckets reqBuckets = ipRequests;
+    if (reqBuckets != null && !reqBuckets.tryAcquire(ip)) {
+      rejected.increment();
+      return reqBuckets.timeUntilAvailable(ip);
+    }
+    return 0;
+  }
+
+  /**
+   * Check whether a login attempt for this username may proceed.
+   * @return zero if the request may proceed, else the time (ms) after
+   * which the client should retry
+   */
+  long checkUser(String user) {
+    UserFailures uf = userFailures;
+    TokenBuckets failBucket = uf != null ? uf.get(user) : null;
+    if (failBucket != null && !failBucket.isAvailable(user)) {
+      rejected.increment();
+      return failBucket.timeUntilAvailable(user);
+    }
+    return 0;
+  }
+
+  /** Record a request that passed the throttle checks */
+  void recordAdmitted() {
+    admitted.increment();
+  }
+
+  /** Record a failed login attempt from the IP for the username, either
+   * of which may be null.  The username should be supplied only if it
+   * names an existing account. */
+  void recordFailure(String user, String ip) {
+    failures.increment();
+    UserFailures uf = userFailures;
+    if (uf != null && user != null) {
+      uf.consume(user);
+    }
+    TokenBuckets buckets = ipFailures;
+    if (buckets != null && ip != null) {
+      buckets.consume(ip);
+    }
+  }
+
+  /** Record a successful login for the username, forgetting its
+   * previous failures */
+  void recordSuccess(String user) {
+    UserFailures uf = userFailures;
+    if (uf != null) {
+      uf.remove(user);
+    }
+  }
+
+  /** Return the number of users whose failures are remembered */
+  int getUserFailureCount() {
+    UserFailures uf = userFailures;
+    return uf != null ? uf.size() : 0;
+  }
+
+  /** Return the number of requests that passed the throttle checks */
+  long getAdmittedCount() {
+    return admitted.sum();
+  }
+
+  /** Return the number of requests rejected by the throttle */
+  long getRejectedCount() {
+    return rejected.sum();
+  }
+
+  /** Return the number of failed login attempts */
+  long getFailureCount() {
+    return failures.sum();
+  }
+
+  /** A single-key bucket per username, in a bounded LRU map */
+  private static class UserFailures {
+    private final int maxUsers;
+    private final int burst;
+    private final long interval;
+    private final Map<String,TokenBuckets> map;
+
+    UserFailures(int maxUsers, int burst, long interval) {
+      this.maxUsers = maxUsers;
+      this.burst = burst;
+      this.interval = interval;
+      this.map = new LinkedHashMap<String,TokenBuckets>(16, 0.75f, true) {
+	  @Override
+	  protected boolean removeEldestEntry(Map.Entry<String,TokenBuckets> eldest) {
+	    return size() > UserFailures.this.maxUsers;
+	  }
+	};
+    }
+
+    boolean isSameAs(int maxUsers, int burst, long interval) {
+      return maxUsers == this.maxUsers && burst == this.burst
+	&& interval == this.interval;
+    }
+
+    TokenBuckets get(String user) {
+      synchronized (map) {
+	return map.get(user);
+      }
+    }
+
+    void consume(String user) {
+      TokenBuckets bucket;
+      synchronized (map) {
+	bucket = map.computeIfAbsent(user,
+				     k -> new TokenBuckets(1, burst, interval));
+      }
+      bucket.consume(user);
+    }
+
+    void remove(String user) {
+      synchronized (map) {
+	map.remove(user);
+      }
+    }
+
+    int size() {
+      synchronized (map) {
+	return map.size();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "[UserFailures: " + maxUsers + " users, " + burst + " per " +
+	interval + "ms]";
+    }
+  }
+}
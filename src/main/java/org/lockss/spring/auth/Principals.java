@@ -0,0 +1,128 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.lockss.account.*;
+import org.lockss.log.L4JLogger;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * Shared, prebuilt authentication tokens for authenticated users, so that
+ * requests needn't allocate a new token and authority list each time.
+ * A user's token is rebuilt only when its account is replaced or its
+ * roles change.  Authority lists are shared among users with the same
+ * roles.  The tokens carry no credentials and must not be modified.
+ */
+class Principals {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  // Discard everything if a map grows beyond this; it's rebuilt on
+  // demand
+  static final int MAX_ENTRIES = 10000;
+
+  // User name -> token built from that user's account
+  private final Map<String,Entry> accountTokens = new ConcurrentHashMap<>();
+  // User name -> token built from a role list in a bearer token
+  private final Map<String,Entry> namedTokens = new ConcurrentHashMap<>();
+  // Role string -> immutable authority list
+  private final Map<String,List<GrantedAuthority>> authorities =
+    new ConcurrentHashMap<>();
+
+  /** Return the token for an authenticated account */
+  UsernamePasswordAuthenticationToken forAccount(UserAccount acct) {
+    String name = acct.getName();
+    String roles = Objects.toString(acct.getRoles(), "");
+    Entry ent = accountTokens.get(name);
+    if (ent != null && ent.acct == acct && ent.roles.equals(roles)) {
+      return ent.token;
+    }
+    ent = new Entry(acct, roles,
+		    makeToken(name, roles, acct.getRoleSet()));
+    put(accountTokens, name, ent);
+    return ent.token;
+  }
+
+  /** Return the token for a user with the comma-separated list of
+   * roles */
+  UsernamePasswordAuthenticationToken forUser(String name, String roleList) {
+    Entry ent = namedTokens.get(name);
+    if (ent != null && ent.roles.equals(roleList)) {
+      return ent.token;
+    }
+    Collection<String> roles = roleList.isEmpty()
+      ? Collections.emptyList() : Arrays.asList(roleList.split(","));
+    ent = new Entry(null, roleList, makeToken(name, roleList, roles));
+    put(namedTokens, name, ent);
+    return ent.token;
+  }
+
+  private UsernamePasswordAuthenticationToken makeToken(String name,
+							String rolesKey,
+							Collection<String> roles) {
+    List<GrantedAuthority> auths = authorities.get(rolesKey);
+    if (auths == null) {
+      List<GrantedAuthority> lst = new ArrayList<>(roles.size());
+      for (String role : roles) {
+	lst.add(new SimpleGrantedAuthority(role));
+      }
+      auths = Collections.unmodifiableList(lst);
+      put(authorities, rolesKey, auths);
+    }
+    log.debug2("Building token for {}: {}", name, auths);
+    return new LockssAuthenticationToken(name, null, auths);
+  }
+
+  private static <V> void put(Map<String,V> map, String key, V val) {
+    if (map.size() >= MAX_ENTRIES) {
+      map.clear();
+    }
+    map.put(key, val);
+  }
+
+  private static class Entry {
+    final UserAccount acct;
+    final String roles;
+    final UsernamePasswordAuthenticationToken token;
+
+    Entry(UserAccount acct, String roles,
+	  UsernamePasswordAuthenticationToken token) {
+      this.acct = acct;
+      this.roles = roles;
+      this.token = token;
+    }
+  }
+}
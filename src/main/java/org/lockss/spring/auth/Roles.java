@@ -26,6 +26,7 @@
 
  */
 package org.lockss.spring.auth;
+import java.util.*;
 import org.lockss.servlet.LockssServlet;
 
 /**
@@ -67,4 +68,64 @@ public class Roles {
    * Minimum role of any authenticated user.
    */
   public static final String ROLE_ANY = "anyRole";
+
+  // Role bits.  A user's role mask has the bits of its roles, plus
+  // BIT_ANY.  A permission mask has the bits of the permissible roles,
+  // plus BIT_USER_ADMIN, so a user is authorized iff the two intersect.
+
+  public static final int BIT_USER_ADMIN = 1 << 0;
+  public static final int BIT_ALL_ACCESS = BIT_USER_ADMIN;
+  public static final int BIT_CONTENT_ADMIN = 1 << 1;
+  public static final int BIT_AU_ADMIN = 1 << 2;
+  public static final int BIT_CONTENT_ACCESS = 1 << 3;
+  public static final int BIT_DEBUG = 1 << 4;
+  public static final int BIT_ANY = 1 << 5;
+
+  private static final Map<String,Integer> ROLE_BITS = Map.of(
+      ROLE_USER_ADMIN, BIT_USER_ADMIN,
+      ROLE_CONTENT_ADMIN, BIT_CONTENT_ADMIN,
+      ROLE_AU_ADMIN, BIT_AU_ADMIN,
+      ROLE_CONTENT_ACCESS, BIT_CONTENT_ACCESS,
+      ROLE_DEBUG, BIT_DEBUG,
+      ROLE_ANY, BIT_ANY);
+
+  /**
+   * Return the bit for a role, or 0 if it isn't one of the roles above.
+   */
+  public static int roleBit(String role) {
+    Integer bit = role == null ? null : ROLE_BITS.get(role);
+    return bit == null ? 0 : bit;
+  }
+
+  /**
+   * Return the role mask of a user with the roles.  Unknown roles are
+   * ignored.
+   */
+  public static int userRoleMask(Collection<String> roles) {
+    int mask = BIT_ANY;
+    for (String role : roles) {
+      mask |= roleBit(role);
+    }
+    return mask;
+  }
+
+  /**
+   * Return the permission mask that authorizes users with any of the
+   * permissible roles, or an administrator.  Intended to be computed
+   * once and stored in a constant, for use with {@link
+   * AuthUtil#checkHasRole(int)}.
+   *
+   * @throws IllegalArgumentException if any role is unknown
+   */
+  public static int permissionMask(String... permissibleRoles) {
+    int mask = BIT_USER_ADMIN;
+    for (String role : permissibleRoles) {
+      int bit = roleBit(role);
+      if (bit == 0) {
+	throw new IllegalArgumentException("Unknown role: " + role);
+      }
+      mask |= bit;
+    }
+    return mask;
+  }
 }
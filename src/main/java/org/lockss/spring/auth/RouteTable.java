@@ -0,0 +1,167 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.*;
+
+import org.lockss.log.L4JLogger;
+
+/**
+ * An immutable, ordered table of (method, path) patterns, each mapped to
+ * the access checks {@link SpringAuthenticationFilter} applies to
+ * matching requests.  Methods and paths are matched case-insensitively,
+ * in place, without allocating.  A path ending in <code>*</code> matches
+ * any path it's a prefix of; otherwise the match is exact.  A method of
+ * <code>*</code> matches any method.
+ */
+public final class RouteTable {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  /** The checks applied to a request */
+  public enum Access {
+    /** Neither IP access nor user authentication is checked */
+    PUBLIC,
+    /** IP access is checked, user authentication is not */
+    IP_ONLY,
+    /** IP access and user authentication are checked, even if
+     * unauthenticated reads are allowed */
+    AUTH_REQUIRED,
+    /** IP access is checked, user authentication is checked except for
+     * read (GET) requests */
+    READ_ALLOWED,
+  }
+
+  public static final RouteTable EMPTY = new RouteTable(new Route[0]);
+
+  private final Route[] routes;
+
+  private RouteTable(Route[] routes) {
+    this.routes = routes;
+  }
+
+  /**
+   * Parse a list of route specs, each of the form <code><i>method</i>
+   * <i>path</i> <i>access</i></code>, e.g., <code>GET /metrics*
+   * public</code>.  Malformed specs are logged and ignored.
+   * @param specs the route specs
+   * @return the compiled RouteTable
+   */
+  public static RouteTable fromSpecs(List<String> specs) {
+    if (specs == null || specs.isEmpty()) {
+      return EMPTY;
+    }
+    List<Route> res = new ArrayList<>();
+    for (String spec : specs) {
+      String[] words = spec.trim().split("\\s+");
+      if (words.length != 3) {
+	log.warn("Malformed route, ignored: {}", spec);
+	continue;
+      }
+      try {
+	res.add(new Route(words[0], words[1],
+			  Access.valueOf(words[2].toUpperCase(Locale.ROOT)
+					 .replace('-', '_'))));
+      } catch (IllegalArgumentException e) {
+	log.warn("Unknown route access, ignored: {}", spec);
+      }
+    }
+    return new RouteTable(res.toArray(new Route[0]));
+  }
+
+  /** Return a RouteTable with an additional route at the end */
+  public RouteTable withRoute(String method, String pathPattern,
+			      Access access) {
+    Route[] res = Arrays.copyOf(routes, routes.length + 1);
+    res[routes.length] = new Route(method, pathPattern, access);
+    return new RouteTable(res);
+  }
+
+  /**
+   * Return the Access of the first route matching the method and URI
+   * @param method the request method
+   * @param uri the request URI
+   * @return the Access, or null if no route matches
+   */
+  public Access classify(String method, String uri) {
+    for (Route route : routes) {
+      if (route.matches(method, uri)) {
+	return route.access;
+      }
+    }
+    return null;
+  }
+
+  public int size() {
+    return routes.length;
+  }
+
+  @Override
+  public String toString() {
+    return "[RouteTable: " + Arrays.toString(routes) + "]";
+  }
+
+  private static final class Route {
+    /** null matches any method */
+    final String method;
+    final String path;
+    final boolean isPrefix;
+    final Access access;
+
+    Route(String method, String pathPattern, Access access) {
+      if (method == null || pathPattern == null || access == null) {
+	throw new IllegalArgumentException("Route method, path and access must not be null");
+      }
+      this.method = "*".equals(method) ? null : method;
+      this.isPrefix = pathPattern.endsWith("*");
+      this.path = isPrefix
+	? pathPattern.substring(0, pathPattern.length() - 1) : pathPattern;
+      this.access = access;
+    }
+
+    boolean matches(String reqMethod, String uri) {
+      if (method != null && !method.equalsIgnoreCase(reqMethod)) {
+	return false;
+      }
+      int len = path.length();
+      if (isPrefix ? uri.length() < len : uri.length() != len) {
+	return false;
+      }
+      return uri.regionMatches(true, 0, path, 0, len);
+    }
+
+    @Override
+    public String toString() {
+      return (method == null ? "*" : method) + " " + path
+	+ (isPrefix ? "*" : "") + " " + access;
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.concurrent.*;
+
+import org.springframework.security.concurrent.*;
+import org.springframework.security.core.context.*;
+
+/**
+ * A {@link SecurityContextHolderStrategy} whose contexts are bound for
+ * a scope, such as the processing of a request by {@link
+ * SpringAuthenticationFilter}, and unbound when it exits, rather than
+ * left on the thread until something clears them.  Work handed to other
+ * threads with {@link #wrap(Runnable)} and friends runs with the same
+ * context instance, not a copy.
+ *
+ * <p>Install with the Spring property {@value
+ * SpringSecurityConfigurer#PROP_SCOPED_SECURITY_CONTEXT}.
+ */
+public class ScopedSecurityContextHolderStrategy
+  implements SecurityContextHolderStrategy {
+
+  private static final ThreadLocal<SecurityContext> current =
+    new ThreadLocal<>();
+
+  @Override
+  public SecurityContext getContext() {
+    SecurityContext ctx = current.get();
+    if (ctx == null) {
+      ctx = createEmptyContext();
+      current.set(ctx);
+    }
+    return ctx;
+  }
+
+  @Override
+  public void setContext(SecurityContext context) {
+    if (context == null) {
+      throw new IllegalArgumentException("Only non-null SecurityContext instances are permitted");
+    }
+    current.set(context);
+  }
+
+  @Override
+  public void clearContext() {
+    current.remove();
+  }
+
+  @Override
+  public SecurityContext createEmptyContext() {
+    return new SecurityContextImpl();
+  }
+
+  /**
+   * Bind the context to the current thread, until {@link
+   * #restore(SecurityContext)} is called with the return value.  Must be
+   * paired with restore() in a finally block.
+   *
+   * @param context the context for the scope
+   * @return the previously bound context, possibly null
+   */
+  public SecurityContext bind(SecurityContext context) {
+    SecurityContext prev = current.get();
+    current.set(context);
+    return prev;
+  }
+
+  /** End the scope begun by {@link #bind(SecurityContext)}, rebinding
+   * the context it returned */
+  public void restore(SecurityContext prev) {
+    if (prev == null) {
+      current.remove();
+    } else {
+      current.set(prev);
+    }
+  }
+
+  /** Return the bound context, or null if none, without creating one */
+  SecurityContext peek() {
+    return current.get();
+  }
+
+  /** Return a Runnable that runs the task with the caller's current
+   * context bound */
+  public Runnable wrap(Runnable task) {
+    SecurityContext ctx = getContext();
+    return () -> {
+      SecurityContext prev = bind(ctx);
+      try {
+	task.run();
+      } finally {
+	restore(prev);
+      }
+    };
+  }
+
+  /** Return a Callable that runs the task with the caller's current
+   * context bound */
+  public <T> Callable<T> wrap(Callable<T> task) {
+    SecurityContext ctx = getContext();
+    return () -> {
+      SecurityContext prev = bind(ctx);
+      try {
+	return task.call();
+      } finally {
+	restore(prev);
+      }
+    };
+  }
+
+  /** Return an Executor that runs each task with the context that was
+   * current when it was submitted */
+  public Executor wrap(Executor executor) {
+    return task -> executor.execute(wrap(task));
+  }
+
+  /**
+   * Return a Runnable that runs the task with the caller's current
+   * security context, using the scoped binding if this strategy is
+   * installed, else Spring's {@link DelegatingSecurityContextRunnable}.
+   */
+  public static Runnable propagate(Runnable task) {
+    SecurityContextHolderStrategy strategy =
+      SecurityContextHolder.getContextHolderStrategy();
+    if (strategy instanceof ScopedSecurityContextHolderStrategy) {
+      return ((ScopedSecurityContextHolderStrategy)strategy).wrap(task);
+    }
+    return new DelegatingSecurityContextRunnable(task,
+						 strategy.getContext());
+  }
+
+  /**
+   * Return a Callable that runs the task with the caller's current
+   * security context, using the scoped binding if this strategy is
+   * installed, else Spring's {@link DelegatingSecurityContextCallable}.
+   */
+  public static <T> Callable<T> propagate(Callable<T> task) {
+    SecurityContextHolderStrategy strategy =
+      SecurityContextHolder.getContextHolderStrategy();
+    if (strategy instanceof ScopedSecurityContextHolderStrategy) {
+      return ((ScopedSecurityContextHolderStrategy)strategy).wrap(task);
+    }
+    return new DelegatingSecurityContextCallable<>(task,
+						   strategy.getContext());
+  }
+}
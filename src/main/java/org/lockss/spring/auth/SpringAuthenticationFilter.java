@@ -33,6 +33,8 @@ package org.lockss.spring.auth;
 
 import java.io.IOException;
 import java.security.AccessControlException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -51,9 +53,10 @@ import org.lockss.util.StringUtil;
 import org.lockss.util.IpFilter;
 import org.springframework.core.env.Environment;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextHolderStrategy;
 import org.springframework.web.filter.GenericFilterBean;
 import org.springframework.web.context.*;
 import org.springframework.web.context.support.WebApplicationContextUtils;
@@ -72,8 +75,20 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
     "No userid/password credentials.";
   private static final String BAD_CREDENTIALS =
     "Bad userid/password credentials.";
+  private static final String TOO_MANY_REQUESTS =
+    "Too many requests or failed logins.";
+
+  private static final String TOO_MANY_LOGINS =
+    "Too many concurrent logins, try again later.";
+
+  private static final int SC_TOO_MANY_REQUESTS = 429;
+
   private static final String INVALID_AUTH_TYPE =
-    "Invalid Authentication Type (must be \"basic\" or \"none\").";
+    "Invalid Authentication Type (must be \"basic\", \"token\", \"x509\" or \"none\").";
+  private static final String BAD_CERTIFICATE =
+    "Client certificate does not identify a valid user.";
+  private static final String BAD_TOKEN =
+    "Invalid, expired or revoked token.";
 
   // Use UI access list params for REST also
   private static final String ACCESS_PREFIX = "org.lockss.ui.access.";
@@ -84,12 +99,43 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
 
   public static final String BASIC_AUTH_TYPE = "basic";
   public static final String NONE_AUTH_TYPE = "none";
-
-  /** User authentication type: "none" or "basic" */
+  public static final String TOKEN_AUTH_TYPE = "token";
+  public static final String X509_AUTH_TYPE = "x509";
+
+  /** Request attribute in which the servlet container supplies the
+   * client's certificate chain */
+  static final String X509_CERT_ATTR = "jakarta.servlet.request.X509Certificate";
+
+  /** Response header in which a bearer token is returned to a client that
+   * authenticated with Basic credentials, when the authentication type is
+   * "token" */
+  public static final String TOKEN_HEADER = "X-Lockss-Auth-Token";
+
+  /** User authentication type: "none", "basic", "token" or "x509".
+   * "token" accepts Basic credentials, and returns a signed bearer token
+   * (in the {@value #TOKEN_HEADER} response header) that may be sent
+   * instead of the credentials, as <code>Authorization: Bearer
+   * <i>token</i></code>, until it expires.  "x509" authenticates clients
+   * that present a TLS client certificate as the user named by the
+   * certificate's subject (see {@link #PARAM_X509_USER_ATTRIBUTE}), and
+   * accepts Basic credentials from clients that don't.  The connector
+   * must be configured to request and verify client certificates. */
   public static final String PARAM_AUTH_TYPE =
     AUTH_PREFIX + "authenticationType";
   public static final String DEFAULT_AUTH_TYPE = NONE_AUTH_TYPE;
 
+  /** The attribute of a client certificate's subject whose value is the
+   * LOCKSS user name, when the authentication type is "x509" */
+  public static final String PARAM_X509_USER_ATTRIBUTE =
+    AUTH_PREFIX + "x509.userAttribute";
+  public static final String DEFAULT_X509_USER_ATTRIBUTE = "CN";
+
+  /** Maximum number of client certificates whose user mapping is
+   * remembered.  Zero disables the cache. */
+  public static final String PARAM_X509_CACHE_SIZE =
+    AUTH_PREFIX + "x509.cacheSize";
+  public static final int DEFAULT_X509_CACHE_SIZE = 1000;
+
   /** If true, read-only requests need not supply authentication credentials */
   public static final String PARAM_ALLOW_UNAUTHENTICATED_READ =
     AUTH_PREFIX + "allowUnauthenticatedRead";
@@ -106,75 +152,514 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
     "logForbidden";
   public static final boolean DEFAULT_LOG_FORBIDDEN = true;
 
+  /** Maximum number of verified Authorization headers to remember, so
+   * that repeated requests needn't re-check the password.  Zero disables
+   * the cache. */
+  public static final String PARAM_CREDENTIAL_CACHE_SIZE =
+    AUTH_PREFIX + "credentialCache.size";
+  public static final int DEFAULT_CREDENTIAL_CACHE_SIZE = 1000;
+
+  /** Length of time a verified Authorization header is remembered */
+  public static final String PARAM_CREDENTIAL_CACHE_TTL =
+    AUTH_PREFIX + "credentialCache.ttl";
+  public static final long DEFAULT_CREDENTIAL_CACHE_TTL = 5 * TimeUtil.MINUTE;
+
+  /** Number of slots in the cache of IP access decisions, keyed by
+   * remote address and X-Forwarded-For value.  Zero disables the
+   * cache. */
+  public static final String PARAM_IP_DECISION_CACHE_SIZE =
+    AUTH_PREFIX + "ipDecisionCache.size";
+  public static final int DEFAULT_IP_DECISION_CACHE_SIZE = 256;
+
+  /** Number of token buckets in each per-IP throttle table.  IP
+   * addresses that hash to the same bucket share a limit. */
+  public static final String PARAM_THROTTLE_STRIPES =
+    AUTH_PREFIX + "throttle.stripes";
+  public static final int DEFAULT_THROTTLE_STRIPES = 4096;
+
+  /** Number of failed logins allowed for a username before further
+   * attempts are refused with 429 Too Many Requests.  Zero disables the
+   * limit. */
+  public static final String PARAM_USER_FAILURE_BURST =
+    AUTH_PREFIX + "throttle.userFailures.burst";
+  public static final int DEFAULT_USER_FAILURE_BURST = 10;
+
+  /** Time after which a username regains one failed login attempt */
+  public static final String PARAM_USER_FAILURE_INTERVAL =
+    AUTH_PREFIX + "throttle.userFailures.interval";
+  public static final long DEFAULT_USER_FAILURE_INTERVAL = TimeUtil.MINUTE;
+
+  /** Maximum number of users whose failed logins are remembered.  Only
+   * failures for existing accounts are counted; the least recently
+   * failed are forgotten first. */
+  public static final String PARAM_USER_FAILURE_MAX_USERS =
+    AUTH_PREFIX + "throttle.userFailures.maxUsers";
+  public static final int DEFAULT_USER_FAILURE_MAX_USERS = 10000;
+
+  /** Number of failed logins allowed from an IP address before further
+   * requests from it are refused with 429 Too Many Requests.  Zero
+   * disables the limit. */
+  public static final String PARAM_IP_FAILURE_BURST =
+    AUTH_PREFIX + "throttle.ipFailures.burst";
+  public static final int DEFAULT_IP_FAILURE_BURST = 30;
+
+  /** Time after which an IP address regains one failed login attempt */
+  public static final String PARAM_IP_FAILURE_INTERVAL =
+    AUTH_PREFIX + "throttle.ipFailures.interval";
+  public static final long DEFAULT_IP_FAILURE_INTERVAL = 10 * TimeUtil.SECOND;
+
+  /** Number of requests requiring authentication that may be sent in a
+   * burst from an IP address.  Zero disables the limit. */
+  public static final String PARAM_IP_REQUEST_BURST =
+    AUTH_PREFIX + "throttle.ipRequests.burst";
+  public static final int DEFAULT_IP_REQUEST_BURST = 0;
+
+  /** Time after which an IP address regains one request */
+  public static final String PARAM_IP_REQUEST_INTERVAL =
+    AUTH_PREFIX + "throttle.ipRequests.interval";
+  public static final long DEFAULT_IP_REQUEST_INTERVAL = TimeUtil.SECOND / 100;
+
+  /** Semicolon-separated list of IP addresses or subnets of proxies
+   * whose X-Forwarded-For headers are believed when determining the
+   * client address for throttling.  Requests from other addresses are
+   * throttled by their remote address. */
+  public static final String PARAM_TRUSTED_PROXIES =
+    AUTH_PREFIX + "throttle.trustedProxies";
+
+  /** Length of time a bearer token is valid */
+  public static final String PARAM_TOKEN_TTL = AUTH_PREFIX + "token.ttl";
+  public static final long DEFAULT_TOKEN_TTL = 15 * TimeUtil.MINUTE;
+
+  /** Interval at which the key used to sign bearer tokens is replaced.
+   * Tokens signed with the previous key remain valid, so should be at
+   * least as long as {@value #PARAM_TOKEN_TTL}.  Changing any token
+   * parameter invalidates all outstanding tokens. */
+  public static final String PARAM_TOKEN_KEY_ROTATION_INTERVAL =
+    AUTH_PREFIX + "token.keyRotationInterval";
+  public static final long DEFAULT_TOKEN_KEY_ROTATION_INTERVAL =
+    TimeUtil.HOUR;
+
+  /** Maximum time after a user account is deleted, disabled, or has its
+   * password or roles changed, before tokens issued to it are no longer
+   * accepted */
+  public static final String PARAM_TOKEN_ACCOUNT_CHECK_INTERVAL =
+    AUTH_PREFIX + "token.accountCheckInterval";
+  public static final long DEFAULT_TOKEN_ACCOUNT_CHECK_INTERVAL =
+    30 * TimeUtil.SECOND;
+
+  /** If true, passwords are checked on a dedicated pool of threads, and
+   * the request thread is released while waiting (if the request
+   * supports async processing).  Keeps a burst of logins from tying up
+   * all the container threads. */
+  public static final String PARAM_ASYNC_PASSWORD_CHECK =
+    AUTH_PREFIX + "passwordCheck.async";
+  public static final boolean DEFAULT_ASYNC_PASSWORD_CHECK = false;
+
+  /** Number of password check threads.  Zero means the number of
+   * available processors. */
+  public static final String PARAM_PASSWORD_CHECK_THREADS =
+    AUTH_PREFIX + "passwordCheck.threads";
+  public static final int DEFAULT_PASSWORD_CHECK_THREADS = 0;
+
+  /** Max number of password checks waiting for a thread.  Requests
+   * beyond this get 503 Service Unavailable. */
+  public static final String PARAM_PASSWORD_CHECK_QUEUE_SIZE =
+    AUTH_PREFIX + "passwordCheck.queueSize";
+  public static final int DEFAULT_PASSWORD_CHECK_QUEUE_SIZE = 100;
+
+  /** Max time a request waits for its password to be checked */
+  public static final String PARAM_PASSWORD_CHECK_TIMEOUT =
+    AUTH_PREFIX + "passwordCheck.timeout";
+  public static final long DEFAULT_PASSWORD_CHECK_TIMEOUT =
+    30 * TimeUtil.SECOND;
+
+  /** If true, a Bloom filter of the existing user names is used to
+   * refuse requests with unknown user names without looking them up.
+   * It's rebuilt in the background when accounts are added or removed;
+   * until then, names it rejects are confirmed with the AccountManager,
+   * so new accounts aren't refused. */
+  public static final String PARAM_USERNAME_FILTER_ENABLED =
+    AUTH_PREFIX + "usernameFilter.enabled";
+  public static final boolean DEFAULT_USERNAME_FILTER_ENABLED = false;
+
+  /** False positive probability of the user name filter: the fraction
+   * of unknown names it fails to recognize.  Smaller values use more
+   * memory (about 10 bits per user at 0.01). */
+  public static final String PARAM_USERNAME_FILTER_FPP =
+    AUTH_PREFIX + "usernameFilter.fpp";
+  public static final double DEFAULT_USERNAME_FILTER_FPP = 0.01;
+
+  /** Max age of the user name filter, after which it's rebuilt from the
+   * current accounts, in the background, even if the number of accounts
+   * hasn't changed */
+  public static final String PARAM_USERNAME_FILTER_REBUILD_INTERVAL =
+    AUTH_PREFIX + "usernameFilter.rebuildInterval";
+  public static final long DEFAULT_USERNAME_FILTER_REBUILD_INTERVAL =
+    TimeUtil.MINUTE;
+
+  /** List of additional routes, each <code><i>method</i> <i>path</i>
+   * <i>access</i></code>, where <i>method</i> may be <code>*</code>,
+   * <i>path</i> may end with <code>*</code> to match a prefix, and
+   * <i>access</i> is one of <code>public</code> (no IP or user checks),
+   * <code>ip_only</code>, <code>auth_required</code> or
+   * <code>read_allowed</code> (no user authentication for GET).  These
+   * take precedence over routes registered by the service and the
+   * built-in routes for status and API docs. */
+  public static final String PARAM_ROUTES = AUTH_PREFIX + "routes";
+
+  /** Status and API docs are public */
+  static final RouteTable BUILTIN_ROUTES =
+    RouteTable.fromSpecs(ListUtil.list("GET /status public",
+				       "GET /v3/api-docs public",
+				       "GET /swagger-ui.html public",
+				       "GET /swagger-resources* public",
+				       "GET /webjars/springfox-swagger-ui* public"));
+
+  // Routes registered by the service
+  private static volatile RouteTable registeredRoutes = RouteTable.EMPTY;
+
+  // The tokens for unauthenticated requests are the same for every
+  // request, and are never modified
+  private static final UsernamePasswordAuthenticationToken
+    PRIVILEGED_UNAUTHENTICATED_USER_TOKEN =
+    new LockssAuthenticationToken("unauthenticatedPrivUser",
+	"unauthenticatedPassword",
+	Collections.singletonList(new SimpleGrantedAuthority(Roles.ROLE_ALL_ACCESS)));
+
+  private static final UsernamePasswordAuthenticationToken
+    UNPRIVILEGED_UNAUTHENTICATED_USER_TOKEN =
+    new LockssAuthenticationToken("unauthenticatedUnprivUser",
+	"unauthenticatedPassword",
+	Collections.singletonList(new SimpleGrantedAuthority(Roles.ROLE_CONTENT_ACCESS)));
+
   private static List<String> LOCAL_IP_FILTERS = ListUtil.list("127.0.0.0/8",
 							       "::1");
 
   private Environment env;		// Spring Environment, access to
 					// Spring config props
   private LockssDaemon daemon;
-  private boolean isConfigSet = false;
-  private String authType = DEFAULT_AUTH_TYPE;
-  private boolean allowUnauthenticatedRead =
-    DEFAULT_ALLOW_UNAUTHENTICATED_READ;;
-  private boolean logForbidden = DEFAULT_LOG_FORBIDDEN;
-  private boolean allowLocal = DEFAULT_ALLOW_LOOPBACK;
-  private IpFilter ipFilter;
-  private IpFilter localFilter;
+  private volatile CredentialCache credentialCache =
+    new CredentialCache(DEFAULT_CREDENTIAL_CACHE_SIZE,
+			DEFAULT_CREDENTIAL_CACHE_TTL);
+  // All config-derived state consulted by request threads, replaced as a
+  // unit when the config changes
+  private volatile AuthPolicy policy =
+    new AuthPolicy(false,
+		   DEFAULT_AUTH_TYPE,
+		   DEFAULT_ALLOW_UNAUTHENTICATED_READ,
+		   DEFAULT_LOG_FORBIDDEN,
+		   DEFAULT_ALLOW_LOOPBACK,
+		   null,
+		   makeLocalFilter(Collections.emptyList()),
+		   new IpDecisionCache(DEFAULT_IP_DECISION_CACHE_SIZE),
+		   null,
+		   RouteTable.EMPTY,
+		   0);
+  private final AuthMetrics metrics = new AuthMetrics();
+  private volatile X509UserCache x509Users =
+    new X509UserCache(DEFAULT_X509_CACHE_SIZE, DEFAULT_X509_USER_ATTRIBUTE);
+  // Null if the user name filter is disabled
+  private volatile KnownUsers knownUsers;
+  // Null if passwords are checked on the request thread
+  private volatile VerificationExecutor verificationExecutor;
+  private volatile long passwordCheckTimeout = DEFAULT_PASSWORD_CHECK_TIMEOUT;
+  private final Principals principals = new Principals();
+  private volatile BearerTokens bearerTokens =
+    new BearerTokens(DEFAULT_TOKEN_TTL,
+		     DEFAULT_TOKEN_KEY_ROTATION_INTERVAL,
+		     DEFAULT_TOKEN_ACCOUNT_CHECK_INTERVAL,
+		     principals);
+  // Limits are set when the config is loaded
+  private final LoginThrottle throttle = new LoginThrottle();
 
   public SpringAuthenticationFilter() {
-    createLocalFilter(Collections.emptyList());
   }
 
   public void setConfig(Configuration newConfig, Configuration oldConfig,
 			Configuration.Differences changedKeys) {
     log.debug2("setConfig: {}, {}", this, newConfig);
+    AuthPolicy cur = policy;
+    setCredentialCache(newConfig.getInt(PARAM_CREDENTIAL_CACHE_SIZE,
+					DEFAULT_CREDENTIAL_CACHE_SIZE),
+		       newConfig.getTimeInterval(PARAM_CREDENTIAL_CACHE_TTL,
+						 DEFAULT_CREDENTIAL_CACHE_TTL));
+    setThrottle(newConfig);
+    setVerificationExecutor(newConfig);
+    setKnownUsers(newConfig);
+    setX509Users(newConfig.getInt(PARAM_X509_CACHE_SIZE,
+				  DEFAULT_X509_CACHE_SIZE),
+		 newConfig.get(PARAM_X509_USER_ATTRIBUTE,
+			       DEFAULT_X509_USER_ATTRIBUTE));
+    setBearerTokens(newConfig.getTimeInterval(PARAM_TOKEN_TTL,
+					      DEFAULT_TOKEN_TTL),
+		    newConfig.getTimeInterval(PARAM_TOKEN_KEY_ROTATION_INTERVAL,
+					      DEFAULT_TOKEN_KEY_ROTATION_INTERVAL),
+		    newConfig.getTimeInterval(PARAM_TOKEN_ACCOUNT_CHECK_INTERVAL,
+					      DEFAULT_TOKEN_ACCOUNT_CHECK_INTERVAL));
     if (changedKeys.contains(AUTH_PREFIX) ||
 	changedKeys.contains(ACCESS_PREFIX) ||
 	changedKeys.contains(ConfigManager.PARAM_PLATFORM_CONTAINER_SUBNETS)) {
-      authType = newConfig.get(PARAM_AUTH_TYPE, DEFAULT_AUTH_TYPE);
-      allowUnauthenticatedRead =
-	newConfig.getBoolean(PARAM_ALLOW_UNAUTHENTICATED_READ,
-			     DEFAULT_ALLOW_UNAUTHENTICATED_READ);
-      logForbidden = newConfig.getBoolean(PARAM_LOG_FORBIDDEN,
-					  DEFAULT_LOG_FORBIDDEN);
-      allowLocal = newConfig.getBoolean(PARAM_ALLOW_LOOPBACK,
-					DEFAULT_ALLOW_LOOPBACK);
-      createLocalFilter(ConfigManager.getPlatformContainerSubnets());
-      setIpFilter(newConfig.get(PARAM_IP_INCLUDE),
-		  newConfig.get(PARAM_IP_EXCLUDE));
-    }
-    isConfigSet = true;
-  }
-
-  private void setIpFilter(String includeIps, String excludeIps) {
+      policy = makePolicy(newConfig, cur);
+    } else if (!cur.isConfigSet) {
+      policy = cur.withConfigSet();
+    }
+  }
+
+  /** Build a new policy from the config.  Parts that can't be built
+   * (malformed access lists) are carried over from the previous policy */
+  private AuthPolicy makePolicy(Configuration config, AuthPolicy prev) {
+    boolean allowLocal = config.getBoolean(PARAM_ALLOW_LOOPBACK,
+					   DEFAULT_ALLOW_LOOPBACK);
+    CompiledIpFilter localFilter = prev.localFilter;
+    if (allowLocal) {
+      localFilter = makeLocalFilter(ConfigManager.getPlatformContainerSubnets());
+    }
+    int cacheSize = config.getInt(PARAM_IP_DECISION_CACHE_SIZE,
+				  DEFAULT_IP_DECISION_CACHE_SIZE);
+    IpDecisionCache ipDecisionCache = prev.ipDecisionCache;
+    if (cacheSize != ipDecisionCache.getConfiguredSize()) {
+      ipDecisionCache = new IpDecisionCache(cacheSize);
+    }
+    AuthPolicy res =
+      new AuthPolicy(true,
+		     config.get(PARAM_AUTH_TYPE, DEFAULT_AUTH_TYPE),
+		     config.getBoolean(PARAM_ALLOW_UNAUTHENTICATED_READ,
+				       DEFAULT_ALLOW_UNAUTHENTICATED_READ),
+		     config.getBoolean(PARAM_LOG_FORBIDDEN,
+				       DEFAULT_LOG_FORBIDDEN),
+		     allowLocal,
+		     makeIpFilter(config.get(PARAM_IP_INCLUDE),
+				  config.get(PARAM_IP_EXCLUDE),
+				  prev.ipFilter),
+		     localFilter,
+		     ipDecisionCache,
+		     makeTrustedProxies(config.get(PARAM_TRUSTED_PROXIES),
+					prev.trustedProxies),
+		     RouteTable.fromSpecs(config.getList(PARAM_ROUTES)),
+		     prev.generation + 1);
+    log.debug("Installing new policy: {}", res);
+    return res;
+  }
+
+  private CompiledIpFilter makeIpFilter(String includeIps, String excludeIps,
+					CompiledIpFilter prevFilter) {
     log.debug("Installing new ip filter: incl: {}, excl: {}",
 	      includeIps, excludeIps);
     try {
-      IpFilter filter = new IpFilter();
-      filter.setFilters(includeIps, excludeIps);
-      ipFilter = filter;
+      return CompiledIpFilter.compile(includeIps, excludeIps);
     } catch (IpFilter.MalformedException e) {
       log.warn("Malformed IP filter, filters not changed", e);
+      return prevFilter;
     }
   }
 
-  private void createLocalFilter(List<String> containerSubnets) {
-    if (allowLocal) {
-      IpFilter filt = new IpFilter();
-      try {
-	List<String> localSubnets = new ArrayList<>(LOCAL_IP_FILTERS);
-	localSubnets.addAll(containerSubnets);
-	filt.setFilters(localSubnets, null);
-      } catch (IpFilter.MalformedException e) {
-	log.error("Failed to allow local addresses" , e);
+  private CompiledIpFilter makeTrustedProxies(String proxies,
+					      CompiledIpFilter prevProxies) {
+    if (StringUtils.isEmpty(proxies)) {
+      return null;
+    }
+    try {
+      return CompiledIpFilter.compile(proxies, null);
+    } catch (IpFilter.MalformedException e) {
+      log.warn("Malformed trusted proxies, not changed", e);
+      return prevProxies;
+    }
+  }
+
+  private static CompiledIpFilter makeLocalFilter(List<String> containerSubnets) {
+    List<String> localSubnets = new ArrayList<>(LOCAL_IP_FILTERS);
+    localSubnets.addAll(containerSubnets);
+    try {
+      return CompiledIpFilter.compile(localSubnets, null);
+    } catch (IpFilter.MalformedException e) {
+      log.error("Failed to allow local addresses" , e);
+      return CompiledIpFilter.empty();
+    }
+  }
+
+  AuthPolicy getPolicy() {
+    return policy;
+  }
+
+  /** Install a new credential cache if its size or TTL has changed,
+   * else flush the existing one, as the config change may affect which
+   * users are allowed */
+  private void setCredentialCache(int size, long ttl) {
+    if (size != credentialCache.getMaxSize() ||
+	ttl != credentialCache.getTtl()) {
+      log.debug("Installing new credential cache: size: {}, ttl: {}",
+		size, ttl);
+      credentialCache = new CredentialCache(size, ttl);
+    } else {
+      credentialCache.clear();
+    }
+  }
+
+  CredentialCache getCredentialCache() {
+    return credentialCache;
+  }
+
+  /** Install a new token issuer, with new keys, if its parameters have
+   * changed */
+  private void setBearerTokens(long ttl, long rotationInterval,
+			       long recheckInterval) {
+    if (!bearerTokens.isSameAs(ttl, rotationInterval, recheckInterval)) {
+      log.debug("Installing new bearer token issuer: ttl: {}, rotation: {}, recheck: {}",
+		ttl, rotationInterval, recheckInterval);
+      bearerTokens = new BearerTokens(ttl, rotationInterval, recheckInterval,
+				      principals);
+    }
+  }
+
+  BearerTokens getBearerTokens() {
+    return bearerTokens;
+  }
+
+  /** Create, replace or shut down the password check pool, as
+   * configured */
+  private void setVerificationExecutor(Configuration config) {
+    passwordCheckTimeout =
+      config.getTimeInterval(PARAM_PASSWORD_CHECK_TIMEOUT,
+			     DEFAULT_PASSWORD_CHECK_TIMEOUT);
+    VerificationExecutor cur = verificationExecutor;
+    if (!config.getBoolean(PARAM_ASYNC_PASSWORD_CHECK,
+			   DEFAULT_ASYNC_PASSWORD_CHECK)) {
+      if (cur != null) {
+	log.debug("Disabling async password check");
+	verificationExecutor = null;
+	cur.shutdown();
       }
-      localFilter = filt;
+      return;
+    }
+    int threads = config.getInt(PARAM_PASSWORD_CHECK_THREADS,
+				DEFAULT_PASSWORD_CHECK_THREADS);
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    int queueSize = config.getInt(PARAM_PASSWORD_CHECK_QUEUE_SIZE,
+				  DEFAULT_PASSWORD_CHECK_QUEUE_SIZE);
+    if (cur == null || !cur.isSameAs(threads, queueSize)) {
+      VerificationExecutor exec = new VerificationExecutor(threads, queueSize);
+      log.debug("Installing new password check pool: {}", exec);
+      verificationExecutor = exec;
+      if (cur != null) {
+	cur.shutdown();
+      }
+    }
+  }
+
+  VerificationExecutor getVerificationExecutor() {
+    return verificationExecutor;
+  }
+
+  /** Create, replace or discard the user name filter, as configured */
+  private void setKnownUsers(Configuration config) {
+    if (!config.getBoolean(PARAM_USERNAME_FILTER_ENABLED,
+			   DEFAULT_USERNAME_FILTER_ENABLED)) {
+      knownUsers = null;
+      return;
+    }
+    double fpp = config.getDouble(PARAM_USERNAME_FILTER_FPP,
+				  DEFAULT_USERNAME_FILTER_FPP);
+    if (!(fpp > 0 && fpp < 1)) {
+      log.warn("{} must be between 0 and 1, using {}: {}",
+	       PARAM_USERNAME_FILTER_FPP, DEFAULT_USERNAME_FILTER_FPP, fpp);
+      fpp = DEFAULT_USERNAME_FILTER_FPP;
+    }
+    long rebuildInterval =
+      config.getTimeInterval(PARAM_USERNAME_FILTER_REBUILD_INTERVAL,
+			     DEFAULT_USERNAME_FILTER_REBUILD_INTERVAL);
+    KnownUsers cur = knownUsers;
+    if (cur == null || !cur.isSameAs(fpp, rebuildInterval)) {
+      log.debug("Installing user name filter, fpp: {}, rebuild: {}",
+		fpp, rebuildInterval);
+      knownUsers = new KnownUsers(fpp, rebuildInterval);
+    }
+  }
+
+  KnownUsers getKnownUsers() {
+    return knownUsers;
+  }
+
+  private void setX509Users(int maxSize, String userAttribute) {
+    if (!x509Users.isSameAs(maxSize, userAttribute)) {
+      x509Users = new X509UserCache(maxSize, userAttribute);
     }
   }
 
+  X509UserCache getX509Users() {
+    return x509Users;
+  }
+
+  private void setThrottle(Configuration config) {
+    int stripes = config.getInt(PARAM_THROTTLE_STRIPES,
+				DEFAULT_THROTTLE_STRIPES);
+    throttle.setUserFailureLimit(config.getInt(PARAM_USER_FAILURE_MAX_USERS,
+					       DEFAULT_USER_FAILURE_MAX_USERS),
+				 config.getInt(PARAM_USER_FAILURE_BURST,
+					       DEFAULT_USER_FAILURE_BURST),
+				 config.getTimeInterval(PARAM_USER_FAILURE_INTERVAL,
+							DEFAULT_USER_FAILURE_INTERVAL));
+    throttle.setIpFailureLimit(stripes,
+			       config.getInt(PARAM_IP_FAILURE_BURST,
+					     DEFAULT_IP_FAILURE_BURST),
+			       config.getTimeInterval(PARAM_IP_FAILURE_INTERVAL,
+						      DEFAULT_IP_FAILURE_INTERVAL));
+    throttle.setIpRequestLimit(stripes,
+			       config.getInt(PARAM_IP_REQUEST_BURST,
+					     DEFAULT_IP_REQUEST_BURST),
+			       config.getTimeInterval(PARAM_IP_REQUEST_INTERVAL,
+						      DEFAULT_IP_REQUEST_INTERVAL));
+  }
+
+  LoginThrottle getLoginThrottle() {
+    return throttle;
+  }
+
+  /** Return the outcome counts and latency histograms */
+  public AuthMetrics getMetrics() {
+    return metrics;
+  }
+
+  /** Register this filter's metrics, and its throttle and cache
+   * counters, with the registry */
+  public void publishMetrics(MetricsRegistry registry) {
+    metrics.publishTo(registry);
+    registry.registerCounter(AuthMetrics.PREFIX + "throttle.admitted",
+			     this::getThrottleAdmittedCount);
+    registry.registerCounter(AuthMetrics.PREFIX + "throttle.rejected",
+			     this::getThrottleRejectedCount);
+    registry.registerCounter(AuthMetrics.PREFIX + "failedLogins",
+			     this::getFailedLoginCount);
+    registry.registerCounter(AuthMetrics.PREFIX + "credentialCache.hits",
+			     () -> credentialCache.getHits());
+    registry.registerCounter(AuthMetrics.PREFIX + "credentialCache.misses",
+			     () -> credentialCache.getMisses());
+  }
+
+  /** Return the number of requests requiring authentication that were
+   * not refused by the login throttle */
+  public long getThrottleAdmittedCount() {
+    return throttle.getAdmittedCount();
+  }
+
+  /** Return the number of requests refused by the login throttle with
+   * 429 Too Many Requests */
+  public long getThrottleRejectedCount() {
+    return throttle.getRejectedCount();
+  }
+
+  /** Return the number of failed login attempts */
+  public long getFailedLoginCount() {
+    return throttle.getFailureCount();
+  }
+
   private final static Pattern IPADDR_BRACKETS = Pattern.compile("^\\[(.*)\\]$");
 
   private static String stripBrackets(String ipaddr) {
+    if (ipaddr.isEmpty() || ipaddr.charAt(0) != '[') {
+      return ipaddr;
+    }
     Matcher m = IPADDR_BRACKETS.matcher(ipaddr);
     return m.matches() ? m.group(1) : ipaddr;
   }
@@ -203,6 +688,58 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
   public void doFilter(ServletRequest request, ServletResponse response,
                        FilterChain chain) throws IOException, ServletException {
     log.debug2("Invoked {}.", this);
+    SecurityContextHolderStrategy strategy =
+      SecurityContextHolder.getContextHolderStrategy();
+    if (!(strategy instanceof ScopedSecurityContextHolderStrategy)) {
+      authenticateAndContinue(request, response, chain);
+      return;
+    }
+    // The authentication established here is bound only while this
+    // request is processed
+    ScopedSecurityContextHolderStrategy scoped =
+      (ScopedSecurityContextHolderStrategy)strategy;
+    SecurityContext prev = scoped.bind(scoped.createEmptyContext());
+    try {
+      authenticateAndContinue(request, response, chain);
+    } finally {
+      scoped.restore(prev);
+    }
+  }
+
+  private void authenticateAndContinue(ServletRequest request,
+				       ServletResponse response,
+				       FilterChain chain)
+      throws IOException, ServletException {
+    long startTime = System.nanoTime();
+    AuthMetrics.Outcome outcome = authenticate(request, response);
+    if (outcome == null) {
+      // Request was suspended, will be redispatched
+      return;
+    }
+    metrics.recordOutcome(outcome, System.nanoTime() - startTime);
+    if (outcome == AuthMetrics.Outcome.ALLOWED) {
+      // Continue the chain.
+      chain.doFilter(request, response);
+    }
+  }
+
+  /**
+   * Check the request's IP access and user credentials, and set the
+   * authenticated principal.  If the request is refused, send the
+   * response.
+   *
+   * @param request A ServletRequest with the incoming servlet request.
+   * @param response A ServletResponse with the outgoing servlet response.
+   * @return the Outcome, or null if the request was suspended, to be
+   * redispatched later
+   * @throws IOException if there are problems.
+   */
+  AuthMetrics.Outcome authenticate(ServletRequest request,
+				   ServletResponse response)
+      throws IOException {
+    // Use the same policy throughout, unless it's replaced by the
+    // initial config load while waiting below
+    AuthPolicy p = policy;
 
     HttpServletRequest httpRequest = (HttpServletRequest) request;
 
@@ -222,51 +759,78 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
 
     HttpServletResponse httpResponse = (HttpServletResponse) response;
 
+    // If this request is being re-dispatched after its password was
+    // checked on the verification pool, finish authenticating it
+    Object checkResult =
+      request.getAttribute(VerificationExecutor.RESULT_ATTR);
+    if (checkResult instanceof CheckedPassword) {
+      CheckedPassword verified = (CheckedPassword)checkResult;
+      request.removeAttribute(VerificationExecutor.RESULT_ATTR);
+      return completeAuthentication(policy, httpResponse, verified.acct,
+				    verified.userName, verified.isValid,
+				    verified.cache, verified.cacheKey,
+				    verified.clientIp);
+    }
+
+    String method = httpRequest.getMethod();
+    RouteTable.Access access = classifyRequest(p, method, reqUri);
+
     // Check source IP addr if IP auth is required for this request
-    String srcIp = stripBrackets(request.getRemoteAddr());
-    if (requiresIpAuthorization(httpRequest)) {
+    String srcIp = request.getRemoteAddr();
+    if (access != RouteTable.Access.PUBLIC) {
       log.trace("Access to {} requested from {}", reqUri, srcIp);
-      if (!isConfigSet) {
+      if (!p.isConfigSet) {
 	log.debug2("Config not yet loaded, waiting ...");
-	if (!waitConfig(request)) {
-	  log.warn("Timed out waiting for config, can't check IP access");
+	switch (suspendUntilReady(configGate, httpRequest, httpResponse)) {
+	case SUSPENDED:
+	  return null;
+	case FULL:
 	  sendNotReady(httpResponse);
-	  return;
+	  return AuthMetrics.Outcome.NOT_READY;
+	default:
+	  if (!waitConfig(request)) {
+	    log.warn("Timed out waiting for config, can't check IP access");
+	    sendNotReady(httpResponse);
+	    return AuthMetrics.Outcome.NOT_READY;
+	  }
 	}
+	p = policy;
       }
+      long ipCheckStart = System.nanoTime();
       try {
-	if (!isIpAuthorized(srcIp, isRestrictedPath)) {
+	if (!isRemoteAddrAuthorized(p, srcIp, isRestrictedPath)) {
 	  // The IP is NOT allowed
-	  if (logForbidden) {
+	  if (p.logForbidden) {
 	    log.info("Access to {} forbidden from {}", reqUri, srcIp);
 	  }
 	  sendForbidden(httpResponse, "Forbidden");
-	  return;
+	  return AuthMetrics.Outcome.FORBIDDEN_IP;
 	}
 	String forwardedFor = httpRequest.getHeader("X-Forwarded-For");
 	if (!StringUtils.isEmpty(forwardedFor)) {
-	  String mostRecentIp = stripBrackets(lastElement(forwardedFor));
-	  if (!isIpAuthorized(mostRecentIp, isRestrictedPath)) {
+	  if (!isForwardedForAuthorized(p, forwardedFor, isRestrictedPath)) {
 	    // The IP is NOT allowed
-	    if (logForbidden) {
+	    if (p.logForbidden) {
 	      log.info("Access to {} forbidden for request forwarded from {}",
-		       reqUri, mostRecentIp);
+		       reqUri, stripBrackets(lastElement(forwardedFor)));
 	    }
 	    sendForbidden(httpResponse, "Forbidden");
-	    return;
+	    return AuthMetrics.Outcome.FORBIDDEN_IP;
 	  }
 	}
       } catch (Exception e) {
 	log.warn("Error checking IP", e);
 	httpResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 //       httpResponse.setHandled(true);
+      } finally {
+	metrics.recordIpCheck(System.nanoTime() - ipCheckStart);
       }
     } else {
       log.trace("Allowing unchecked access from {} to {}", srcIp, reqUri);
     }
 
     // Check user credentials if required for this request
-    if (!isAuthenticationOn()) {
+    if (!isAuthenticationOn(p)) {
       // If authentication is disabled, set the authenticated principal
       // to one with maximum capabilities
       log.trace("Authorization is disabled");
@@ -274,49 +838,74 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
       SecurityContextHolder.getContext().setAuthentication(
           getPrivilegedUnauthenticatedUserToken());
 
-      // Continue the chain.
-      chain.doFilter(request, response);
-      return;
+      return AuthMetrics.Outcome.ALLOWED;
     }
 
     // Does this request require an authenticated user
-    if (!requiresAuthentication(httpRequest)) {
+    if (!requiresAuthentication(p, access, method)) {
 	// No, set the authenticated principal to one with minimal capabilities
       log.trace("Authentication not required for {}", reqUri);
 
       SecurityContextHolder.getContext().setAuthentication(
           getUnprivilegedUnauthenticatedUserToken());
 
-      // Continue the chain.
-      chain.doFilter(request, response);
-      return;
+      return AuthMetrics.Outcome.ALLOWED;
     }
 
     // Authentication required - is it configured yet?
-    if (!isConfigSet) {
+    if (!p.isConfigSet) {
       log.debug2("Config not yet loaded, waiting ...");
-      if (!waitConfig(request)) {
-	log.warn("Timed out waiting for config, can't check user auth");
+      switch (suspendUntilReady(configGate, httpRequest, httpResponse)) {
+      case SUSPENDED:
+	return null;
+      case FULL:
 	sendNotReady(httpResponse);
-	return;
+	return AuthMetrics.Outcome.NOT_READY;
+      default:
+	if (!waitConfig(request)) {
+	  log.warn("Timed out waiting for config, can't check user auth");
+	  sendNotReady(httpResponse);
+	  return AuthMetrics.Outcome.NOT_READY;
+	}
       }
+      p = policy;
     }
 
-    AccountManager acctMgr =
-      (AccountManager)getLockssDaemon().waitManagerByKey(LockssDaemon.managerKey(AccountManager.class),
-							 Deadline.in(getReadyWaitTime(request)));
-    if (acctMgr == null) {
-      log.warn("Timed out waiting for AccountManager, can't check user auth");
-      sendNotReady(httpResponse);
-      return;
-    }
-    if (!acctMgr.isStarted()) {
+    AccountManager acctMgr = getAccountManager(0);
+    if (acctMgr == null || !acctMgr.isStarted()) {
       log.debug2("AccountManager not started, waiting ...");
-      if (!waitUserAccounts(acctMgr, request)) {
-	log.warn("Timed out waiting for AccountManager, can't check user auth");
+      switch (suspendUntilReady(accountsGate, httpRequest, httpResponse)) {
+      case SUSPENDED:
+	return null;
+      case FULL:
 	sendNotReady(httpResponse);
-	return;
+	return AuthMetrics.Outcome.NOT_READY;
+      default:
+	acctMgr = getAccountManager(getReadyWaitTime(request));
+	if (acctMgr == null) {
+	  log.warn("Timed out waiting for AccountManager, can't check user auth");
+	  sendNotReady(httpResponse);
+	  return AuthMetrics.Outcome.NOT_READY;
+	}
+	if (!acctMgr.isStarted()) {
+	  if (!waitUserAccounts(acctMgr, request)) {
+	    log.warn("Timed out waiting for AccountManager, can't check user auth");
+	    sendNotReady(httpResponse);
+	    return AuthMetrics.Outcome.NOT_READY;
+	  }
+	}
+      }
+    }
+
+    // A client certificate, already verified by the connector,
+    // identifies the user without further credentials
+    if (p.authMode == AuthPolicy.AuthMode.X509) {
+      X509Certificate[] certs =
+	(X509Certificate[])httpRequest.getAttribute(X509_CERT_ATTR);
+      if (certs != null && certs.length > 0) {
+	return authenticateCertificate(httpResponse, certs[0], acctMgr);
       }
+      log.debug2("No client certificate, checking credentials");
     }
 
     // Get the authorization header.
@@ -326,7 +915,56 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
     if (authorizationHeader == null) {
       log.info(MISSING_AUTH_HEADER);
       sendUnauthenticated(httpResponse, MISSING_AUTH_HEADER);
-      return;
+      return AuthMetrics.Outcome.UNAUTHENTICATED;
+    }
+
+    // Refuse clients that have sent too many requests or bad
+    // credentials, before doing any work to check the credentials
+    String clientIp = getClientIp(p, httpRequest, srcIp);
+    long retryAfter = throttle.checkIp(clientIp);
+    if (retryAfter > 0) {
+      log.debug("Too many requests or failed logins from {}", clientIp);
+      sendTooManyRequests(httpResponse, retryAfter);
+      return AuthMetrics.Outcome.THROTTLED;
+    }
+
+    // Bearer tokens are checked by signature alone
+    if (p.authMode == AuthPolicy.AuthMode.TOKEN
+	&& isBearerAuthorization(authorizationHeader)) {
+      UsernamePasswordAuthenticationToken tokenAuth =
+	bearerTokens.verify(authorizationHeader.substring(7).trim(), acctMgr);
+      if (tokenAuth == null) {
+	log.debug("Invalid bearer token from {}", clientIp);
+	throttle.recordFailure(null, clientIp);
+	sendUnauthenticated(httpResponse, BAD_TOKEN);
+	return AuthMetrics.Outcome.BAD_CREDENTIALS;
+      }
+      log.trace("token authentication = {}", tokenAuth);
+      SecurityContextHolder.getContext().setAuthentication(tokenAuth);
+      log.debug2("User authenticated by bearer token");
+      throttle.recordAdmitted();
+
+      return AuthMetrics.Outcome.ALLOWED;
+    }
+
+    // If these credentials were recently verified, reuse the result
+    CredentialCache cache = credentialCache;
+    String cacheKey = cache.keyFor(authorizationHeader);
+    UsernamePasswordAuthenticationToken cachedAuth =
+      cache.get(cacheKey, acctMgr);
+    if (cachedAuth != null) {
+      log.trace("cached authentication = {}", cachedAuth);
+      SecurityContextHolder.getContext().setAuthentication(cachedAuth);
+      log.debug2("User authenticated from credential cache");
+      throttle.recordAdmitted();
+      if (p.authMode == AuthPolicy.AuthMode.TOKEN) {
+	UserAccount acct = acctMgr.getUserOrNull(cachedAuth.getName());
+	if (acct != null) {
+	  issueToken(httpResponse, acct);
+	}
+      }
+
+      return AuthMetrics.Outcome.ALLOWED;
     }
 
     // Get the user credentials in the authorization header.
@@ -334,59 +972,214 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
 	.decodeBasicAuthorizationHeader(authorizationHeader);
     if (credentials == null) {
       log.info(MISSING_CREDENTIALS);
+      throttle.recordFailure(null, clientIp);
       sendUnauthenticated(httpResponse, MISSING_CREDENTIALS);
-      return;
+      return AuthMetrics.Outcome.BAD_CREDENTIALS;
     }
 
     // Check whether the found credentials are valid
     if (credentials.length != 2) {
       log.info("Malformed user credentials.  Should have 2 elements, has {}",
                credentials.length);
+      throttle.recordFailure(null, clientIp);
       sendUnauthenticated(httpResponse, "Malformed user credentials");
-      return;
+      return AuthMetrics.Outcome.BAD_CREDENTIALS;
     }
 
     log.trace("credentials[0] = {}", credentials[0]);
 
+    retryAfter = throttle.checkUser(credentials[0]);
+    if (retryAfter > 0) {
+      log.debug("Too many failed logins for {}", credentials[0]);
+      sendTooManyRequests(httpResponse, retryAfter);
+      return AuthMetrics.Outcome.THROTTLED;
+    }
+    throttle.recordAdmitted();
+
+    // Refuse names that are certainly unknown
+    KnownUsers known = knownUsers;
+    if (known != null && !known.mightExist(credentials[0], acctMgr)) {
+      log.debug("Unknown user = {}", credentials[0]);
+      throttle.recordFailure(null, clientIp);
+      sendUnauthenticated(httpResponse, BAD_CREDENTIALS);
+      return AuthMetrics.Outcome.BAD_CREDENTIALS;
+    }
+
     UserAccount userAccount = acctMgr.getUserOrNull(credentials[0]);
     if (userAccount == null) {
       log.info("Invalid credentials = {}:{}", credentials[0], "********");
+      throttle.recordFailure(null, clientIp);
       sendUnauthenticated(httpResponse, BAD_CREDENTIALS);
-      return;
+      return AuthMetrics.Outcome.BAD_CREDENTIALS;
     }
 
     log.trace("userAccount.getName() = {}", userAccount.getName());
 
-    // Check whether the user credentials are good.
-    if (!userAccount.check(credentials[1])) {
-      log.info("Invalid credentials = {}:{}", credentials[0], "********");
-      sendUnauthenticated(httpResponse, BAD_CREDENTIALS);
-      return;
+    // Check whether the user credentials are good, on the verification
+    // pool if enabled
+    VerificationExecutor verifier = verificationExecutor;
+    if (verifier != null) {
+      String userName = credentials[0];
+      String password = credentials[1];
+      switch (verifier.submit(httpRequest, httpResponse,
+			      passwordCheckTimeout, this::sendBusy,
+			      () -> new CheckedPassword(userAccount, userName,
+							checkPassword(userAccount, password),
+							cache, cacheKey, clientIp))) {
+      case SUBMITTED:
+	return null;
+      case SATURATED:
+	sendBusy(httpResponse);
+	httpRequest.getAsyncContext().complete();
+	return AuthMetrics.Outcome.NOT_READY;
+      default:
+	break;
+      }
     }
+    return completeAuthentication(p, httpResponse, userAccount,
+				  credentials[0],
+				  checkPassword(userAccount, credentials[1]),
+				  cache, cacheKey, clientIp);
+  }
 
-    // Get the user roles, store in the thread's SecurityContext
-    Collection<GrantedAuthority> roles = new HashSet<GrantedAuthority>();
+  /** Authenticate the request as the user the client certificate maps
+   * to, or send 401 if it doesn't map to a valid user */
+  private AuthMetrics.Outcome
+    authenticateCertificate(HttpServletResponse httpResponse,
+			    X509Certificate cert, AccountManager acctMgr)
+      throws IOException {
+    UsernamePasswordAuthenticationToken authentication;
+    try {
+      authentication = x509Users.authenticate(cert, acctMgr, principals);
+    } catch (CertificateEncodingException e) {
+      log.warn("Can't encode client certificate", e);
+      authentication = null;
+    }
+    if (authentication == null) {
+      sendUnauthenticated(httpResponse, BAD_CERTIFICATE);
+      return AuthMetrics.Outcome.BAD_CREDENTIALS;
+    }
+    log.trace("certificate authentication = {}", authentication);
+    SecurityContextHolder.getContext().setAuthentication(authentication);
+    log.debug2("User authenticated by client certificate");
+    return AuthMetrics.Outcome.ALLOWED;
+  }
+
+  /** Check the password, recording the time taken */
+  private boolean checkPassword(UserAccount userAccount, String password) {
+    long checkStart = System.nanoTime();
+    boolean isValid = userAccount.check(password);
+    metrics.recordPasswordCheck(System.nanoTime() - checkStart);
+    return isValid;
+  }
 
-    for (String role : userAccount.getRoleSet()) {
-      roles.add(new SimpleGrantedAuthority(role));
+  /** The result of a password check on the verification pool, and the
+   * state needed to finish authenticating the request */
+  private static class CheckedPassword {
+    final UserAccount acct;
+    final String userName;
+    final boolean isValid;
+    final CredentialCache cache;
+    final String cacheKey;
+    final String clientIp;
+
+    CheckedPassword(UserAccount acct, String userName, boolean isValid,
+		    CredentialCache cache, String cacheKey, String clientIp) {
+      this.acct = acct;
+      this.userName = userName;
+      this.isValid = isValid;
+      this.cache = cache;
+      this.cacheKey = cacheKey;
+      this.clientIp = clientIp;
+    }
+  }
+
+  /**
+   * Finish authenticating a request whose password has been checked:
+   * send 401 if it was invalid, else set the authenticated principal
+   */
+  private AuthMetrics.Outcome
+    completeAuthentication(AuthPolicy p, HttpServletResponse httpResponse,
+			   UserAccount userAccount, String userName,
+			   boolean isValid, CredentialCache cache,
+			   String cacheKey, String clientIp)
+      throws IOException {
+    if (!isValid) {
+      log.info("Invalid credentials = {}:{}", userName, "********");
+      throttle.recordFailure(userName, clientIp);
+      sendUnauthenticated(httpResponse, BAD_CREDENTIALS);
+      return AuthMetrics.Outcome.BAD_CREDENTIALS;
     }
-    log.trace("roles = {}", roles);
 
-    // Create the completed authentication details.
+    throttle.recordSuccess(userName);
+
+    // Get the completed authentication details, with the user roles.
+    // This is shared by all requests from the user until the account
+    // changes.
     UsernamePasswordAuthenticationToken authentication =
-      new UsernamePasswordAuthenticationToken(credentials[0],
-					      credentials[1],
-					      roles);
+      principals.forAccount(userAccount);
     log.trace("authentication = {}", authentication);
+    cache.put(cacheKey, userAccount, authentication);
+    if (p.authMode == AuthPolicy.AuthMode.TOKEN) {
+      issueToken(httpResponse, userAccount);
+    }
 
     // Store in the SecurityContext
     SecurityContextHolder.getContext().setAuthentication(authentication);
     log.debug2("User successfully authenticated");
+    return AuthMetrics.Outcome.ALLOWED;
+  }
 
-    // Continue the chain.
-    chain.doFilter(request, response);
+  /** Return true if the Authorization header carries a bearer token */
+  static boolean isBearerAuthorization(String authorizationHeader) {
+    return authorizationHeader.regionMatches(true, 0, "Bearer ", 0, 7);
+  }
 
-    log.debug2("Done.");
+  /** Add a new bearer token for the account to the response */
+  private void issueToken(HttpServletResponse httpResponse,
+			  UserAccount acct) {
+    httpResponse.setHeader(TOKEN_HEADER, bearerTokens.issue(acct));
+  }
+
+  /** Return the address of the client, for throttling: the remote
+   * address, unless it's a trusted proxy, in which case the
+   * X-Forwarded-For hops are followed back as long as each was added by
+   * a trusted proxy.  Hops added by anyone else may be forged. */
+  String getClientIp(HttpServletRequest httpRequest, String remoteAddr) {
+    return getClientIp(policy, httpRequest, remoteAddr);
+  }
+
+  String getClientIp(AuthPolicy p, HttpServletRequest httpRequest,
+		     String remoteAddr) {
+    String addr = stripBrackets(remoteAddr);
+    CompiledIpFilter proxies = p.trustedProxies;
+    if (proxies == null) {
+      return addr;
+    }
+    String forwardedFor = httpRequest.getHeader("X-Forwarded-For");
+    if (StringUtils.isEmpty(forwardedFor)) {
+      return addr;
+    }
+    String[] hops = forwardedFor.split(",");
+    for (int ix = hops.length - 1;
+	 ix >= 0 && isTrustedProxy(proxies, addr);
+	 ix--) {
+      String hop = stripBrackets(hops[ix].trim());
+      if (hop.isEmpty()) {
+	break;
+      }
+      addr = hop;
+    }
+    return addr;
+  }
+
+  private static boolean isTrustedProxy(CompiledIpFilter proxies,
+					String addr) {
+    try {
+      return proxies.isIpAllowed(addr);
+    } catch (IpFilter.MalformedException e) {
+      return false;
+    }
   }
 
   String lastElement(String forwardedChain) {
@@ -396,13 +1189,61 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
 
   /** Return true is the system is configured to require user authentication */
   boolean isAuthenticationOn() {
-    switch (authType) {
-    case NONE_AUTH_TYPE: return false;
-    case BASIC_AUTH_TYPE: return true;
-    default:
-      log.error("authenticationType = {}", authType);
-      throw new AccessControlException(authType + ": " + INVALID_AUTH_TYPE);
+    return isAuthenticationOn(policy);
+  }
+
+  boolean isAuthenticationOn(AuthPolicy p) {
+    if (p.authMode == null) {
+      log.error("authenticationType = {}", p.authType);
+      throw new AccessControlException(p.authType + ": " + INVALID_AUTH_TYPE);
     }
+    return p.authMode != AuthPolicy.AuthMode.NONE;
+  }
+
+  /** Return true if the remote address (possibly bracketed) is allowed
+   * by the IP access filters.  Uses cached decisions if available. */
+  boolean isRemoteAddrAuthorized(String remoteAddr, boolean isRestrictedPath)
+      throws IpFilter.MalformedException {
+    return isRemoteAddrAuthorized(policy, remoteAddr, isRestrictedPath);
+  }
+
+  boolean isRemoteAddrAuthorized(AuthPolicy p, String remoteAddr,
+				 boolean isRestrictedPath)
+      throws IpFilter.MalformedException {
+    IpDecisionCache cache = p.ipDecisionCache;
+    switch (cache.get(remoteAddr, isRestrictedPath, p.generation)) {
+    case IpDecisionCache.ALLOWED: return true;
+    case IpDecisionCache.DENIED: return false;
+    }
+    boolean res = isIpAuthorized(p, stripBrackets(remoteAddr),
+				 isRestrictedPath);
+    cache.put(remoteAddr, isRestrictedPath, p.generation, res);
+    return res;
+  }
+
+  /** Return true if the most recent hop in the X-Forwarded-For header is
+   * allowed by the IP access filters.  Uses cached decisions if
+   * available. */
+  boolean isForwardedForAuthorized(String forwardedFor,
+				   boolean isRestrictedPath)
+      throws IpFilter.MalformedException {
+    return isForwardedForAuthorized(policy, forwardedFor, isRestrictedPath);
+  }
+
+  boolean isForwardedForAuthorized(AuthPolicy p, String forwardedFor,
+				   boolean isRestrictedPath)
+      throws IpFilter.MalformedException {
+    // The decision for a header is the decision for its last element, so
+    // it can share the cache with plain addresses
+    IpDecisionCache cache = p.ipDecisionCache;
+    switch (cache.get(forwardedFor, isRestrictedPath, p.generation)) {
+    case IpDecisionCache.ALLOWED: return true;
+    case IpDecisionCache.DENIED: return false;
+    }
+    boolean res = isIpAuthorized(p, stripBrackets(lastElement(forwardedFor)),
+				 isRestrictedPath);
+    cache.put(forwardedFor, isRestrictedPath, p.generation, res);
+    return res;
   }
 
   /** Return true if the IP address is allowed by the IP access filters */
@@ -411,8 +1252,21 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
   }
 
   boolean isIpAuthorized(String ip, boolean isRestrictedPath) throws IpFilter.MalformedException {
-    return ((ipFilter != null && !isRestrictedPath && ipFilter.isIpAllowed(ip)) ||
-        (allowLocal && localFilter.isIpAllowed(ip)));
+    return isIpAuthorized(policy, ip, isRestrictedPath);
+  }
+
+  boolean isIpAuthorized(AuthPolicy p, String ip, boolean isRestrictedPath)
+      throws IpFilter.MalformedException {
+    return ((p.ipFilter != null && !isRestrictedPath && p.ipFilter.isIpAllowed(ip)) ||
+        (p.allowLocal && p.localFilter.isIpAllowed(ip)));
+  }
+
+  /** Suspend the request until the gate opens, if possible */
+  private StartupGate.Result suspendUntilReady(StartupGate gate,
+					       HttpServletRequest request,
+					       HttpServletResponse response) {
+    return gate.suspend(request, response, getConfigWaitTime(request),
+			getStartupQueueSize(request));
   }
 
   /** Send 503 Serice Unavailable, with a reason */
@@ -423,6 +1277,16 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
 			   "Request requires authorization/authentication but service is still starting and cannot perform authentication yet.");
   }
 
+  /** Send 503 Service Unavailable because too many passwords are waiting
+   * to be checked */
+  private void sendBusy(HttpServletResponse httpResponse)
+      throws IOException {
+    SecurityContextHolder.clearContext();
+    httpResponse.setHeader("Retry-After", "5");
+    httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+			   TOO_MANY_LOGINS);
+  }
+
   /** Send 401 Unauthorized (which is really unauthenticated), and ask for
    * authentication */
   private void sendUnauthenticated(HttpServletResponse httpResponse,
@@ -433,6 +1297,16 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
     httpResponse.sendError(HttpServletResponse.SC_UNAUTHORIZED, msg);
   }
 
+  /** Send 429 Too Many Requests, with the time after which to retry */
+  private void sendTooManyRequests(HttpServletResponse httpResponse,
+				   long retryAfter)
+      throws IOException {
+    SecurityContextHolder.clearContext();
+    httpResponse.setHeader("Retry-After",
+			   Long.toString((retryAfter + 999) / 1000));
+    httpResponse.sendError(SC_TOO_MANY_REQUESTS, TOO_MANY_REQUESTS);
+  }
+
   /** Send 403 Forbidden */
   private void sendForbidden(HttpServletResponse httpResponse, String msg)
       throws IOException {
@@ -445,11 +1319,7 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
    * operations
    */
   UsernamePasswordAuthenticationToken getPrivilegedUnauthenticatedUserToken() {
-    Collection<GrantedAuthority> roles = new HashSet<GrantedAuthority>();
-    roles.add(new SimpleGrantedAuthority(Roles.ROLE_ALL_ACCESS));
-
-    return new UsernamePasswordAuthenticationToken("unauthenticatedPrivUser",
-        "unauthenticatedPassword", roles);
+    return PRIVILEGED_UNAUTHENTICATED_USER_TOKEN;
   }
 
   /**
@@ -457,22 +1327,42 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
    * non-privileged operations
    */
   UsernamePasswordAuthenticationToken getUnprivilegedUnauthenticatedUserToken() {
-    Collection<GrantedAuthority> roles = new HashSet<GrantedAuthority>();
-    roles.add(new SimpleGrantedAuthority(Roles.ROLE_CONTENT_ACCESS));
+    return UNPRIVILEGED_UNAUTHENTICATED_USER_TOKEN;
+  }
 
-    return new UsernamePasswordAuthenticationToken("unauthenticatedUnprivUser",
-        "unauthenticatedPassword", roles);
+  /**
+   * Return the Access that applies to this request method and URI: that
+   * of the first matching route in the configured routes, routes
+   * registered by the service, and the built-in routes, in that order.
+   *
+   * @param p the AuthPolicy in effect
+   * @param httpMethodName A String with the request method.
+   * @param requestUri A String with the request URI.
+   * @return the Access, or null if no route matches
+   */
+  RouteTable.Access classifyRequest(AuthPolicy p, String httpMethodName,
+				    String requestUri) {
+    RouteTable.Access res = p.routes.classify(httpMethodName, requestUri);
+    if (res == null) {
+      res = registeredRoutes.classify(httpMethodName, requestUri);
+    }
+    if (res == null) {
+      res = BUILTIN_ROUTES.classify(httpMethodName, requestUri);
+    }
+    return res;
   }
 
   /**
    * Return true if this request requires authentication
    *
+   * @param p the AuthPolicy in effect
    * @param httpRequest A HttpServletRequest with the incoming request.
    * @return true if this request requires authentication, false otherwise.
    */
-  boolean requiresAuthentication(HttpServletRequest httpRequest) {
-    return requiresAuthentication(httpRequest.getMethod().toUpperCase(),
-				  httpRequest.getRequestURI().toLowerCase());
+  boolean requiresAuthentication(AuthPolicy p,
+				 HttpServletRequest httpRequest) {
+    return requiresAuthentication(p, httpRequest.getMethod(),
+				  httpRequest.getRequestURI());
   }
 
   /**
@@ -483,19 +1373,46 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
    * @return true if this request requires authentication, false otherwise.
    */
   boolean requiresAuthentication(String httpMethodName, String requestUri) {
-    log.trace("requiresAuthentication({}, {})", httpMethodName, requestUri);
-
-    boolean result = !isStatusOrDocFetch(httpMethodName, requestUri);
+    return requiresAuthentication(policy, httpMethodName, requestUri);
+  }
 
-    // Conditionally allow unauthenticated read requests
-    if (result && allowUnauthenticatedRead &&
-	isReadRequest(httpMethodName, requestUri)) {
-      result = false;
-    }
+  boolean requiresAuthentication(AuthPolicy p, String httpMethodName,
+				 String requestUri) {
+    log.trace("requiresAuthentication({}, {})", httpMethodName, requestUri);
+    boolean result =
+      requiresAuthentication(p, classifyRequest(p, httpMethodName, requestUri),
+			     httpMethodName);
     log.trace("result = {}", result);
     return result;
   }
 
+  /**
+   * Return true if a request with this Access and method requires
+   * authentication
+   *
+   * @param p the AuthPolicy in effect
+   * @param access the request's Access, or null if no route matched
+   * @param httpMethodName A String with the request method.
+   * @return true if this request requires authentication, false otherwise.
+   */
+  boolean requiresAuthentication(AuthPolicy p, RouteTable.Access access,
+				 String httpMethodName) {
+    if (access == null) {
+      // Conditionally allow unauthenticated read requests
+      return !(p.allowUnauthenticatedRead && isReadRequest(httpMethodName));
+    }
+    switch (access) {
+    case PUBLIC:
+    case IP_ONLY:
+      return false;
+    case READ_ALLOWED:
+      return !isReadRequest(httpMethodName);
+    case AUTH_REQUIRED:
+    default:
+      return true;
+    }
+  }
+
   /**
    * Return true if this request requires IP authorization
    *
@@ -503,8 +1420,8 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
    * @return true if this request requires IP authorization, false otherwise.
    */
   boolean requiresIpAuthorization(HttpServletRequest httpRequest) {
-    return requiresIpAuthorization(httpRequest.getMethod().toUpperCase(),
-				   httpRequest.getRequestURI().toLowerCase());
+    return requiresIpAuthorization(httpRequest.getMethod(),
+				   httpRequest.getRequestURI());
   }
 
   /*
@@ -519,25 +1436,30 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
   }
 
   /**
-   * Return true if this is a request for status or api docs
+   * Return true if this is a request for status or api docs, or anything
+   * else with {@link RouteTable.Access#PUBLIC} access
    *
    * @param httpMethodName A String with the request method.
    * @param requestUri A String with the request URI.
    */
   boolean isStatusOrDocFetch(String httpMethodName, String requestUri) {
-    boolean result =
-      "GET".equals(httpMethodName)
-      && ("/status".equals(requestUri)
-	  || "/v3/api-docs".equals(requestUri)
-	  || "/swagger-ui.html".equals(requestUri)
-	  || requestUri.startsWith("/swagger-resources")
-	  || requestUri.startsWith("/webjars/springfox-swagger-ui")) ;
+    boolean result = classifyRequest(policy, httpMethodName, requestUri)
+      == RouteTable.Access.PUBLIC;
     if (result) {
       log.trace("Is status or doc request: {} {}", httpMethodName, requestUri);
     }
     return result;
   }
 
+  /**
+   * Return true if this is a read request
+   *
+   * @param httpMethodName A String with the request method.
+   */
+  boolean isReadRequest(String httpMethodName) {
+    return "GET".equalsIgnoreCase(httpMethodName);
+  }
+
   /**
    * Return true if this is a read request
    *
@@ -545,7 +1467,43 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
    * @param requestUri A String with the request URI.
    */
   boolean isReadRequest(String httpMethodName, String requestUri) {
-    return "GET".equals(httpMethodName);
+    return isReadRequest(httpMethodName);
+  }
+
+  /**
+   * Register an additional route, e.g., for a health probe or metrics
+   * endpoint that should be reachable without credentials.  Registered
+   * routes are consulted after the configured routes ({@value
+   * #PARAM_ROUTES}) and before the built-in routes.
+   *
+   * @param httpMethodName the request method, or "*" for any
+   * @param pathPattern the path, ending with "*" to match a prefix
+   * @param access the checks to apply to matching requests
+   */
+  public static synchronized void registerRoute(String httpMethodName,
+						String pathPattern,
+						RouteTable.Access access) {
+    registeredRoutes =
+      registeredRoutes.withRoute(httpMethodName, pathPattern, access);
+    log.debug("Registered route: {} {} {}",
+	      httpMethodName, pathPattern, access);
+  }
+
+  /**
+   * Register a route that requires neither IP authorization nor user
+   * authentication
+   *
+   * @param httpMethodName the request method, or "*" for any
+   * @param pathPattern the path, ending with "*" to match a prefix
+   */
+  public static void registerPublicRoute(String httpMethodName,
+					 String pathPattern) {
+    registerRoute(httpMethodName, pathPattern, RouteTable.Access.PUBLIC);
+  }
+
+  /** For testing */
+  static synchronized void clearRegisteredRoutes() {
+    registeredRoutes = RouteTable.EMPTY;
   }
 
   // This should be in AuthUtil, as it's called statically from service
@@ -593,6 +1551,44 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
   public static String PARAM_CONFIG_WAIT_TIME = "org.lockss.service.configWait";
   public static long DEFAULT_CONFIG_WAIT_TIME = TimeUtil.MINUTE;
 
+  /** Maximum number of requests that will be suspended (without tying up
+   * a container thread) while waiting for the initial config load or the
+   * user accounts.  Requests beyond this get a 503 Unavailable response.
+   * If zero, waiting requests block their thread instead.  Can only be
+   * set in a Spring config file. */
+  public static String PARAM_STARTUP_QUEUE_SIZE =
+    "org.lockss.service.startupQueueSize";
+  public static int DEFAULT_STARTUP_QUEUE_SIZE = 1000;
+
+  private final StartupGate configGate =
+    new StartupGate("config",
+		    new StartupGate.Readiness() {
+		      public boolean isReady() {
+			return policy.isConfigSet;
+		      }
+		      public boolean await(long wait) {
+			return waitConfig(wait);
+		      }
+		    },
+		    this::sendNotReady);
+
+  private final StartupGate accountsGate =
+    new StartupGate("user accounts",
+		    new StartupGate.Readiness() {
+		      public boolean isReady() {
+			AccountManager acctMgr = getAccountManager(0);
+			return acctMgr != null && acctMgr.isStarted();
+		      }
+		      public boolean await(long wait) {
+			Deadline until = Deadline.in(wait);
+			AccountManager acctMgr =
+			  (AccountManager)getLockssDaemon()
+			  .waitManagerByKey(ACCOUNT_MANAGER_KEY, until);
+			return acctMgr != null && acctMgr.waitStarted(until);
+		      }
+		    },
+		    this::sendNotReady);
+
 
   protected long getReadyWaitTime(ServletRequest request) {
     return getWaitTime(getEnvironment(request).getProperty(PARAM_READY_WAIT_TIME),
@@ -604,6 +1600,19 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
 		       DEFAULT_CONFIG_WAIT_TIME);
   }
 
+  protected int getStartupQueueSize(ServletRequest request) {
+    String paramVal =
+      getEnvironment(request).getProperty(PARAM_STARTUP_QUEUE_SIZE);
+    if (!StringUtil.isNullString(paramVal)) {
+      try {
+	return Integer.parseInt(paramVal);
+      } catch (NumberFormatException e) {
+	log.warn("Can't parse startup queue size", e);
+      }
+    }
+    return DEFAULT_STARTUP_QUEUE_SIZE;
+  }
+
   protected long getWaitTime(String paramVal, long dfault) {
     if (!StringUtil.isNullString(paramVal)) {
       try {
@@ -683,6 +1692,16 @@ public class SpringAuthenticationFilter extends GenericFilterBean {
     return acctMgr.waitStarted(Deadline.in(wait));
   }
 
+  private static final String ACCOUNT_MANAGER_KEY =
+    LockssDaemon.managerKey(AccountManager.class);
+
+  /** Return the AccountManager, waiting up to the specified time for it
+   * to be created.  Returns null if it doesn't exist by then. */
+  protected AccountManager getAccountManager(long wait) {
+    return (AccountManager)getLockssDaemon()
+      .waitManagerByKey(ACCOUNT_MANAGER_KEY, Deadline.in(wait));
+  }
+
   /**
    * Return the configuration manager.
    *
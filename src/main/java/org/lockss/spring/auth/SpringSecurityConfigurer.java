@@ -31,26 +31,44 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 package org.lockss.spring.auth;
 
+import jakarta.servlet.DispatcherType;
 import org.lockss.account.AccountManager;
 import org.lockss.log.L4JLogger;
 import org.lockss.app.LockssDaemon;
 import org.lockss.config.ConfigManager;
+import org.springframework.aop.Advisor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.security.servlet.SecurityAutoConfiguration;
+import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.security.access.expression.method.DefaultMethodSecurityExpressionHandler;
+import org.springframework.security.access.expression.method.MethodSecurityExpressionHandler;
+import org.springframework.security.access.hierarchicalroles.RoleHierarchy;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.authorization.method.*;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
+import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityCustomizer;
+import org.springframework.security.config.core.GrantedAuthorityDefaults;
+import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextHolderStrategy;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
+import org.springframework.security.web.context.NullSecurityContextRepository;
 import org.springframework.security.web.firewall.DefaultHttpFirewall;
 import org.springframework.security.web.firewall.HttpFirewall;
 
@@ -59,11 +77,32 @@ import org.springframework.security.web.firewall.HttpFirewall;
  */
 @Configuration
 @EnableWebSecurity
-@EnableGlobalMethodSecurity(prePostEnabled = true)
 public class SpringSecurityConfigurer {
 
   private final static L4JLogger log = L4JLogger.getLogger();
 
+  /** Spring property: if true, build a minimal, stateless filter chain
+   * (see {@link #configureLeanChain(HttpSecurity)}) rather than Spring
+   * Security's default one */
+  public static final String PROP_LEAN_FILTER_CHAIN =
+    "org.lockss.restAuth.leanFilterChain";
+  public static final boolean DEFAULT_LEAN_FILTER_CHAIN = false;
+
+  /** Spring property: if true, install {@link
+   * ScopedSecurityContextHolderStrategy}, which binds the security
+   * context only while a request is being processed */
+  public static final String PROP_SCOPED_SECURITY_CONTEXT =
+    "org.lockss.restAuth.scopedSecurityContext";
+  public static final boolean DEFAULT_SCOPED_SECURITY_CONTEXT = false;
+
+  /** Spring property: if true, enforce {@code @PreAuthorize} with {@link
+   * CompiledPreAuthorizeManager}, which compiles simple role and
+   * authority checks, rather than evaluating every expression with
+   * SpEL */
+  public static final String PROP_COMPILED_PRE_AUTHORIZE =
+    "org.lockss.restAuth.compiledPreAuthorize";
+  public static final boolean DEFAULT_COMPILED_PRE_AUTHORIZE = false;
+
   private LockssDaemon daemon;
   private SpringAuthenticationFilter authFilter;
 
@@ -101,18 +140,175 @@ public class SpringSecurityConfigurer {
     return (web) -> web.httpFirewall(allowUrlEncodedSlashHttpFirewall());
   }
 
+  /**
+   * The strategy with which the security context is stored, used by the
+   * filter chain and method security.  Installs {@link
+   * ScopedSecurityContextHolderStrategy} if so configured.
+   *
+   * @param env The Spring Environment, to read {@link
+   * #PROP_SCOPED_SECURITY_CONTEXT}.
+   */
+  @Bean
+  public SecurityContextHolderStrategy securityContextHolderStrategy(Environment env) {
+    if (env.getProperty(PROP_SCOPED_SECURITY_CONTEXT, Boolean.class,
+			DEFAULT_SCOPED_SECURITY_CONTEXT)) {
+      log.debug("Installing scoped security context strategy");
+      SecurityContextHolder.setContextHolderStrategy(new ScopedSecurityContextHolderStrategy());
+    }
+    return SecurityContextHolder.getContextHolderStrategy();
+  }
+
+  /**
+   * Spring's standard method security, used unless {@link
+   * #PROP_COMPILED_PRE_AUTHORIZE} is true.
+   */
+  @Configuration
+  @ConditionalOnProperty(name = PROP_COMPILED_PRE_AUTHORIZE,
+			 havingValue = "false", matchIfMissing = true)
+  @EnableGlobalMethodSecurity(prePostEnabled = true)
+  static class StandardMethodSecurity {
+  }
+
+  /**
+   * Method security in which {@code @PreAuthorize} is enforced by {@link
+   * CompiledPreAuthorizeManager}, used if {@link
+   * #PROP_COMPILED_PRE_AUTHORIZE} is true.  Pre/post annotations are
+   * enabled by the interceptors below rather than by
+   * {@code @EnableMethodSecurity}, which is the only way to supply the
+   * AuthorizationManager.  They're configured as Spring's would be: with
+   * the application's MethodSecurityExpressionHandler if it defines one,
+   * else with one that resolves bean references and honors any
+   * RoleHierarchy and GrantedAuthorityDefaults.
+   */
+  @Configuration
+  @ConditionalOnProperty(name = PROP_COMPILED_PRE_AUTHORIZE,
+			 havingValue = "true")
+  @EnableMethodSecurity(prePostEnabled = false)
+  static class CompiledMethodSecurity {
+
+    /**
+     * Enforces {@code @PreAuthorize}, compiling simple role and authority
+     * checks rather than evaluating them with SpEL on each call.  The
+     * compiled checks don't consult a RoleHierarchy, so if one is defined
+     * all expressions are evaluated with SpEL.
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    static Advisor preAuthorizeAuthorizationMethodInterceptor(
+	ObjectProvider<MethodSecurityExpressionHandler> handlerProvider,
+	ObjectProvider<GrantedAuthorityDefaults> defaultsProvider,
+	ObjectProvider<RoleHierarchy> hierarchyProvider,
+	ApplicationContext context) {
+      PreAuthorizeAuthorizationManager spel =
+	new PreAuthorizeAuthorizationManager();
+      spel.setExpressionHandler(expressionHandler(handlerProvider,
+						  defaultsProvider,
+						  hierarchyProvider,
+						  context));
+      if (hierarchyProvider.getIfAvailable() != null) {
+	log.info("RoleHierarchy defined, @PreAuthorize expressions won't be compiled");
+	return AuthorizationManagerBeforeMethodInterceptor.preAuthorize(spel);
+      }
+      GrantedAuthorityDefaults defaults = defaultsProvider.getIfAvailable();
+      String rolePrefix = defaults != null
+	? defaults.getRolePrefix()
+	: CompiledPreAuthorizeManager.DEFAULT_ROLE_PREFIX;
+      return AuthorizationManagerBeforeMethodInterceptor
+	.preAuthorize(new CompiledPreAuthorizeManager(rolePrefix, spel));
+    }
+
+    /** Enforces {@code @PostAuthorize} */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    static Advisor postAuthorizeAuthorizationMethodInterceptor(
+	ObjectProvider<MethodSecurityExpressionHandler> handlerProvider,
+	ObjectProvider<GrantedAuthorityDefaults> defaultsProvider,
+	ObjectProvider<RoleHierarchy> hierarchyProvider,
+	ApplicationContext context) {
+      PostAuthorizeAuthorizationManager mgr =
+	new PostAuthorizeAuthorizationManager();
+      mgr.setExpressionHandler(expressionHandler(handlerProvider,
+						 defaultsProvider,
+						 hierarchyProvider,
+						 context));
+      return AuthorizationManagerAfterMethodInterceptor.postAuthorize(mgr);
+    }
+
+    /** Enforces {@code @PreFilter} */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    static Advisor preFilterAuthorizationMethodInterceptor(
+	ObjectProvider<MethodSecurityExpressionHandler> handlerProvider,
+	ObjectProvider<GrantedAuthorityDefaults> defaultsProvider,
+	ObjectProvider<RoleHierarchy> hierarchyProvider,
+	ApplicationContext context) {
+      PreFilterAuthorizationMethodInterceptor interceptor =
+	new PreFilterAuthorizationMethodInterceptor();
+      interceptor.setExpressionHandler(expressionHandler(handlerProvider,
+							 defaultsProvider,
+							 hierarchyProvider,
+							 context));
+      return interceptor;
+    }
+
+    /** Enforces {@code @PostFilter} */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    static Advisor postFilterAuthorizationMethodInterceptor(
+	ObjectProvider<MethodSecurityExpressionHandler> handlerProvider,
+	ObjectProvider<GrantedAuthorityDefaults> defaultsProvider,
+	ObjectProvider<RoleHierarchy> hierarchyProvider,
+	ApplicationContext context) {
+      PostFilterAuthorizationMethodInterceptor interceptor =
+	new PostFilterAuthorizationMethodInterceptor();
+      interceptor.setExpressionHandler(expressionHandler(handlerProvider,
+							 defaultsProvider,
+							 hierarchyProvider,
+							 context));
+      return interceptor;
+    }
+
+    /**
+     * Return the application's MethodSecurityExpressionHandler, if any,
+     * else one set up as {@code @EnableMethodSecurity} would.
+     */
+    static MethodSecurityExpressionHandler expressionHandler(
+	ObjectProvider<MethodSecurityExpressionHandler> handlerProvider,
+	ObjectProvider<GrantedAuthorityDefaults> defaultsProvider,
+	ObjectProvider<RoleHierarchy> hierarchyProvider,
+	ApplicationContext context) {
+      return handlerProvider.getIfAvailable(() -> {
+	  DefaultMethodSecurityExpressionHandler handler =
+	    new DefaultMethodSecurityExpressionHandler();
+	  hierarchyProvider.ifAvailable(handler::setRoleHierarchy);
+	  defaultsProvider.ifAvailable(d ->
+				       handler.setDefaultRolePrefix(d.getRolePrefix()));
+	  handler.setApplicationContext(context);
+	  return handler;
+	});
+    }
+  }
+
   /**
    * Configures the authentication strategy and filter.
    *
    * @param http An HttpSecurity to be configured.
+   * @param env The Spring Environment, to read {@link
+   * #PROP_LEAN_FILTER_CHAIN}.
    * @throws Exception if there are problems.
    */
   @Bean
-  public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+  public SecurityFilterChain filterChain(HttpSecurity http, Environment env)
+      throws Exception {
     log.debug2("Invoked.");
 
-    // Force each and every request to be authenticated.
-    http.csrf().disable().authorizeRequests().anyRequest().authenticated();
+    if (env.getProperty(PROP_LEAN_FILTER_CHAIN, Boolean.class,
+			DEFAULT_LEAN_FILTER_CHAIN)) {
+      configureLeanChain(http);
+    } else {
+      // Force each and every request to be authenticated.
+      http.csrf().disable().authorizeRequests().anyRequest().authenticated();
+    }
 
     log.debug2("Installing auth filter");
     // The Basic authentication filter to be used.
@@ -124,6 +320,43 @@ public class SpringSecurityConfigurer {
     return http.build();
   }
 
+  /**
+   * Configures a chain with only what the REST services use: the LOCKSS
+   * filter establishes the principal from each request's credentials, so
+   * nothing is kept in or restored from the HttpSession, and the session,
+   * request cache, logout and anonymous filters are omitted.  The default
+   * security headers (X-Content-Type-Options, Cache-Control, etc.) are
+   * still written.  Every request must be authenticated, except error
+   * dispatches, which report a failure that has already been authorized
+   * or refused.
+   *
+   * @param http An HttpSecurity to be configured.
+   * @throws Exception if there are problems.
+   */
+  void configureLeanChain(HttpSecurity http) throws Exception {
+    log.debug("Building lean security filter chain");
+    http.csrf(csrf -> csrf.disable())
+      .sessionManagement(session ->
+			 session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+      .securityContext(context ->
+		       context.securityContextRepository(new NullSecurityContextRepository()))
+      .requestCache(cache -> cache.disable())
+      .logout(logout -> logout.disable())
+      .anonymous(anon -> anon.disable())
+      .authorizeHttpRequests(authz -> authz
+			     .dispatcherTypeMatchers(DispatcherType.ERROR).permitAll()
+			     .anyRequest().authenticated());
+  }
+
+  /**
+   * Return the authentication filter, e.g., to publish its metrics with
+   * {@link SpringAuthenticationFilter#publishMetrics(MetricsRegistry)}.
+   * Null until the filter chain has been built.
+   */
+  public SpringAuthenticationFilter getAuthenticationFilter() {
+    return authFilter;
+  }
+
   /**
    * This {@link AuthenticationManager} was introduced to suppress the generation of a default password,
    * since excluding {@link SecurityAutoConfiguration} does not appear to work. This is a temporary fix.
@@ -0,0 +1,222 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.io.IOException;
+import java.util.*;
+
+import jakarta.servlet.*;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.lockss.log.L4JLogger;
+import org.lockss.util.time.TimeUtil;
+
+/**
+ * Holds requests that arrive before some part of the service (the config,
+ * the user accounts) is ready, without tying up a container thread for
+ * each.  Requests are suspended with {@link AsyncContext} in a bounded
+ * queue; a single waiter thread blocks on readiness, then re-dispatches
+ * them all, so they pass through the filter chain again.  Requests still
+ * waiting when their timeout expires are sent a 503.
+ */
+class StartupGate {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  /** Max time the waiter thread blocks before checking whether any
+   * requests are still waiting */
+  static final long WAIT_SLICE = TimeUtil.SECOND;
+
+  /** Determines whether the gate should be open */
+  interface Readiness {
+    /** Return true if ready, without blocking */
+    boolean isReady();
+
+    /** Wait up to the specified time for readiness, return true if
+     * ready */
+    boolean await(long wait);
+  }
+
+  /** Outcome of {@link #suspend} */
+  enum Result {
+    /** The request has been suspended and will be re-dispatched or
+     * timed out.  The caller should return without further action. */
+    SUSPENDED,
+    /** The queue is full; the caller should reject the request */
+    FULL,
+    /** Async processing isn't possible for this request (not supported,
+     * or it has already been re-dispatched once); the caller should
+     * block as before */
+    NOT_SUSPENDED,
+  }
+
+  /** Callback used to send the response to a request that times out */
+  interface TimeoutHandler {
+    void sendTimeout(HttpServletResponse response) throws IOException;
+  }
+
+  private final String name;
+  private final Readiness readiness;
+  private final TimeoutHandler timeoutHandler;
+  private final Set<AsyncContext> waiting = new LinkedHashSet<>();
+  private boolean isWaiterRunning = false;
+
+  StartupGate(String name, Readiness readiness,
+	      TimeoutHandler timeoutHandler) {
+    this.name = name;
+    this.readiness = readiness;
+    this.timeoutHandler = timeoutHandler;
+  }
+
+  /**
+   * Suspend the request until ready or the timeout expires
+   * @param request the request
+   * @param response the response
+   * @param timeout max time to wait, in milliseconds
+   * @param maxWaiting max number of suspended requests; if zero
+   * requests are never suspended
+   */
+  Result suspend(HttpServletRequest request, HttpServletResponse response,
+		 long timeout, int maxWaiting) {
+    if (maxWaiting <= 0
+	|| !request.isAsyncSupported()
+	|| request.getDispatcherType() == DispatcherType.ASYNC) {
+      return Result.NOT_SUSPENDED;
+    }
+    synchronized (waiting) {
+      if (waiting.size() >= maxWaiting) {
+	log.warn("Too many requests waiting for {}", name);
+	return Result.FULL;
+      }
+      AsyncContext actx = request.startAsync(request, response);
+      actx.setTimeout(timeout);
+      actx.addListener(new GateListener(actx));
+      waiting.add(actx);
+      log.debug2("Suspended request waiting for {}, {} waiting",
+		 name, waiting.size());
+      if (!isWaiterRunning) {
+	isWaiterRunning = true;
+	Thread th = new Thread(this::runWaiter, "StartupGate: " + name);
+	th.setDaemon(true);
+	th.start();
+      }
+    }
+    return Result.SUSPENDED;
+  }
+
+  int getWaitingCount() {
+    synchronized (waiting) {
+      return waiting.size();
+    }
+  }
+
+  private boolean remove(AsyncContext actx) {
+    synchronized (waiting) {
+      return waiting.remove(actx);
+    }
+  }
+
+  private void runWaiter() {
+    log.debug2("Waiter started for {}", name);
+    while (true) {
+      if (readiness.isReady()) {
+	resumeAll();
+      }
+      synchronized (waiting) {
+	if (waiting.isEmpty()) {
+	  isWaiterRunning = false;
+	  log.debug2("Waiter exiting for {}", name);
+	  return;
+	}
+      }
+      if (readiness.await(WAIT_SLICE) && !readiness.isReady()) {
+	// Underlying event has happened but hasn't yet been reflected in
+	// isReady(); don't spin
+	try {
+	  Thread.sleep(10);
+	} catch (InterruptedException e) {
+	  // ignore
+	}
+      }
+    }
+  }
+
+  /** Re-dispatch all waiting requests */
+  private void resumeAll() {
+    List<AsyncContext> ready;
+    synchronized (waiting) {
+      ready = new ArrayList<>(waiting);
+      waiting.clear();
+    }
+    if (!ready.isEmpty()) {
+      log.debug("{} ready, resuming {} requests", name, ready.size());
+    }
+    for (AsyncContext actx : ready) {
+      try {
+	actx.dispatch();
+      } catch (IllegalStateException e) {
+	log.debug("Couldn't resume request", e);
+      }
+    }
+  }
+
+  private class GateListener implements AsyncListener {
+    private final AsyncContext actx;
+
+    GateListener(AsyncContext actx) {
+      this.actx = actx;
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) throws IOException {
+      // If it's no longer in the queue it's already been dispatched
+      if (remove(actx)) {
+	log.warn("Timed out waiting for {}", name);
+	timeoutHandler.sendTimeout((HttpServletResponse)actx.getResponse());
+	actx.complete();
+      }
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      remove(actx);
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      remove(actx);
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+  }
+}
@@ -0,0 +1,187 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.lockss.util.time.TimeBase;
+
+/**
+ * A fixed-size, lock-free array of token buckets, indexed by a hash of
+ * the key (username or IP address).  Keys that hash to the same stripe
+ * share a bucket, which can only make the limit stricter for them.
+ * Each bucket is a single long holding the time of its last refill and
+ * its deficit (tokens used, in thousandths of a token), updated by CAS.
+ * A bucket that has been idle long enough to refill completely is
+ * indistinguishable from one that was never used, so entries expire on
+ * their own and the memory used never grows.
+ */
+final class TokenBuckets {
+
+  private static final long MILLI = 1000;
+  private static final int DEFICIT_BITS = 24;
+  private static final long DEFICIT_MASK = (1L << DEFICIT_BITS) - 1;
+  private static final long MAX_TIME = (1L << (64 - DEFICIT_BITS)) - 1;
+
+  /** Largest supported burst size */
+  static final int MAX_BURST = (int)(DEFICIT_MASK / MILLI);
+
+  private final AtomicLongArray buckets;
+  private final int mask;
+  private final int burst;
+  private final long interval;
+  private final long capacity;
+  private final int seed = ThreadLocalRandom.current().nextInt();
+  private final long base = TimeBase.nowMs();
+
+  /**
+   * @param stripes the number of buckets, rounded up to a power of two
+   * @param burst the number of tokens in a full bucket, at most {@link
+   * #MAX_BURST}
+   * @param interval the time (ms) to regain one token
+   */
+  TokenBuckets(int stripes, int burst, long interval) {
+    if (burst <= 0 || burst > MAX_BURST) {
+      throw new IllegalArgumentException("burst must be between 1 and " +
+					 MAX_BURST + ": " + burst);
+    }
+    if (interval <= 0) {
+      throw new IllegalArgumentException("interval must be positive: " +
+					 interval);
+    }
+    int n = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+    buckets = new AtomicLongArray(n);
+    mask = n - 1;
+    this.burst = burst;
+    this.interval = interval;
+    this.capacity = burst * MILLI;
+  }
+
+  /** Return true if this has the given dimensions */
+  boolean isSameAs(int stripes, int burst, long interval) {
+    int n = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+    return n == buckets.length() && burst == this.burst
+      && interval == this.interval;
+  }
+
+  /** Take a token from the key's bucket if one is available.
+   * @return true if a token was taken */
+  boolean tryAcquire(String key) {
+    return take(key, false);
+  }
+
+  /** Take a token from the key's bucket, leaving it empty if none is
+   * available */
+  void consume(String key) {
+    take(key, true);
+  }
+
+  /** Return true if the key's bucket has at least one token */
+  boolean isAvailable(String key) {
+    long s = refill(buckets.get(index(key)), now());
+    return (s & DEFICIT_MASK) + MILLI <= capacity;
+  }
+
+  /** Return the time (ms) until the key's bucket will next have a token,
+   * or zero if it has one now */
+  long timeUntilAvailable(String key) {
+    long now = now();
+    long s = refill(buckets.get(index(key)), now);
+    long need = (s & DEFICIT_MASK) + MILLI - capacity;
+    if (need <= 0) {
+      return 0;
+    }
+    long elapsed = now - (s >>> DEFICIT_BITS);
+    return Math.max((need * interval + MILLI - 1) / MILLI - elapsed, 1);
+  }
+
+  private boolean take(String key, boolean saturate) {
+    int ix = index(key);
+    while (true) {
+      long now = now();
+      long old = buckets.get(ix);
+      long s = refill(old, now);
+      long deficit = (s & DEFICIT_MASK) + MILLI;
+      boolean res = deficit <= capacity;
+      if (!res) {
+	if (!saturate) {
+	  return false;
+	}
+	deficit = capacity;
+      }
+      if (buckets.compareAndSet(ix, old, (s & ~DEFICIT_MASK) | deficit)) {
+	return res;
+      }
+    }
+  }
+
+  /** Return the state with any tokens earned since the last refill added
+   * back.  The refill time advances only by the time accounted for by
+   * whole thousandths of a token, so slow rates don't lose time to
+   * rounding. */
+  private long refill(long s, long now) {
+    long deficit = s & DEFICIT_MASK;
+    if (deficit == 0) {
+      return now << DEFICIT_BITS;
+    }
+    long stamp = s >>> DEFICIT_BITS;
+    long elapsed = now - stamp;
+    if (elapsed <= 0) {
+      return s;
+    }
+    long earned = elapsed * MILLI / interval;
+    if (earned >= deficit) {
+      return now << DEFICIT_BITS;
+    }
+    if (earned == 0) {
+      return s;
+    }
+    stamp += earned * interval / MILLI;
+    return (stamp << DEFICIT_BITS) | (deficit - earned);
+  }
+
+  private long now() {
+    return Math.min(Math.max(TimeBase.nowMs() - base, 0), MAX_TIME);
+  }
+
+  private int index(String key) {
+    int h = (key.hashCode() ^ seed) * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  @Override
+  public String toString() {
+    return "[TokenBuckets: " + buckets.length() + " x " + burst + " per " +
+      interval + "ms]";
+  }
+}
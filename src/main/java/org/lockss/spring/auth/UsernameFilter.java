@@ -0,0 +1,137 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An immutable Bloom filter of user names.  {@link #mightContain(String)}
+ * never returns false for a name the filter was built from, and returns
+ * true for other names with about the false positive probability it was
+ * built with.  Lookups hash the name's chars directly, without
+ * allocating.
+ */
+final class UsernameFilter {
+
+  private static final double LN2 = Math.log(2);
+
+  private final long[] bits;
+  private final long numBits;
+  private final int numHashes;
+  private final int size;
+  private final long seed = ThreadLocalRandom.current().nextLong();
+
+  private UsernameFilter(int expected, double fpp) {
+    int n = Math.max(expected, 1);
+    long m = (long)Math.ceil(-n * Math.log(fpp) / (LN2 * LN2));
+    m = Math.max(64, m);
+    bits = new long[(int)Math.min((m + 63) >>> 6, Integer.MAX_VALUE - 8)];
+    numBits = (long)bits.length << 6;
+    numHashes = Math.max(1, (int)Math.round((double)numBits / n * LN2));
+    size = expected;
+  }
+
+  /**
+   * Build a filter containing the names
+   * @param names the user names
+   * @param fpp the desired false positive probability, between 0 and 1
+   */
+  static UsernameFilter build(Collection<String> names, double fpp) {
+    if (!(fpp > 0 && fpp < 1)) {
+      throw new IllegalArgumentException("fpp must be between 0 and 1: " +
+					 fpp);
+    }
+    UsernameFilter res = new UsernameFilter(names.size(), fpp);
+    for (String name : names) {
+      res.add(name);
+    }
+    return res;
+  }
+
+  private void add(String name) {
+    long h1 = hash(name, seed);
+    long h2 = hash(name, ~seed) | 1;
+    for (int ix = 0; ix < numHashes; ix++) {
+      long bit = Long.remainderUnsigned(h1 + ix * h2, numBits);
+      bits[(int)(bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  /** Return false if the name is definitely not in the filter */
+  boolean mightContain(String name) {
+    long h1 = hash(name, seed);
+    long h2 = hash(name, ~seed) | 1;
+    for (int ix = 0; ix < numHashes; ix++) {
+      long bit = Long.remainderUnsigned(h1 + ix * h2, numBits);
+      if ((bits[(int)(bit >>> 6)] & (1L << bit)) == 0) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  /** Return the number of names the filter was built from */
+  int size() {
+    return size;
+  }
+
+  /** Return the size of the filter, in bits */
+  long getNumBits() {
+    return numBits;
+  }
+
+  int getNumHashes() {
+    return numHashes;
+  }
+
+  private static long hash(String s, long seed) {
+    long h = seed ^ s.length();
+    for (int ix = 0; ix < s.length(); ix++) {
+      h = (h ^ s.charAt(ix)) * 0x9E3779B97F4A7C15L;
+      h ^= h >>> 29;
+    }
+    // Final avalanche (from MurmurHash3's fmix64)
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB93FE53E6D5BL;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    return "[UsernameFilter: " + size + " names, " + numBits + " bits, " +
+      numHashes + " hashes]";
+  }
+}
@@ -0,0 +1,206 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Supplier;
+
+import jakarta.servlet.*;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.lockss.log.L4JLogger;
+
+/**
+ * Runs password verification on a small, bounded pool of threads rather
+ * than on container request threads, so that a burst of logins (each a
+ * CPU-bound password hash) can't starve cheap requests.  The request is
+ * suspended with {@link AsyncContext}, releasing the container thread;
+ * when the check completes, its result is stored in a request attribute
+ * and the request is re-dispatched through the filter chain, where
+ * {@link SpringAuthenticationFilter} picks it up.  If the check throws,
+ * the request is answered with 500 rather than left to time out.  If the
+ * pool's queue is full the request is refused rather than queued
+ * indefinitely.
+ */
+class VerificationExecutor {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  /** Request attribute holding the result of the check on
+   * re-dispatch */
+  static final String RESULT_ATTR =
+    VerificationExecutor.class.getName() + ".result";
+
+  /** Outcome of {@link #submit} */
+  enum Result {
+    /** The request has been suspended and will be re-dispatched or
+     * timed out.  The caller should return without further action. */
+    SUBMITTED,
+    /** The pool is saturated.  The request has been suspended; the
+     * caller should send a response then complete the AsyncContext. */
+    SATURATED,
+    /** Async processing isn't possible for this request; the caller
+     * should verify the password itself */
+    NOT_ASYNC,
+  }
+
+  private final int threads;
+  private final int queueSize;
+  private final ThreadPoolExecutor executor;
+  private final AtomicLong rejected = new AtomicLong();
+
+  /**
+   * @param threads the number of verification threads
+   * @param queueSize the max number of checks waiting for a thread
+   */
+  VerificationExecutor(int threads, int queueSize) {
+    this.threads = threads;
+    this.queueSize = queueSize;
+    AtomicInteger threadNum = new AtomicInteger();
+    executor =
+      new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+			     new ArrayBlockingQueue<>(Math.max(queueSize, 1)),
+			     r -> {
+			       Thread th = new Thread(r, "AuthVerify-" +
+						      threadNum.incrementAndGet());
+			       th.setDaemon(true);
+			       return th;
+			     },
+			     new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  boolean isSameAs(int threads, int queueSize) {
+    return threads == this.threads && queueSize == this.queueSize;
+  }
+
+  /**
+   * Suspend the request and run the check on the pool.  When it
+   * completes its result is stored in the {@link #RESULT_ATTR} request
+   * attribute and the request is re-dispatched.
+   * @param request the request
+   * @param response the response
+   * @param timeout max time (ms) to wait for the check
+   * @param timeoutHandler sends the response if the check times out
+   * @param check performs the check and returns its result
+   */
+  Result submit(HttpServletRequest request, HttpServletResponse response,
+		long timeout, StartupGate.TimeoutHandler timeoutHandler,
+		Supplier<?> check) {
+    if (!request.isAsyncSupported() || request.isAsyncStarted()) {
+      return Result.NOT_ASYNC;
+    }
+    AsyncContext actx = request.startAsync(request, response);
+    actx.setTimeout(timeout);
+    AtomicBoolean done = new AtomicBoolean();
+    actx.addListener(new AsyncListener() {
+	@Override
+	public void onTimeout(AsyncEvent event) throws IOException {
+	  if (done.compareAndSet(false, true)) {
+	    log.warn("Timed out waiting for password check");
+	    timeoutHandler.sendTimeout((HttpServletResponse)actx.getResponse());
+	    actx.complete();
+	  }
+	}
+	@Override
+	public void onComplete(AsyncEvent event) {}
+	@Override
+	public void onError(AsyncEvent event) {}
+	@Override
+	public void onStartAsync(AsyncEvent event) {}
+      });
+    try {
+      executor.execute(() -> {
+	  if (done.get()) {
+	    // Already timed out
+	    return;
+	  }
+	  Object result;
+	  try {
+	    result = check.get();
+	  } catch (Throwable t) {
+	    log.error("Password check failed", t);
+	    if (done.compareAndSet(false, true)) {
+	      sendErrorAndComplete(actx);
+	    }
+	    return;
+	  }
+	  request.setAttribute(RESULT_ATTR, result);
+	  if (done.compareAndSet(false, true)) {
+	    try {
+	      actx.dispatch();
+	    } catch (IllegalStateException e) {
+	      log.debug("Couldn't resume request", e);
+	    }
+	  }
+	});
+      return Result.SUBMITTED;
+    } catch (RejectedExecutionException e) {
+      done.set(true);
+      rejected.incrementAndGet();
+      log.debug("Password verification pool saturated");
+      return Result.SATURATED;
+    }
+  }
+
+  /** Send 500 for a request whose check failed, and complete it */
+  private static void sendErrorAndComplete(AsyncContext actx) {
+    try {
+      ((HttpServletResponse)actx.getResponse())
+	.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    } catch (IOException | IllegalStateException e) {
+      log.debug("Couldn't send error response", e);
+    }
+    try {
+      actx.complete();
+    } catch (IllegalStateException e) {
+      log.debug("Couldn't complete request", e);
+    }
+  }
+
+  /** Return the number of checks refused because the pool was
+   * saturated */
+  long getRejectedCount() {
+    return rejected.get();
+  }
+
+  /** Stop accepting new checks.  Checks already queued are completed. */
+  void shutdown() {
+    executor.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return "[VerificationExecutor: " + threads + " threads, queue " +
+      queueSize + "]";
+  }
+}
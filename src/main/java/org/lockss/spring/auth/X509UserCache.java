@@ -0,0 +1,203 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.security.*;
+import java.security.cert.*;
+import java.util.*;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.*;
+import javax.security.auth.x500.X500Principal;
+
+import org.lockss.account.*;
+import org.lockss.log.L4JLogger;
+import org.lockss.util.time.TimeBase;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+/**
+ * Maps TLS client certificates to LOCKSS users, for the <code>x509</code>
+ * authentication type.  The certificate chain has already been verified
+ * by the connector during the TLS handshake; this maps the value of a
+ * subject attribute (by default CN) to a {@link UserAccount}.  Mappings
+ * are cached by the certificate's SHA-256 fingerprint until the
+ * certificate expires or the account changes, so the name parsing and
+ * account lookup are done once per certificate rather than once per
+ * request.
+ */
+class X509UserCache {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final int maxSize;
+  private final String userAttribute;
+  private final Map<String,Entry> map;
+
+  /**
+   * @param maxSize the maximum number of certificates to remember
+   * @param userAttribute the subject attribute whose value is the user
+   * name, e.g., "CN"
+   */
+  X509UserCache(int maxSize, String userAttribute) {
+    this.maxSize = maxSize;
+    this.userAttribute = userAttribute;
+    this.map = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+	  return size() > X509UserCache.this.maxSize;
+	}
+      };
+  }
+
+  boolean isSameAs(int maxSize, String userAttribute) {
+    return maxSize == this.maxSize && userAttribute.equals(this.userAttribute);
+  }
+
+  /**
+   * Return the authentication for the user the certificate maps to, or
+   * null if it doesn't map to an enabled user or isn't currently valid
+   *
+   * @param cert the client's certificate (the first in the chain)
+   * @param acctMgr the AccountManager
+   * @param principals source of the shared authentication tokens
+   */
+  UsernamePasswordAuthenticationToken authenticate(X509Certificate cert,
+						   AccountManager acctMgr,
+						   Principals principals)
+      throws CertificateEncodingException {
+    String fp = fingerprint(cert);
+    Entry ent;
+    synchronized (map) {
+      ent = map.get(fp);
+    }
+    if (ent != null) {
+      UserAccount cur = acctMgr.getUserOrNull(ent.userName);
+      if (TimeBase.nowMs() < ent.expiration && ent.isValidFor(cur)) {
+	return principals.forAccount(cur);
+      }
+      synchronized (map) {
+	map.remove(fp);
+      }
+    }
+    try {
+      cert.checkValidity(new Date(TimeBase.nowMs()));
+    } catch (CertificateException e) {
+      log.info("Client certificate not valid: {}: {}",
+	       cert.getSubjectX500Principal(), e.toString());
+      return null;
+    }
+    String userName = userNameOf(cert);
+    if (userName == null) {
+      log.info("Client certificate has no {}: {}",
+	       userAttribute, cert.getSubjectX500Principal());
+      return null;
+    }
+    UserAccount acct = acctMgr.getUserOrNull(userName);
+    if (acct == null || !acct.isEnabled()) {
+      log.info("Client certificate for unknown or disabled user: {}",
+	       userName);
+      return null;
+    }
+    log.debug2("Client certificate {} maps to {}", fp, userName);
+    if (maxSize > 0) {
+      synchronized (map) {
+	map.put(fp, new Entry(acct, cert.getNotAfter().getTime()));
+      }
+    }
+    return principals.forAccount(acct);
+  }
+
+  /** Return the value of the user attribute in the certificate's
+   * subject, or null if none */
+  String userNameOf(X509Certificate cert) {
+    String dn = cert.getSubjectX500Principal().getName(X500Principal.RFC2253);
+    try {
+      List<Rdn> rdns = new LdapName(dn).getRdns();
+      // Most specific RDN is last
+      for (int ix = rdns.size() - 1; ix >= 0; ix--) {
+	Rdn rdn = rdns.get(ix);
+	if (userAttribute.equalsIgnoreCase(rdn.getType())) {
+	  return rdn.getValue().toString();
+	}
+      }
+    } catch (InvalidNameException e) {
+      log.warn("Can't parse certificate subject: {}", dn, e);
+    }
+    return null;
+  }
+
+  /** Return the hex SHA-256 fingerprint of the certificate */
+  static String fingerprint(X509Certificate cert)
+      throws CertificateEncodingException {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not available", e);
+    }
+    byte[] digest = md.digest(cert.getEncoded());
+    char[] res = new char[digest.length * 2];
+    for (int ix = 0; ix < digest.length; ix++) {
+      res[2 * ix] = HEX[(digest[ix] >> 4) & 0xf];
+      res[2 * ix + 1] = HEX[digest[ix] & 0xf];
+    }
+    return new String(res);
+  }
+
+  int size() {
+    synchronized (map) {
+      return map.size();
+    }
+  }
+
+  /** The account a certificate maps to, and enough of its state to
+   * detect that it has been changed */
+  private static class Entry {
+    final String userName;
+    final UserAccount acct;
+    final String roles;
+    final long expiration;
+
+    Entry(UserAccount acct, long expiration) {
+      this.userName = acct.getName();
+      this.acct = acct;
+      this.roles = acct.getRoles();
+      this.expiration = expiration;
+    }
+
+    boolean isValidFor(UserAccount cur) {
+      return cur == acct
+	&& cur.isEnabled()
+	&& Objects.equals(roles, cur.getRoles());
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.converter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.Base64;
+
+import org.springframework.http.*;
+
+/**
+ * Strong ETags for responses whose controller didn't supply one.  The
+ * ETag is either a digest of the serialized body, computed as it's
+ * written, or is derived from a version key supplied by the controller,
+ * in which case a conditional request can be answered without
+ * serializing the body at all.  The representation's variant (content
+ * type, content coding) is mixed into the digest, so different
+ * representations of the same content get different ETags.
+ */
+class AutoETag {
+
+  /** Default size of the largest body that's buffered to be digested */
+  static final int DEFAULT_MAX_BUFFER_SIZE = 1024 * 1024;
+
+  private static final String DIGEST_ALG = "SHA-256";
+
+  /**
+   * Return the ETag for the version key and variant.
+   * @param versionKey identifies the version of the content
+   * @param variant values that select among representations of the
+   * content; may contain nulls
+   */
+  static String fromVersionKey(String versionKey, String... variant) {
+    MessageDigest md = newDigest();
+    md.update((byte)'v');
+    md.update(versionKey.getBytes(StandardCharsets.UTF_8));
+    return format(md, variant);
+  }
+
+  static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(DIGEST_ALG);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Can't create " + DIGEST_ALG, e);
+    }
+  }
+
+  /** Add the variant to the digest and return it as a quoted ETag */
+  static String format(MessageDigest md, String... variant) {
+    for (String val : variant) {
+      md.update((byte)0);
+      if (val != null) {
+	md.update(val.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    return "\"" +
+      Base64.getUrlEncoder().withoutPadding().encodeToString(md.digest()) +
+      "\"";
+  }
+
+  /**
+   * Passes headers through to the target, and digests and buffers the
+   * body so the ETag can be sent before it.  If the body grows beyond the
+   * maximum buffer size it's given up on: what's been buffered is written
+   * to the target, as is the rest of the body.
+   */
+  static class DigestingOutputMessage implements HttpOutputMessage {
+    private final HttpOutputMessage target;
+    private final int maxBufferSize;
+    private final DigestingStream body = new DigestingStream();
+
+    DigestingOutputMessage(HttpOutputMessage target, int maxBufferSize) {
+      this.target = target;
+      this.maxBufferSize = maxBufferSize;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return target.getHeaders();
+    }
+
+    @Override
+    public OutputStream getBody() {
+      return body;
+    }
+
+    /** True if the whole body has been buffered and digested */
+    boolean isBuffered() {
+      return body.buf != null;
+    }
+
+    /** Return the body's ETag.  Valid only if {@link #isBuffered()} */
+    String getETag(String... variant) {
+      return format(body.md, variant);
+    }
+
+    /** Write the buffered body to the target */
+    void writeBuffered() throws IOException {
+      if (body.buf.size() > 0) {
+	body.buf.writeTo(target.getBody());
+      }
+    }
+
+    private class DigestingStream extends OutputStream {
+      private final MessageDigest md = newDigest();
+      private ByteArrayOutputStream buf = new ByteArrayOutputStream();
+
+      @Override
+      public void write(int b) throws IOException {
+	write(new byte[] {(byte)b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+	if (buf == null) {
+	  target.getBody().write(b, off, len);
+	} else if (buf.size() + len > maxBufferSize) {
+	  OutputStream out = target.getBody();
+	  buf.writeTo(out);
+	  buf = null;
+	  out.write(b, off, len);
+	} else {
+	  md.update(b, off, len);
+	  buf.write(b, off, len);
+	}
+      }
+
+      @Override
+      public void flush() throws IOException {
+	// Flushing would commit the response before the ETag is known
+	if (buf == null) {
+	  target.getBody().flush();
+	}
+      }
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.converter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * A bounded pool of {@link Deflater}s with the same settings, so that
+ * compressing a response needn't allocate and free native zlib state.
+ * Deflaters returned when the pool is full are ended.
+ */
+final class DeflaterPool {
+
+  private final int level;
+  private final boolean nowrap;
+  private final ArrayBlockingQueue<Deflater> pool;
+  private final AtomicLong created = new AtomicLong();
+
+  /**
+   * @param level the compression level
+   * @param nowrap if true, produce raw deflate data (for gzip), else
+   * zlib-wrapped data
+   * @param maxIdle the maximum number of idle Deflaters retained
+   */
+  DeflaterPool(int level, boolean nowrap, int maxIdle) {
+    this.level = level;
+    this.nowrap = nowrap;
+    this.pool = new ArrayBlockingQueue<>(maxIdle);
+  }
+
+  /** Return an idle Deflater, or a new one if none */
+  Deflater borrow() {
+    Deflater def = pool.poll();
+    if (def == null) {
+      created.incrementAndGet();
+      def = new Deflater(level, nowrap);
+    }
+    return def;
+  }
+
+  /** Return a Deflater obtained from {@link #borrow()} to the pool */
+  void release(Deflater def) {
+    def.reset();
+    if (!pool.offer(def)) {
+      def.end();
+    }
+  }
+
+  /** Number of Deflaters created */
+  long getCreatedCount() {
+    return created.get();
+  }
+
+  int getIdleCount() {
+    return pool.size();
+  }
+}
@@ -0,0 +1,143 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.converter;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * A region of a file, to be returned as the body of a
+ * <code>ResponseEntity</code>.  {@link LockssHttpEntityMethodProcessor}
+ * sends file-backed bodies (this and {@link FileSystemResource})
+ * directly from the file, using the container's sendfile support if
+ * available, rather than copying them through heap buffers.  Other
+ * bodies, including a bare {@link Path}, are left to the message
+ * converters.
+ */
+public class FileRegion {
+
+  private final Path path;
+  private final FileChannel channel;
+  private final long position;
+  private final long count;
+
+  /**
+   * A region of the file at a path
+   * @param path the file
+   * @param position the offset of the first byte to send
+   * @param count the number of bytes to send
+   */
+  public FileRegion(Path path, long position, long count) {
+    this(path, null, position, count);
+  }
+
+  /**
+   * A region of an open file.  The channel is closed after the response
+   * has been written.
+   * @param channel the file
+   * @param position the offset of the first byte to send
+   * @param count the number of bytes to send
+   */
+  public FileRegion(FileChannel channel, long position, long count) {
+    this(null, channel, position, count);
+  }
+
+  private FileRegion(Path path, FileChannel channel,
+		     long position, long count) {
+    if (position < 0 || count < 0) {
+      throw new IllegalArgumentException("Negative position or count: " +
+					 position + ", " + count);
+    }
+    this.path = path;
+    this.channel = channel;
+    this.position = position;
+    this.count = count;
+  }
+
+  /** The file's path, or null if this region refers to an open channel */
+  public Path getPath() {
+    return path;
+  }
+
+  /** The open channel, or null if this region refers to a path */
+  public FileChannel getChannel() {
+    return channel;
+  }
+
+  public long getPosition() {
+    return position;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /** Return the name of the file, for choosing a Content-Type, or null
+   * if unknown */
+  String getFilename() {
+    return path != null && path.getFileName() != null
+      ? path.getFileName().toString() : null;
+  }
+
+  /** Return a channel open for reading the file */
+  FileChannel openChannel() throws IOException {
+    return channel != null
+      ? channel : FileChannel.open(path, StandardOpenOption.READ);
+  }
+
+  /**
+   * Return the region for a response body that is a whole readable file,
+   * or null if the body isn't file-backed.
+   */
+  static FileRegion forBody(Object body) throws IOException {
+    if (body instanceof FileRegion) {
+      return (FileRegion)body;
+    }
+    if (!(body instanceof FileSystemResource)) {
+      return null;
+    }
+    Path path = ((FileSystemResource)body).getFile().toPath();
+    if (!Files.isRegularFile(path) || !Files.isReadable(path)) {
+      return null;
+    }
+    return new FileRegion(path, 0, Files.size(path));
+  }
+
+  @Override
+  public String toString() {
+    return "[FileRegion: " + (path != null ? path : channel) +
+      ", " + position + "+" + count + "]";
+  }
+}
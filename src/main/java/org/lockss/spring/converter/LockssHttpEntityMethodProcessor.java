@@ -47,9 +47,15 @@
 package org.lockss.spring.converter;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.lockss.util.SetUtil;
 import org.springframework.core.MethodParameter;
@@ -58,6 +64,7 @@ import org.springframework.http.*;
 import org.springframework.http.converter.GenericHttpMessageConverter;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.http.server.ServletServerHttpRequest;
 import org.springframework.http.server.ServletServerHttpResponse;
 import org.springframework.util.Assert;
@@ -66,6 +73,8 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.HttpMediaTypeNotAcceptableException;
 import org.springframework.web.HttpMediaTypeNotSupportedException;
 import org.springframework.web.accept.ContentNegotiationManager;
+import org.springframework.web.accept.ContentNegotiationStrategy;
+import org.springframework.web.accept.HeaderContentNegotiationStrategy;
 import org.springframework.web.accept.PathExtensionContentNegotiationStrategy;
 import org.springframework.web.bind.support.WebDataBinderFactory;
 import org.springframework.web.context.request.NativeWebRequest;
@@ -100,6 +109,59 @@ public class LockssHttpEntityMethodProcessor extends AbstractMessageConverterMet
 			"json", "xml", "atom", "rss",
 			"png", "jpe", "jpeg", "jpg", "gif", "wbmp", "bmp"));
 
+	// LOCKSS: Request attributes with which Tomcat indicates and is asked
+	// to use sendfile
+	static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+	static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+	static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+	static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+	/** Smaller files are copied, as sendfile's setup cost outweighs its benefit */
+	static final long MIN_SENDFILE_SIZE = 48 * 1024;
+
+	// LOCKSS: Cache of negotiation results, used only if the requested media
+	// types are determined solely by the Accept header
+
+	/** Maximum number of negotiation results to cache */
+	static final int MAX_NEGOTIATION_CACHE_SIZE = 256;
+
+	private final Map<NegotiationKey, Negotiation> negotiationCache =
+			new ConcurrentHashMap<NegotiationKey, Negotiation>();
+
+	private boolean negotiationCacheable = false;
+
+	// LOCKSS: Writes Stream, Iterator and Iterable bodies incrementally.
+	// Null until first needed, or if there's no JSON converter
+	private volatile StreamingJsonWriter streamingJsonWriter;
+	private volatile boolean streamingJsonWriterInitialized = false;
+	private int streamingFlushBatchSize = StreamingJsonWriter.DEFAULT_FLUSH_BATCH_SIZE;
+
+	// LOCKSS: Compresses response bodies as negotiated by Accept-Encoding,
+	// null if disabled (the default)
+	private volatile ResponseCompression compression;
+
+	// LOCKSS: Limit on the decompressed size of compressed request bodies
+	private long maxDecompressedRequestSize = RequestDecompression.DEFAULT_MAX_SIZE;
+
+	/**
+	 * LOCKSS: Response header with which a controller supplies a key that
+	 * changes whenever the content of the response does.  If automatic
+	 * ETags are enabled the ETag is derived from it, so a matching
+	 * If-None-Match is answered without serializing the body.  It's
+	 * removed from the response.
+	 */
+	public static final String VERSION_KEY_HEADER = "X-Lockss-Version-Key";
+
+	// LOCKSS: If true, responses to GET and HEAD that lack an ETag get one
+	// computed from their version key or body
+	private boolean autoETag = false;
+	private int autoETagBufferSize = AutoETag.DEFAULT_MAX_BUFFER_SIZE;
+
+	// LOCKSS: Type information about each handler method's HttpEntity
+	// parameter or return type, resolved on first use
+	private final Map<EntityTypeKey, EntityTypeInfo> entityTypeCache =
+			new ConcurrentHashMap<EntityTypeKey, EntityTypeInfo>();
+
 	/**
 	 * Basic constructor with converters only. Suitable for resolving
 	 * {@code HttpEntity}. For handling {@code ResponseEntity} consider also
@@ -124,6 +186,7 @@ public class LockssHttpEntityMethodProcessor extends AbstractMessageConverterMet
 		this.pathStrategy = initPathStrategy(this.contentNegotiationManager);
 		this.safeExtensions.addAll(this.contentNegotiationManager.getAllFileExtensions());
 		this.safeExtensions.addAll(WHITELISTED_EXTENSIONS);
+		this.negotiationCacheable = isHeaderOnly(this.contentNegotiationManager);
 	}
 
 	/**
@@ -152,9 +215,23 @@ public class LockssHttpEntityMethodProcessor extends AbstractMessageConverterMet
 		this.pathStrategy = initPathStrategy(this.contentNegotiationManager);
 		this.safeExtensions.addAll(this.contentNegotiationManager.getAllFileExtensions());
 		this.safeExtensions.addAll(WHITELISTED_EXTENSIONS);
+		this.negotiationCacheable = isHeaderOnly(this.contentNegotiationManager);
 	}
 
 
+	/**
+	 * Return true if the manager determines the requested media types from
+	 * the Accept header alone, so they're the same for the same header.
+	 */
+	private static boolean isHeaderOnly(ContentNegotiationManager manager) {
+		for (ContentNegotiationStrategy strategy : manager.getStrategies()) {
+			if (!(strategy instanceof HeaderContentNegotiationStrategy)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public boolean supportsParameter(MethodParameter parameter) {
 		return (HttpEntity.class == parameter.getParameterType() ||
@@ -173,14 +250,15 @@ public class LockssHttpEntityMethodProcessor extends AbstractMessageConverterMet
 			throws IOException, HttpMediaTypeNotSupportedException {
 
 		ServletServerHttpRequest inputMessage = createInputMessage(webRequest);
-		Type paramType = getHttpEntityType(parameter);
+		EntityTypeInfo typeInfo = getEntityTypeInfo(parameter);
+		Type paramType = typeInfo.getBodyType();
 		if (paramType == null) {
 			throw new IllegalArgumentException("HttpEntity parameter '" + parameter.getParameterName() +
 					"' in method " + parameter.getMethod() + " is not parameterized");
 		}
 
 		Object body = readWithMessageConverters(webRequest, parameter, paramType);
-		if (RequestEntity.class == parameter.getParameterType()) {
+		if (typeInfo.isRequestEntity) {
 			return new RequestEntity<Object>(body, inputMessage.getHeaders(),
 					inputMessage.getMethod(), inputMessage.getURI());
 		}
@@ -189,7 +267,47 @@ public class LockssHttpEntityMethodProcessor extends AbstractMessageConverterMet
 		}
 	}
 
-	private Type getHttpEntityType(MethodParameter parameter) {
+	/**
+	 * LOCKSS: Decompress request bodies sent with a gzip or deflate
+	 * Content-Encoding as they're read.
+	 */
+	@Override
+	protected ServletServerHttpRequest createInputMessage(NativeWebRequest webRequest) {
+		HttpServletRequest servletRequest = webRequest.getNativeRequest(HttpServletRequest.class);
+		Assert.state(servletRequest != null, "No HttpServletRequest");
+		String encoding = servletRequest.getHeader(HttpHeaders.CONTENT_ENCODING);
+		if (RequestDecompression.isSupported(encoding)) {
+			return new RequestDecompression.DecompressingRequest(servletRequest, encoding,
+					this.maxDecompressedRequestSize);
+		}
+		return new ServletServerHttpRequest(servletRequest);
+	}
+
+	/**
+	 * Set the maximum size to which a compressed request body may
+	 * decompress.  Requests that exceed it fail with 413 (Payload Too
+	 * Large).  The default is 32MB.
+	 */
+	public void setMaxDecompressedRequestSize(long maxDecompressedRequestSize) {
+		Assert.isTrue(maxDecompressedRequestSize >= 0, "Maximum size must be >= 0");
+		this.maxDecompressedRequestSize = maxDecompressedRequestSize;
+	}
+
+	/**
+	 * Return the cached type information for the HttpEntity parameter or
+	 * return type, resolving it if this is the first use.
+	 */
+	private EntityTypeInfo getEntityTypeInfo(MethodParameter parameter) {
+		EntityTypeKey key = new EntityTypeKey(parameter);
+		EntityTypeInfo info = this.entityTypeCache.get(key);
+		if (info == null) {
+			info = new EntityTypeInfo(parameter);
+			this.entityTypeCache.put(key, info);
+		}
+		return info;
+	}
+
+	private static Type getHttpEntityType(MethodParameter parameter) {
 		Assert.isAssignable(HttpEntity.class, parameter.getParameterType());
 		Type parameterType = parameter.getGenericParameterType();
 		if (parameterType instanceof ParameterizedType) {
@@ -239,6 +357,11 @@ public class LockssHttpEntityMethodProcessor extends AbstractMessageConverterMet
 			}
 		}
 
+		// LOCKSS: The version key is for this processor, not the client
+		String versionKey = outputHeaders.getFirst(VERSION_KEY_HEADER);
+		outputHeaders.remove(VERSION_KEY_HEADER);
+		boolean computeETag = false;
+
 		if (responseEntity instanceof ResponseEntity) {
 			int returnStatus = ((ResponseEntity<?>) responseEntity).getStatusCodeValue();
 			outputMessage.getServletResponse().setStatus(returnStatus);
@@ -250,16 +373,268 @@ public class LockssHttpEntityMethodProcessor extends AbstractMessageConverterMet
 					// Skip call to converters, as they may update the body.
 					return;
 				}
+				// LOCKSS: Supply an ETag if the controller didn't
+				if (this.autoETag && SAFE_METHODS.contains(inputMessage.getMethod())
+						&& entityHeaders.getETag() == null) {
+					if (versionKey != null) {
+						if (isNotModified(inputMessage, outputMessage,
+								getVersionETag(versionKey, inputMessage, outputHeaders))) {
+							outputMessage.flush();
+							return;
+						}
+					}
+					else {
+						computeETag = true;
+					}
+				}
 			}
 		}
 
+		// LOCKSS: Send file-backed bodies directly from the file
+		if (writeFileBody(responseEntity.getBody(), inputMessage, outputMessage)) {
+			return;
+		}
+
+		// LOCKSS: Stream sequences element by element rather than
+		// requiring them to be materialized
+		if (writeStreamingBody(responseEntity.getBody(), returnType, inputMessage, outputMessage)) {
+			return;
+		}
+
 		// Try even with null body. ResponseBodyAdvice could get involved.
-		writeWithMessageConverters(responseEntity.getBody(), returnType, inputMessage, outputMessage);
+		writeWithMessageConverters(responseEntity.getBody(), returnType, inputMessage, outputMessage,
+				computeETag);
 
 		// Ensure headers are flushed even if no body was written.
 		outputMessage.flush();
 	}
 
+	/**
+	 * If the body is file-backed, send it with the container's sendfile
+	 * support if available, else by transferring it from the file channel
+	 * to the response, and return true.  Otherwise return false.
+	 */
+	private boolean writeFileBody(Object body, ServletServerHttpRequest inputMessage,
+			ServletServerHttpResponse outputMessage) throws IOException {
+
+		FileRegion region = FileRegion.forBody(body);
+		if (region == null) {
+			return false;
+		}
+
+		// Check the region against the file before any header is set, as
+		// neither sendfile nor a short transfer can report it once committed
+		long fileSize;
+		try {
+			fileSize = (region.getPath() != null ?
+					Files.size(region.getPath()) : region.getChannel().size());
+		}
+		catch (IOException ex) {
+			closeChannel(region);
+			throw ex;
+		}
+		if (region.getPosition() > fileSize || region.getCount() > fileSize - region.getPosition()) {
+			closeChannel(region);
+			throw new IOException("Region extends past end of file (" + fileSize + " bytes): " + region);
+		}
+
+		HttpServletRequest request = inputMessage.getServletRequest();
+		HttpHeaders headers = outputMessage.getHeaders();
+		if (headers.getContentType() == null) {
+			String filename = region.getFilename();
+			headers.setContentType(filename == null ? MediaType.APPLICATION_OCTET_STREAM :
+					MediaTypeFactory.getMediaType(filename).orElse(MediaType.APPLICATION_OCTET_STREAM));
+		}
+		headers.setContentLength(region.getCount());
+		addContentDispositionHeader(inputMessage, outputMessage);
+
+		if (inputMessage.getMethod() == HttpMethod.HEAD) {
+			closeChannel(region);
+			outputMessage.flush();
+			return true;
+		}
+
+		if (region.getPath() != null && region.getCount() >= MIN_SENDFILE_SIZE &&
+				Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+			// The container sends the file after the headers are committed
+			request.setAttribute(SENDFILE_FILENAME_ATTR, region.getPath().toAbsolutePath().toString());
+			request.setAttribute(SENDFILE_START_ATTR, region.getPosition());
+			request.setAttribute(SENDFILE_END_ATTR, region.getPosition() + region.getCount());
+			outputMessage.flush();
+			if (logger.isDebugEnabled()) {
+				logger.debug("Sending " + region + " with sendfile");
+			}
+			return true;
+		}
+
+		FileChannel channel = region.openChannel();
+		try {
+			OutputStream out = outputMessage.getBody();
+			WritableByteChannel target = Channels.newChannel(out);
+			long position = region.getPosition();
+			long remaining = region.getCount();
+			while (remaining > 0) {
+				long n = channel.transferTo(position, remaining, target);
+				if (n <= 0) {
+					throw new IOException("File ended " + remaining + " bytes early: " + region);
+				}
+				position += n;
+				remaining -= n;
+			}
+			out.flush();
+		}
+		finally {
+			channel.close();
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Sent " + region);
+		}
+		return true;
+	}
+
+	/**
+	 * Set the number of elements of a streamed sequence written between
+	 * flushes of the response.  If zero, output is flushed only
+	 * periodically.
+	 */
+	public void setStreamingFlushBatchSize(int streamingFlushBatchSize) {
+		Assert.isTrue(streamingFlushBatchSize >= 0, "Flush batch size must be >= 0");
+		this.streamingFlushBatchSize = streamingFlushBatchSize;
+		this.streamingJsonWriterInitialized = false;
+	}
+
+	/**
+	 * If the handler's declared body type is Stream, Iterator or Iterable,
+	 * the body is such a sequence (not a Collection) and the response is to
+	 * be JSON or NDJSON, write it as a JSON array or as newline-delimited
+	 * records, one element at a time, and return true.  Otherwise return
+	 * false.  The declared type, not the body's class, decides, as many
+	 * Iterables (e.g., JsonNode, Path) are serialized otherwise.
+	 */
+	private boolean writeStreamingBody(Object body, MethodParameter returnType,
+			ServletServerHttpRequest inputMessage, ServletServerHttpResponse outputMessage)
+			throws IOException, HttpMediaTypeNotAcceptableException {
+
+		if (!getEntityTypeInfo(returnType).isStreamable ||
+				!StreamingJsonWriter.isStreamable(body)) {
+			return false;
+		}
+		StreamingJsonWriter writer = getStreamingJsonWriter();
+		if (writer == null) {
+			return false;
+		}
+		MediaType mediaType = selectStreamingMediaType(inputMessage, outputMessage);
+		if (mediaType == null) {
+			return false;
+		}
+		outputMessage.getHeaders().setContentType(mediaType);
+		addContentDispositionHeader(inputMessage, outputMessage);
+		ResponseCompression.CompressingOutputMessage compressing =
+				getCompressingMessage(inputMessage, outputMessage, mediaType, true);
+		HttpOutputMessage target = (compressing != null ? compressing : outputMessage);
+		long count;
+		try {
+			count = (MediaType.APPLICATION_NDJSON.equalsTypeAndSubtype(mediaType) ?
+					writer.writeLines(body, target.getBody()) :
+					writer.writeArray(body, target.getBody()));
+			if (compressing != null) {
+				compressing.finish();
+			}
+		}
+		finally {
+			if (compressing != null) {
+				compressing.release();
+			}
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Streamed " + count + " elements as \"" + mediaType + "\"");
+		}
+		return true;
+	}
+
+	/**
+	 * Return the media type to stream a sequence as: the explicit
+	 * Content-Type if it's JSON or NDJSON, else the first acceptable of
+	 * application/json and application/x-ndjson that the handler can
+	 * produce (per its {@code produces} condition, if any), else null.
+	 */
+	@SuppressWarnings("unchecked")
+	private MediaType selectStreamingMediaType(ServletServerHttpRequest inputMessage,
+			ServletServerHttpResponse outputMessage) throws HttpMediaTypeNotAcceptableException {
+
+		MediaType explicit = outputMessage.getHeaders().getContentType();
+		if (explicit != null) {
+			return (isJson(explicit) || MediaType.APPLICATION_NDJSON.equalsTypeAndSubtype(explicit) ?
+					explicit : null);
+		}
+		HttpServletRequest request = inputMessage.getServletRequest();
+		Set<MediaType> producible =
+				(Set<MediaType>) request.getAttribute(HandlerMapping.PRODUCIBLE_MEDIA_TYPES_ATTRIBUTE);
+		boolean canJson = isProducible(producible, MediaType.APPLICATION_JSON);
+		boolean canNdjson = isProducible(producible, MediaType.APPLICATION_NDJSON);
+		if (!canJson && !canNdjson) {
+			return null;
+		}
+		for (MediaType requested : getAcceptableMediaTypes(request)) {
+			if (requested.getQualityValue() <= 0) {
+				continue;
+			}
+			if (canJson && requested.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+				return MediaType.APPLICATION_JSON;
+			}
+			if (canNdjson && requested.isCompatibleWith(MediaType.APPLICATION_NDJSON)) {
+				return MediaType.APPLICATION_NDJSON;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Return true if the handler's producible media types, if it declares
+	 * any, include one compatible with the given type.
+	 */
+	private static boolean isProducible(Set<MediaType> producible, MediaType mediaType) {
+		if (CollectionUtils.isEmpty(producible)) {
+			return true;
+		}
+		for (MediaType type : producible) {
+			if (type.isCompatibleWith(mediaType)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isJson(MediaType mediaType) {
+		return (MediaType.APPLICATION_JSON.isCompatibleWith(mediaType) && mediaType.isConcrete()) ||
+				mediaType.getSubtype().endsWith("+json");
+	}
+
+	/**
+	 * Return the writer for streamed sequences, using the ObjectMapper of
+	 * the JSON converter, or null if there is no JSON converter.
+	 */
+	private StreamingJsonWriter getStreamingJsonWriter() {
+		if (!this.streamingJsonWriterInitialized) {
+			for (HttpMessageConverter<?> converter : this.messageConverters) {
+				if (converter instanceof MappingJackson2HttpMessageConverter) {
+					this.streamingJsonWriter = new StreamingJsonWriter(
+							((MappingJackson2HttpMessageConverter) converter).getObjectMapper(),
+							this.streamingFlushBatchSize);
+					break;
+				}
+			}
+			this.streamingJsonWriterInitialized = true;
+		}
+		return this.streamingJsonWriter;
+	}
+
+	private static void closeChannel(FileRegion region) throws IOException {
+		if (region.getChannel() != null) {
+			region.getChannel().close();
+		}
+	}
+
 	private List<String> getVaryRequestHeadersToAdd(HttpHeaders responseHeaders, HttpHeaders entityHeaders) {
 		List<String> entityHeadersVary = entityHeaders.getVary();
 		List<String> vary = responseHeaders.get(HttpHeaders.VARY);
@@ -282,6 +657,54 @@ public class LockssHttpEntityMethodProcessor extends AbstractMessageConverterMet
 		return entityHeadersVary;
 	}
 
+	/**
+	 * LOCKSS: Check the request's conditional headers against the ETag,
+	 * setting the response status and ETag header accordingly.  Return
+	 * true if the response should be 304 (Not Modified).
+	 */
+	private boolean isNotModified(ServletServerHttpRequest inputMessage, ServletServerHttpResponse outputMessage,
+			String etag) {
+		ServletWebRequest servletWebRequest =
+				new ServletWebRequest(inputMessage.getServletRequest(), outputMessage.getServletResponse());
+		return servletWebRequest.checkNotModified(etag);
+	}
+
+	/**
+	 * LOCKSS: Return the ETag for a version key.  The representation isn't
+	 * known until the converters have run, so the ETag varies by what
+	 * determines it: the explicit Content-Type, else the Accept header, and
+	 * the Accept-Encoding header if responses may be compressed.
+	 */
+	private String getVersionETag(String versionKey, ServletServerHttpRequest inputMessage,
+			HttpHeaders outputHeaders) {
+		HttpServletRequest request = inputMessage.getServletRequest();
+		MediaType contentType = outputHeaders.getContentType();
+		return AutoETag.fromVersionKey(versionKey,
+				(contentType != null ? contentType.toString() : getAcceptHeader(request)),
+				(this.compression != null ? request.getHeader(HttpHeaders.ACCEPT_ENCODING) : null));
+	}
+
+	/**
+	 * Enable or disable automatic ETags.  If enabled, a 200 response to GET
+	 * or HEAD whose controller didn't set an ETag gets a strong one, derived
+	 * from its {@link #VERSION_KEY_HEADER} if present, else from a digest of
+	 * the serialized body, and a matching If-None-Match is answered with 304
+	 * (Not Modified).  Bodies are buffered to be digested; those larger than
+	 * the buffer size, and streamed and file-backed bodies, get no ETag
+	 * unless they have a version key.
+	 */
+	public void setAutoETag(boolean autoETag) {
+		this.autoETag = autoETag;
+	}
+
+	/**
+	 * Set the size of the largest body that's buffered to compute its ETag.
+	 */
+	public void setAutoETagBufferSize(int autoETagBufferSize) {
+		Assert.isTrue(autoETagBufferSize >= 0, "Buffer size must be >= 0");
+		this.autoETagBufferSize = autoETagBufferSize;
+	}
+
 	private boolean isResourceNotModified(ServletServerHttpRequest inputMessage, ServletServerHttpResponse outputMessage) {
 		ServletWebRequest servletWebRequest =
 				new ServletWebRequest(inputMessage.getServletRequest(), outputMessage.getServletResponse());
@@ -302,9 +725,7 @@ public class LockssHttpEntityMethodProcessor extends AbstractMessageConverterMet
 			return returnValue.getClass();
 		}
 		else {
-			Type type = getHttpEntityType(returnType);
-			type = (type != null ? type : Object.class);
-			return ResolvableType.forMethodParameter(returnType, type).resolve(Object.class);
+			return getEntityTypeInfo(returnType).getBodyClass();
 		}
 	}
 
@@ -314,7 +735,7 @@ public class LockssHttpEntityMethodProcessor extends AbstractMessageConverterMet
 	 * Return the generic type of the {@code returnType} (or of the nested type
 	 * if it is an {@link HttpEntity}).
 	 */
-	private Type getGenericType(MethodParameter returnType) {
+	private static Type getGenericType(MethodParameter returnType) {
 		if (HttpEntity.class.isAssignableFrom(returnType.getParameterType())) {
 			return ResolvableType.forType(returnType.getGenericParameterType()).getGeneric(0).getType();
 		}
@@ -454,11 +875,23 @@ public class LockssHttpEntityMethodProcessor extends AbstractMessageConverterMet
 	 * @throws HttpMediaTypeNotAcceptableException thrown when the conditions indicated
 	 * by the {@code Accept} header on the request cannot be met by the message converters
 	 */
-	@SuppressWarnings("unchecked")
 	protected <T> void writeWithMessageConverters(T value, MethodParameter returnType,
 																								ServletServerHttpRequest inputMessage, ServletServerHttpResponse outputMessage)
 			throws IOException, HttpMediaTypeNotAcceptableException, HttpMessageNotWritableException {
 
+		writeWithMessageConverters(value, returnType, inputMessage, outputMessage, false);
+	}
+
+	/**
+	 * LOCKSS: As above, and if computeETag is true, set the ETag computed
+	 * from the serialized body.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> void writeWithMessageConverters(T value, MethodParameter returnType,
+			ServletServerHttpRequest inputMessage, ServletServerHttpResponse outputMessage,
+			boolean computeETag)
+			throws IOException, HttpMediaTypeNotAcceptableException, HttpMessageNotWritableException {
+
 		Object outputValue;
 		Class<?> valueType;
 		Type declaredType;
@@ -471,10 +904,27 @@ public class LockssHttpEntityMethodProcessor extends AbstractMessageConverterMet
 		else {
 			outputValue = value;
 			valueType = getReturnValueType(outputValue, returnType);
-			declaredType = getGenericType(returnType);
+			declaredType = getEntityTypeInfo(returnType).genericType;
 		}
 
 		HttpServletRequest request = inputMessage.getServletRequest();
+
+		// LOCKSS: Reuse the converter and media type selected for a previous
+		// response of the same types, to the same Accept header and explicit
+		// Content-Type
+		MediaType explicitContentType = outputMessage.getHeaders().getContentType();
+		NegotiationKey negotiationKey = null;
+		if (this.negotiationCacheable) {
+			negotiationKey = new NegotiationKey(returnType, valueType, declaredType,
+					getAcceptHeader(request), explicitContentType);
+			Negotiation negotiation = this.negotiationCache.get(negotiationKey);
+			if (negotiation != null) {
+				writeWithConverter(negotiation.converter, outputValue, valueType, declaredType,
+						negotiation.mediaType, inputMessage, outputMessage, computeETag);
+				return;
+			}
+		}
+
 		List<MediaType> requestedMediaTypes = getAcceptableMediaTypes(request);
 		List<MediaType> producibleMediaTypes = getProducibleMediaTypes(request, valueType, declaredType);
 
@@ -501,7 +951,7 @@ public class LockssHttpEntityMethodProcessor extends AbstractMessageConverterMet
 		MediaType.sortBySpecificityAndQuality(mediaTypes);
 
 		// LOCKSS: Get and use the Content-Type from the OutputMessage if set explicitly
-		MediaType selectedMediaType = outputMessage.getHeaders().getContentType();
+		MediaType selectedMediaType = explicitContentType;
 
 		// LOCKSS: Try to determine which MediaType to use otherwise
 		if (selectedMediaType == null) {
@@ -518,45 +968,17 @@ public class LockssHttpEntityMethodProcessor extends AbstractMessageConverterMet
 
 		if (selectedMediaType != null) {
 			selectedMediaType = selectedMediaType.removeQualityValue();
-			for (HttpMessageConverter<?> messageConverter : this.messageConverters) {
-				if (messageConverter instanceof GenericHttpMessageConverter) {
-					if (((GenericHttpMessageConverter) messageConverter).canWrite(
-							declaredType, valueType, selectedMediaType)) {
-
-					  // LOCKSS
-//						outputValue = (T) getAdvice().beforeBodyWrite(outputValue, returnType, selectedMediaType,
-//								(Class<? extends HttpMessageConverter<?>>) messageConverter.getClass(),
-//								inputMessage, outputMessage);
-
-						if (outputValue != null) {
-							addContentDispositionHeader(inputMessage, outputMessage);
-							((GenericHttpMessageConverter) messageConverter).write(
-									outputValue, declaredType, selectedMediaType, outputMessage);
-							if (logger.isDebugEnabled()) {
-								logger.debug("Written [" + outputValue + "] as \"" + selectedMediaType +
-										"\" using [" + messageConverter + "]");
-							}
-						}
-						return;
-					}
-				}
-				else if (messageConverter.canWrite(valueType, selectedMediaType)) {
-
-					// LOCKSS
-//					outputValue = (T) getAdvice().beforeBodyWrite(outputValue, returnType, selectedMediaType,
-//							(Class<? extends HttpMessageConverter<?>>) messageConverter.getClass(),
-//							inputMessage, outputMessage);
-
-					if (outputValue != null) {
-						addContentDispositionHeader(inputMessage, outputMessage);
-						((HttpMessageConverter) messageConverter).write(outputValue, selectedMediaType, outputMessage);
-						if (logger.isDebugEnabled()) {
-							logger.debug("Written [" + outputValue + "] as \"" + selectedMediaType +
-									"\" using [" + messageConverter + "]");
-						}
+			HttpMessageConverter<?> converter = findConverter(valueType, declaredType, selectedMediaType);
+			if (converter != null) {
+				if (negotiationKey != null) {
+					if (this.negotiationCache.size() >= MAX_NEGOTIATION_CACHE_SIZE) {
+						this.negotiationCache.clear();
 					}
-					return;
+					this.negotiationCache.put(negotiationKey, new Negotiation(selectedMediaType, converter));
 				}
+				writeWithConverter(converter, outputValue, valueType, declaredType,
+						selectedMediaType, inputMessage, outputMessage, computeETag);
+				return;
 			}
 		}
 
@@ -565,4 +987,327 @@ public class LockssHttpEntityMethodProcessor extends AbstractMessageConverterMet
 			throw new HttpMediaTypeNotAcceptableException("FIXME: Could not write message");
 		}
 	}
+
+	/**
+	 * Return the first converter that can write the type as the media type,
+	 * or null if none.
+	 */
+	private HttpMessageConverter<?> findConverter(Class<?> valueType, Type declaredType,
+			MediaType selectedMediaType) {
+
+		for (HttpMessageConverter<?> messageConverter : this.messageConverters) {
+			if (messageConverter instanceof GenericHttpMessageConverter) {
+				if (((GenericHttpMessageConverter) messageConverter).canWrite(
+						declaredType, valueType, selectedMediaType)) {
+					return messageConverter;
+				}
+			}
+			else if (messageConverter.canWrite(valueType, selectedMediaType)) {
+				return messageConverter;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Write the value, if not null, with the converter selected for it.  If
+	 * computeETag is true, buffer and digest the body, and set its ETag or
+	 * respond 304 (Not Modified) if it matches the request's.
+	 */
+	@SuppressWarnings("unchecked")
+	private void writeWithConverter(HttpMessageConverter<?> messageConverter, Object outputValue,
+			Class<?> valueType, Type declaredType, MediaType selectedMediaType,
+			ServletServerHttpRequest inputMessage, ServletServerHttpResponse outputMessage,
+			boolean computeETag)
+			throws IOException, HttpMessageNotWritableException {
+
+		// LOCKSS
+//		outputValue = (T) getAdvice().beforeBodyWrite(outputValue, returnType, selectedMediaType,
+//				(Class<? extends HttpMessageConverter<?>>) messageConverter.getClass(),
+//				inputMessage, outputMessage);
+
+		if (outputValue == null) {
+			return;
+		}
+		addContentDispositionHeader(inputMessage, outputMessage);
+		ResponseCompression.CompressingOutputMessage compressing =
+				getCompressingMessage(inputMessage, outputMessage, selectedMediaType, false);
+		HttpOutputMessage target = (compressing != null ? compressing : outputMessage);
+		AutoETag.DigestingOutputMessage digesting = (computeETag ?
+				new AutoETag.DigestingOutputMessage(target, this.autoETagBufferSize) : null);
+		try {
+			HttpOutputMessage converterTarget = (digesting != null ? digesting : target);
+			if (messageConverter instanceof GenericHttpMessageConverter) {
+				((GenericHttpMessageConverter) messageConverter).write(
+						outputValue, declaredType, selectedMediaType, converterTarget);
+			}
+			else {
+				((HttpMessageConverter) messageConverter).write(outputValue, selectedMediaType, converterTarget);
+			}
+			if (digesting != null && digesting.isBuffered()) {
+				MediaType contentType = outputMessage.getHeaders().getContentType();
+				String etag = digesting.getETag(
+						(contentType != null ? contentType.toString() : null),
+						(compressing != null ? compressing.getEncoding() : null));
+				if (isNotModified(inputMessage, outputMessage, etag)) {
+					// Discard the body
+					outputMessage.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+					outputMessage.flush();
+					return;
+				}
+				digesting.writeBuffered();
+			}
+			if (compressing != null) {
+				compressing.finish();
+			}
+		}
+		finally {
+			if (compressing != null) {
+				compressing.release();
+			}
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Written [" + outputValue + "] as \"" + selectedMediaType +
+					"\" using [" + messageConverter + "]");
+		}
+	}
+
+	/**
+	 * Enable or disable compression of response bodies.  Compression is
+	 * disabled by default.
+	 */
+	public void setCompressionEnabled(boolean enabled) {
+		this.compression = (enabled ? new ResponseCompression() : null);
+	}
+
+	/**
+	 * Enable compression of response bodies of at least the minimum size,
+	 * at the {@link java.util.zip.Deflater} level.
+	 */
+	public void setCompression(int minSize, int level) {
+		Assert.isTrue(minSize >= 0, "Minimum size must be >= 0");
+		this.compression = new ResponseCompression(minSize, level,
+				ResponseCompression.DEFAULT_POOL_SIZE);
+	}
+
+	ResponseCompression getCompression() {
+		return this.compression;
+	}
+
+	/**
+	 * If compression is enabled, the media type is compressible and the
+	 * client accepts gzip or deflate, return an output message that
+	 * compresses into the response.  Otherwise return null.  A streamed
+	 * body starts being compressed when it's first flushed, so that
+	 * elements aren't held back until the minimum size is reached.
+	 */
+	private ResponseCompression.CompressingOutputMessage getCompressingMessage(
+			ServletServerHttpRequest inputMessage, ServletServerHttpResponse outputMessage,
+			MediaType mediaType, boolean streaming) {
+
+		ResponseCompression rc = this.compression;
+		if (rc == null || !ResponseCompression.isCompressible(mediaType)) {
+			return null;
+		}
+		HttpHeaders headers = outputMessage.getHeaders();
+		if (headers.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+			return null;
+		}
+		// Whether or not it's compressed, the response depends on Accept-Encoding
+		if (!headers.getVary().contains(HttpHeaders.ACCEPT_ENCODING)) {
+			headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		}
+		String encoding = ResponseCompression.selectEncoding(
+				inputMessage.getServletRequest().getHeader(HttpHeaders.ACCEPT_ENCODING));
+		if (encoding == null) {
+			return null;
+		}
+		return rc.wrap(outputMessage, encoding, streaming);
+	}
+
+	/**
+	 * Return the request's Accept header(s), or null if none.
+	 */
+	private static String getAcceptHeader(HttpServletRequest request) {
+		Enumeration<String> values = request.getHeaders(HttpHeaders.ACCEPT);
+		if (values == null || !values.hasMoreElements()) {
+			return null;
+		}
+		String first = values.nextElement();
+		if (!values.hasMoreElements()) {
+			return first;
+		}
+		StringBuilder sb = new StringBuilder(first);
+		while (values.hasMoreElements()) {
+			sb.append(',').append(values.nextElement());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * What determines the outcome of negotiation for a response.  Refers to
+	 * the handler method rather than its MethodParameter, which may hold the
+	 * return value.
+	 */
+	private static final class NegotiationKey {
+
+		private final Class<?> containingClass;
+		private final Object executable;
+		private final Class<?> valueType;
+		private final Type declaredType;
+		private final String accept;
+		private final MediaType contentType;
+		private final int hash;
+
+		NegotiationKey(MethodParameter returnType, Class<?> valueType, Type declaredType,
+				String accept, MediaType contentType) {
+			this.containingClass = returnType.getContainingClass();
+			this.executable = returnType.getExecutable();
+			this.valueType = valueType;
+			this.declaredType = declaredType;
+			this.accept = accept;
+			this.contentType = contentType;
+			this.hash = Objects.hash(containingClass, executable, valueType, declaredType,
+					accept, contentType);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof NegotiationKey)) {
+				return false;
+			}
+			NegotiationKey key = (NegotiationKey) other;
+			return (this.hash == key.hash &&
+					this.containingClass == key.containingClass &&
+					this.executable.equals(key.executable) &&
+					this.valueType == key.valueType &&
+					Objects.equals(this.declaredType, key.declaredType) &&
+					Objects.equals(this.accept, key.accept) &&
+					Objects.equals(this.contentType, key.contentType));
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+	}
+
+	/**
+	 * The selected media type and the converter that writes it.
+	 */
+	private static final class Negotiation {
+
+		private final MediaType mediaType;
+		private final HttpMessageConverter<?> converter;
+
+		Negotiation(MediaType mediaType, HttpMessageConverter<?> converter) {
+			this.mediaType = mediaType;
+			this.converter = converter;
+		}
+	}
+
+	int getNegotiationCacheSize() {
+		return this.negotiationCache.size();
+	}
+
+	/**
+	 * Identifies a handler method parameter or return type.  Refers to the
+	 * method rather than the MethodParameter, which may hold the return
+	 * value.
+	 */
+	private static final class EntityTypeKey {
+
+		private final Class<?> containingClass;
+		private final Object executable;
+		private final int parameterIndex;
+		private final Class<?> parameterType;
+		private final int hash;
+
+		EntityTypeKey(MethodParameter parameter) {
+			this.containingClass = parameter.getContainingClass();
+			this.executable = parameter.getExecutable();
+			this.parameterIndex = parameter.getParameterIndex();
+			this.parameterType = parameter.getParameterType();
+			this.hash = Objects.hash(containingClass, executable, parameterIndex, parameterType);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof EntityTypeKey)) {
+				return false;
+			}
+			EntityTypeKey key = (EntityTypeKey) other;
+			return (this.hash == key.hash &&
+					this.containingClass == key.containingClass &&
+					this.executable.equals(key.executable) &&
+					this.parameterIndex == key.parameterIndex &&
+					this.parameterType == key.parameterType);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+	}
+
+	/**
+	 * The resolved types of an HttpEntity parameter or return type.
+	 */
+	private static final class EntityTypeInfo {
+
+		/** The entity body type, or null if unresolvable */
+		private final Type bodyType;
+		/** Thrown by {@link #getBodyType()} if the body type is ambiguous */
+		private final IllegalArgumentException bodyTypeError;
+		/** The body class, for a null return value */
+		private final Class<?> bodyClass;
+		/** The generic type of the body, used to select a converter */
+		private final Type genericType;
+		private final boolean isRequestEntity;
+		/** LOCKSS: True if the declared body type is a streamable sequence */
+		private final boolean isStreamable;
+
+		EntityTypeInfo(MethodParameter parameter) {
+			Type type = null;
+			IllegalArgumentException error = null;
+			try {
+				type = getHttpEntityType(parameter);
+			}
+			catch (IllegalArgumentException ex) {
+				error = ex;
+			}
+			this.bodyType = type;
+			this.bodyTypeError = error;
+			this.bodyClass = (error != null ? null :
+					ResolvableType.forMethodParameter(parameter, (type != null ? type : Object.class))
+							.resolve(Object.class));
+			this.genericType = getGenericType(parameter);
+			this.isRequestEntity = (RequestEntity.class == parameter.getParameterType());
+			this.isStreamable = StreamingJsonWriter.isStreamableType(this.bodyClass);
+		}
+
+		Type getBodyType() {
+			if (this.bodyTypeError != null) {
+				throw this.bodyTypeError;
+			}
+			return this.bodyType;
+		}
+
+		Class<?> getBodyClass() {
+			if (this.bodyTypeError != null) {
+				throw this.bodyTypeError;
+			}
+			return this.bodyClass;
+		}
+	}
+
+	int getEntityTypeCacheSize() {
+		return this.entityTypeCache.size();
+	}
 }
@@ -0,0 +1,195 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.converter;
+
+import java.io.*;
+import java.util.Locale;
+import java.util.zip.*;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.server.PayloadTooLargeException;
+
+/**
+ * Transparent decompression of request bodies sent with
+ * <code>Content-Encoding: gzip</code> or <code>deflate</code>.  The body
+ * is decompressed as it's read, and reading more than the configured
+ * number of decompressed bytes fails with {@link
+ * PayloadTooLargeException} (413), so a small, highly compressed body
+ * can't exhaust memory or disk.
+ */
+class RequestDecompression {
+
+  /** Default limit on the decompressed size of a request body, ample for
+   * JSON and form bodies.  Services that accept large compressed uploads
+   * must raise it. */
+  static final long DEFAULT_MAX_SIZE = 32L * 1024 * 1024;
+
+  /** Return true if the Content-Encoding is one that's decompressed */
+  static boolean isSupported(String encoding) {
+    if (encoding == null) {
+      return false;
+    }
+    switch (encoding.trim().toLowerCase(Locale.ROOT)) {
+    case "gzip":
+    case "x-gzip":
+    case "deflate":
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * Return a stream that decompresses the body and fails if it yields
+   * more than maxSize bytes.
+   */
+  static InputStream decompress(InputStream in, String encoding, long maxSize)
+      throws IOException {
+    InputStream decompressed;
+    if ("deflate".equals(encoding.trim().toLowerCase(Locale.ROOT))) {
+      // "deflate" is zlib-wrapped, but some clients send raw deflate data
+      PushbackInputStream pin = new PushbackInputStream(in, 2);
+      byte[] hdr = new byte[2];
+      int n = pin.readNBytes(hdr, 0, 2);
+      if (n > 0) {
+	pin.unread(hdr, 0, n);
+      }
+      decompressed = new InflaterInputStream(pin, new Inflater(!isZlibHeader(hdr, n)));
+    } else {
+      decompressed = new GZIPInputStream(in);
+    }
+    return new LimitedInputStream(decompressed, maxSize);
+  }
+
+  /** True if the bytes are a valid zlib header for deflate data */
+  static boolean isZlibHeader(byte[] hdr, int len) {
+    if (len < 2) {
+      return false;
+    }
+    int cmf = hdr[0] & 0xff;
+    int flg = hdr[1] & 0xff;
+    return (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+  }
+
+  /**
+   * A request whose body is decompressed as it's read.  Its headers
+   * omit Content-Encoding and Content-Length, which describe the
+   * compressed body.
+   */
+  static class DecompressingRequest extends ServletServerHttpRequest {
+    private final String encoding;
+    private final long maxSize;
+    private HttpHeaders headers;
+    private InputStream body;
+
+    DecompressingRequest(HttpServletRequest servletRequest, String encoding,
+			 long maxSize) {
+      super(servletRequest);
+      this.encoding = encoding;
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      if (headers == null) {
+	HttpHeaders h = new HttpHeaders();
+	h.putAll(super.getHeaders());
+	h.remove(HttpHeaders.CONTENT_ENCODING);
+	h.remove(HttpHeaders.CONTENT_LENGTH);
+	headers = h;
+      }
+      return headers;
+    }
+
+    @Override
+    public InputStream getBody() throws IOException {
+      if (body == null) {
+	body = decompress(super.getBody(), encoding, maxSize);
+      }
+      return body;
+    }
+  }
+
+  /** Fails with 413 if more than maxSize bytes are read */
+  static class LimitedInputStream extends FilterInputStream {
+    private final long maxSize;
+    private long count = 0;
+
+    LimitedInputStream(InputStream in, long maxSize) {
+      super(in);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b >= 0) {
+	checkCount(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = in.read(b, off, len);
+      if (n > 0) {
+	checkCount(n);
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(n);
+      if (skipped > 0) {
+	checkCount(skipped);
+      }
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    private void checkCount(long n) {
+      count += n;
+      if (count > maxSize) {
+	throw new PayloadTooLargeException(
+	  new IOException("Decompressed request body exceeds " + maxSize +
+			  " bytes"));
+      }
+    }
+  }
+}
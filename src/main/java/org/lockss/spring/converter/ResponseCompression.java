@@ -0,0 +1,375 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.converter;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+import org.springframework.http.*;
+
+/**
+ * Compresses response bodies with gzip or deflate, as negotiated by the
+ * request's Accept-Encoding header.  Bodies shorter than the minimum size
+ * and media types that are already compressed are sent as is.
+ * Compression uses pooled {@link Deflater}s.
+ */
+class ResponseCompression {
+
+  static final String GZIP = "gzip";
+  static final String DEFLATE = "deflate";
+
+  /** Default minimum body size to compress, as Tomcat's */
+  static final int DEFAULT_MIN_SIZE = 2048;
+
+  /** Default number of idle Deflaters of each kind retained */
+  static final int DEFAULT_POOL_SIZE = 32;
+
+  private static final int BUFFER_SIZE = 8192;
+
+  // gzip header: magic, deflate method, no flags, no mtime, no extra
+  // flags, unknown OS
+  private static final byte[] GZIP_HEADER =
+    {0x1f, (byte)0x8b, 8, 0, 0, 0, 0, 0, 0, (byte)0xff};
+
+  // Types whose content is already compressed, or whose content is
+  // unknown and often compressed
+  private static final Set<String> UNCOMPRESSIBLE_BASE_TYPES =
+    Set.of("image", "audio", "video");
+  private static final Set<String> UNCOMPRESSIBLE_APPLICATION_SUBTYPES =
+    Set.of("zip", "gzip", "x-gzip", "x-bzip2", "x-xz", "zstd",
+	   "x-7z-compressed", "x-rar-compressed", "java-archive",
+	   "octet-stream", "pdf", "warc");
+
+  private final int minSize;
+  private final DeflaterPool gzipPool;
+  private final DeflaterPool deflatePool;
+
+  ResponseCompression() {
+    this(DEFAULT_MIN_SIZE, Deflater.DEFAULT_COMPRESSION, DEFAULT_POOL_SIZE);
+  }
+
+  /**
+   * @param minSize bodies shorter than this are not compressed
+   * @param level the Deflater compression level
+   * @param poolSize the number of idle Deflaters of each kind retained
+   */
+  ResponseCompression(int minSize, int level, int poolSize) {
+    this.minSize = minSize;
+    this.gzipPool = new DeflaterPool(level, true, poolSize);
+    this.deflatePool = new DeflaterPool(level, false, poolSize);
+  }
+
+  int getMinSize() {
+    return minSize;
+  }
+
+  DeflaterPool getPool(String encoding) {
+    return GZIP.equals(encoding) ? gzipPool : deflatePool;
+  }
+
+  /**
+   * Return true if the media type is worth compressing.  Images (other
+   * than SVG), audio, video, archives and opaque binary types are not.
+   */
+  static boolean isCompressible(MediaType mediaType) {
+    if (mediaType == null) {
+      return false;
+    }
+    String type = mediaType.getType();
+    String subtype = mediaType.getSubtype();
+    if (subtype.endsWith("+xml") || subtype.endsWith("+json")) {
+      return true;
+    }
+    if (UNCOMPRESSIBLE_BASE_TYPES.contains(type)) {
+      return false;
+    }
+    return !("application".equals(type)
+	     && UNCOMPRESSIBLE_APPLICATION_SUBTYPES.contains(subtype));
+  }
+
+  /**
+   * Return the preferred encoding acceptable according to the
+   * Accept-Encoding header: {@value #GZIP}, {@value #DEFLATE}, or null
+   * if neither is acceptable.  gzip is preferred when both are equally
+   * acceptable.
+   */
+  static String selectEncoding(String acceptEncoding) {
+    if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+      return null;
+    }
+    double gzipQ = -1;
+    double deflateQ = -1;
+    double anyQ = -1;
+    for (String part : acceptEncoding.split(",")) {
+      String[] params = part.split(";");
+      String coding = params[0].trim().toLowerCase(Locale.ROOT);
+      double q = 1;
+      for (int ix = 1; ix < params.length; ix++) {
+	String param = params[ix].trim();
+	if (param.startsWith("q=") || param.startsWith("Q=")) {
+	  try {
+	    q = Double.parseDouble(param.substring(2).trim());
+	  } catch (NumberFormatException e) {
+	    q = 0;
+	  }
+	}
+      }
+      switch (coding) {
+      case GZIP:
+      case "x-gzip":
+	gzipQ = Math.max(gzipQ, q);
+	break;
+      case DEFLATE:
+	deflateQ = Math.max(deflateQ, q);
+	break;
+      case "*":
+	anyQ = Math.max(anyQ, q);
+	break;
+      default:
+	break;
+      }
+    }
+    if (gzipQ < 0) {
+      gzipQ = anyQ;
+    }
+    if (deflateQ < 0) {
+      deflateQ = anyQ;
+    }
+    if (gzipQ > 0 && gzipQ >= deflateQ) {
+      return GZIP;
+    }
+    if (deflateQ > 0) {
+      return DEFLATE;
+    }
+    return null;
+  }
+
+  /**
+   * Return an output message that compresses what's written to it into
+   * the response, once more than the minimum size has been written, or,
+   * if streaming, once it's flushed.  Converters flush whole bodies as
+   * they finish them, so only streamed bodies, whose flushes are meant to
+   * send what's been written so far, should be wrapped with streaming
+   * true.  {@link CompressingOutputMessage#finish()} must be called when
+   * the body is complete, and {@link CompressingOutputMessage#release()}
+   * in a finally block.
+   */
+  CompressingOutputMessage wrap(HttpOutputMessage response, String encoding,
+				boolean streaming) {
+    return new CompressingOutputMessage(response, encoding, streaming);
+  }
+
+  /**
+   * Passes headers through to the response, and buffers the body until
+   * it reaches the minimum size, when it sets Content-Encoding and starts
+   * compressing.  A body that never reaches the minimum size is written
+   * uncompressed, unless streaming and flushed.
+   */
+  class CompressingOutputMessage implements HttpOutputMessage {
+    private final HttpOutputMessage response;
+    private final String encoding;
+    private final boolean streaming;
+    private final CompressingStream body = new CompressingStream();
+
+    CompressingOutputMessage(HttpOutputMessage response, String encoding,
+			     boolean streaming) {
+      this.response = response;
+      this.encoding = encoding;
+      this.streaming = streaming;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return response.getHeaders();
+    }
+
+    @Override
+    public OutputStream getBody() {
+      return body;
+    }
+
+    /** The content coding, gzip or deflate */
+    String getEncoding() {
+      return encoding;
+    }
+
+    /** True if the body is being compressed */
+    boolean isCompressing() {
+      return body.out != null;
+    }
+
+    /** Write any buffered data and the compressed stream's trailer */
+    void finish() throws IOException {
+      body.finish();
+    }
+
+    /** Return the Deflater to the pool, if one was borrowed */
+    void release() {
+      body.release();
+    }
+
+    private class CompressingStream extends OutputStream {
+      private byte[] buf = new byte[Math.max(minSize, 1)];
+      private int count = 0;
+      private OutputStream out;
+      private Deflater deflater;
+      private CRC32 crc;
+      private byte[] deflated;
+      private boolean finished = false;
+
+      @Override
+      public void write(int b) throws IOException {
+	write(new byte[] {(byte)b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+	if (finished) {
+	  throw new IOException("Write after response body finished");
+	}
+	if (out == null) {
+	  if (count + len <= minSize) {
+	    System.arraycopy(b, off, buf, count, len);
+	    count += len;
+	    return;
+	  }
+	  startCompressing();
+	}
+	compress(b, off, len);
+      }
+
+      private void startCompressing() throws IOException {
+	HttpHeaders headers = response.getHeaders();
+	headers.remove(HttpHeaders.CONTENT_LENGTH);
+	headers.set(HttpHeaders.CONTENT_ENCODING, encoding);
+	out = response.getBody();
+	deflater = getPool(encoding).borrow();
+	deflated = new byte[BUFFER_SIZE];
+	if (GZIP.equals(encoding)) {
+	  crc = new CRC32();
+	  out.write(GZIP_HEADER);
+	}
+	compress(buf, 0, count);
+	buf = null;
+      }
+
+      private void compress(byte[] b, int off, int len) throws IOException {
+	if (len == 0) {
+	  return;
+	}
+	if (crc != null) {
+	  crc.update(b, off, len);
+	}
+	deflater.setInput(b, off, len);
+	while (!deflater.needsInput()) {
+	  drain(Deflater.NO_FLUSH);
+	}
+      }
+
+      // Write the deflater's output until it has none left
+      private void drain(int flushMode) throws IOException {
+	int n;
+	do {
+	  n = deflater.deflate(deflated, 0, deflated.length, flushMode);
+	  if (n > 0) {
+	    out.write(deflated, 0, n);
+	  }
+	} while (n == deflated.length);
+      }
+
+      /**
+       * Data isn't flushed until the decision to compress is made.  When
+       * streaming, a flush makes that decision, so that buffered data
+       * isn't held until the minimum size is reached.
+       */
+      @Override
+      public void flush() throws IOException {
+	if (finished) {
+	  return;
+	}
+	if (out == null && streaming && count > 0) {
+	  startCompressing();
+	}
+	if (out != null) {
+	  drain(Deflater.SYNC_FLUSH);
+	  out.flush();
+	}
+      }
+
+      /** Closed by {@link #finish()} */
+      @Override
+      public void close() {
+      }
+
+      void finish() throws IOException {
+	if (finished) {
+	  return;
+	}
+	finished = true;
+	if (out == null) {
+	  OutputStream raw = response.getBody();
+	  raw.write(buf, 0, count);
+	  raw.flush();
+	  return;
+	}
+	try {
+	  deflater.finish();
+	  while (!deflater.finished()) {
+	    drain(Deflater.NO_FLUSH);
+	  }
+	  if (crc != null) {
+	    writeIntLE(out, (int)crc.getValue());
+	    writeIntLE(out, (int)deflater.getBytesRead());
+	  }
+	  out.flush();
+	} finally {
+	  release();
+	}
+      }
+
+      void release() {
+	if (deflater != null) {
+	  getPool(encoding).release(deflater);
+	  deflater = null;
+	}
+      }
+    }
+  }
+
+  private static void writeIntLE(OutputStream out, int i) throws IOException {
+    out.write(i & 0xff);
+    out.write((i >> 8) & 0xff);
+    out.write((i >> 16) & 0xff);
+    out.write((i >> 24) & 0xff);
+  }
+}
@@ -0,0 +1,206 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.converter;
+
+import java.io.*;
+import java.util.*;
+import java.util.stream.BaseStream;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.core.*;
+import com.fasterxml.jackson.databind.*;
+
+/**
+ * Writes the elements of a {@link java.util.stream.Stream}, {@link
+ * Iterator} or {@link Iterable} response body as a JSON array or as
+ * newline-delimited JSON records, one element at a time, so the
+ * collection is never materialized and the client receives the first
+ * elements while the rest are being produced.  Output is flushed after
+ * the first element, then after each batch of elements or at most every
+ * {@link #FLUSH_INTERVAL} ms.
+ */
+class StreamingJsonWriter {
+
+  /** Max time buffered output is held before being flushed */
+  static final long FLUSH_INTERVAL = 500;
+
+  /** Default number of elements written between flushes */
+  static final int DEFAULT_FLUSH_BATCH_SIZE = 100;
+
+  private final ObjectMapper mapper;
+  private final ObjectWriter writer;
+  private final ObjectWriter lineWriter;
+  private final int flushBatchSize;
+
+  StreamingJsonWriter(ObjectMapper mapper) {
+    this(mapper, DEFAULT_FLUSH_BATCH_SIZE);
+  }
+
+  /**
+   * @param mapper the ObjectMapper used to write each element
+   * @param flushBatchSize the number of elements written between
+   * flushes; if zero, output is flushed only by time
+   */
+  StreamingJsonWriter(ObjectMapper mapper, int flushBatchSize) {
+    this.mapper = mapper;
+    this.flushBatchSize = flushBatchSize;
+    // Flushing is controlled here, not after every element
+    this.writer =
+      mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    // Records must each be on one line
+    this.lineWriter = writer.without(SerializationFeature.INDENT_OUTPUT);
+  }
+
+  int getFlushBatchSize() {
+    return flushBatchSize;
+  }
+
+  /**
+   * Return true if a handler whose declared body type is the class
+   * returns sequences that should be streamed: exactly Stream, Iterator
+   * or Iterable.  Subtypes, e.g. Jackson's JsonNode or Path, which are
+   * Iterable, are serialized in other ways.
+   */
+  static boolean isStreamableType(Class<?> cls) {
+    return cls == Stream.class || cls == Iterator.class
+      || cls == Iterable.class;
+  }
+
+  /**
+   * Return true if the body is a sequence that should be streamed.
+   * Collections are already materialized, and are written normally.
+   */
+  static boolean isStreamable(Object body) {
+    return body instanceof BaseStream
+      || body instanceof Iterator
+      || (body instanceof Iterable && !(body instanceof Collection));
+  }
+
+  /**
+   * Write the elements of the body as a JSON array.  The body is closed
+   * if it's a Stream or an AutoCloseable Iterator.  If an element can't
+   * be produced or written, the array is left unterminated so the client
+   * can tell the output is incomplete.
+   *
+   * @param body a Stream, Iterator or Iterable
+   * @param out the response stream
+   * @return the number of elements written
+   */
+  long writeArray(Object body, OutputStream out) throws IOException {
+    try {
+      JsonGenerator gen =
+	mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+      gen.writeStartArray();
+      long count = writeElements(iteratorOf(body), gen, writer, false);
+      gen.writeEndArray();
+      gen.flush();
+      return count;
+    } finally {
+      closeBody(body);
+    }
+  }
+
+  /**
+   * Write the elements of the body as newline-delimited JSON
+   * (application/x-ndjson): each element on its own line, terminated by
+   * a newline.  The body is closed as by {@link #writeArray(Object,
+   * OutputStream)}.  If an element can't be produced or written, no
+   * further lines are written.
+   *
+   * @param body a Stream, Iterator or Iterable
+   * @param out the response stream
+   * @return the number of elements written
+   */
+  long writeLines(Object body, OutputStream out) throws IOException {
+    try {
+      JsonGenerator gen =
+	mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+      // Lines are separated by the newline written after each
+      gen.setRootValueSeparator(null);
+      long count = writeElements(iteratorOf(body), gen, lineWriter, true);
+      gen.flush();
+      return count;
+    } finally {
+      closeBody(body);
+    }
+  }
+
+  /** Write each element, flushing after each batch or interval */
+  private long writeElements(Iterator<?> iter, JsonGenerator gen,
+			     ObjectWriter elementWriter, boolean newlines)
+      throws IOException {
+    long count = 0;
+    int batch = 0;
+    long lastFlush = System.nanoTime();
+    while (iter.hasNext()) {
+      elementWriter.writeValue(gen, iter.next());
+      if (newlines) {
+	gen.writeRaw('\n');
+      }
+      count++;
+      batch++;
+      long now = System.nanoTime();
+      if (count == 1
+	  || (flushBatchSize > 0 && batch >= flushBatchSize)
+	  || now - lastFlush >= FLUSH_INTERVAL * 1000000L) {
+	gen.flush();
+	lastFlush = now;
+	batch = 0;
+      }
+    }
+    return count;
+  }
+
+  static Iterator<?> iteratorOf(Object body) {
+    if (body instanceof BaseStream) {
+      return ((BaseStream<?,?>)body).iterator();
+    }
+    if (body instanceof Iterator) {
+      return (Iterator<?>)body;
+    }
+    return ((Iterable<?>)body).iterator();
+  }
+
+  static void closeBody(Object body) throws IOException {
+    if (body instanceof BaseStream) {
+      ((BaseStream<?,?>)body).close();
+    } else if (body instanceof Iterator && body instanceof AutoCloseable) {
+      try {
+	((AutoCloseable)body).close();
+      } catch (IOException | RuntimeException e) {
+	throw e;
+      } catch (Exception e) {
+	throw new IOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.security.AccessControlException;
+import java.util.*;
+
+import org.junit.*;
+import org.lockss.test.LockssTestCase4;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * Test class for org.lockss.spring.auth.AuthUtil
+ */
+public class TestAuthUtil extends LockssTestCase4 {
+
+  static final int AU_ADMIN_PERMS = Roles.permissionMask(Roles.ROLE_AU_ADMIN);
+  static final int ANY_PERMS = Roles.permissionMask(Roles.ROLE_ANY);
+  static final int ADMIN_PERMS = Roles.permissionMask();
+
+  private List<GrantedAuthority> auths(String... roles) {
+    List<GrantedAuthority> res = new ArrayList<>();
+    for (String role : roles) {
+      res.add(new SimpleGrantedAuthority(role));
+    }
+    return res;
+  }
+
+  private Authentication lockssToken(String... roles) {
+    return new LockssAuthenticationToken("user", null, auths(roles));
+  }
+
+  private Authentication plainToken(String... roles) {
+    return new UsernamePasswordAuthenticationToken("user", null, auths(roles));
+  }
+
+  private void assertAllowed(Authentication auth, int mask) {
+    AuthUtil.checkHasRole(auth, mask);
+  }
+
+  private void assertDenied(Authentication auth, int mask) {
+    try {
+      AuthUtil.checkHasRole(auth, mask);
+      fail("Should have been denied: " + auth);
+    } catch (AccessControlException e) {
+    }
+  }
+
+  private void assertDenied(Authentication auth, String... roles) {
+    try {
+      AuthUtil.checkHasRole(auth, roles);
+      fail("Should have been denied: " + auth);
+    } catch (AccessControlException e) {
+    }
+  }
+
+  @Test
+  public void testMasks() throws Exception {
+    assertEquals(Roles.BIT_ANY | Roles.BIT_AU_ADMIN | Roles.BIT_DEBUG,
+		 Roles.userRoleMask(List.of(Roles.ROLE_AU_ADMIN,
+					    Roles.ROLE_DEBUG, "otherRole")));
+    assertEquals(Roles.BIT_USER_ADMIN | Roles.BIT_AU_ADMIN, AU_ADMIN_PERMS);
+    assertEquals(Roles.BIT_USER_ADMIN, ADMIN_PERMS);
+    try {
+      Roles.permissionMask("otherRole");
+      fail("Unknown role should throw");
+    } catch (IllegalArgumentException e) {
+    }
+    assertEquals(Roles.BIT_ANY | Roles.BIT_CONTENT_ACCESS,
+		 AuthUtil.getRoleMask(lockssToken(Roles.ROLE_CONTENT_ACCESS)));
+    assertEquals(Roles.BIT_ANY | Roles.BIT_CONTENT_ACCESS,
+		 AuthUtil.getRoleMask(plainToken(Roles.ROLE_CONTENT_ACCESS)));
+  }
+
+  @Test
+  public void testCheckHasRoleMask() throws Exception {
+    for (Authentication admin :
+	   List.of(lockssToken(Roles.ROLE_USER_ADMIN),
+		   plainToken(Roles.ROLE_USER_ADMIN))) {
+      assertAllowed(admin, AU_ADMIN_PERMS);
+      assertAllowed(admin, ANY_PERMS);
+      assertAllowed(admin, ADMIN_PERMS);
+    }
+    for (Authentication user :
+	   List.of(lockssToken(Roles.ROLE_AU_ADMIN, Roles.ROLE_DEBUG),
+		   plainToken(Roles.ROLE_AU_ADMIN, Roles.ROLE_DEBUG))) {
+      assertAllowed(user, AU_ADMIN_PERMS);
+      assertAllowed(user, ANY_PERMS);
+      assertDenied(user, ADMIN_PERMS);
+      assertDenied(user, Roles.permissionMask(Roles.ROLE_CONTENT_ADMIN));
+    }
+    assertAllowed(lockssToken(), ANY_PERMS);
+    assertDenied(lockssToken(), AU_ADMIN_PERMS);
+  }
+
+  @Test
+  public void testCheckHasRoleNames() throws Exception {
+    Authentication user = lockssToken(Roles.ROLE_AU_ADMIN, "otherRole");
+    AuthUtil.checkHasRole(user, Roles.ROLE_CONTENT_ADMIN, Roles.ROLE_AU_ADMIN);
+    AuthUtil.checkHasRole(user, Roles.ROLE_ANY);
+    assertDenied(user, Roles.ROLE_CONTENT_ADMIN);
+    assertDenied(user);
+    // Roles without bits are compared by name
+    AuthUtil.checkHasRole(user, "otherRole");
+    assertDenied(user, "yetAnotherRole");
+    AuthUtil.checkHasRole(lockssToken(Roles.ROLE_USER_ADMIN),
+			  "yetAnotherRole");
+  }
+}
@@ -0,0 +1,117 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.*;
+
+import org.junit.*;
+import org.lockss.test.LockssTestCase4;
+import org.lockss.util.IpFilter;
+
+/**
+ * Test class for org.lockss.spring.auth.CompiledIpFilter
+ */
+public class TestCompiledIpFilter extends LockssTestCase4 {
+
+  @Test
+  public void testSpecForms() throws Exception {
+    CompiledIpFilter filt =
+      CompiledIpFilter.compile("127.0.0.0/8;::1;10.1.*.*;" +
+			       "192.168.0.0/255.255.0.0;fe80::/10",
+			       "10.1.2.3");
+    assertTrue(filt.isCompiled());
+    assertTrue(filt.isIpAllowed("127.0.0.1"));
+    assertTrue(filt.isIpAllowed("::1"));
+    assertTrue(filt.isIpAllowed("0:0:0:0:0:0:0:1"));
+    assertTrue(filt.isIpAllowed("10.1.9.9"));
+    assertTrue(filt.isIpAllowed("::ffff:10.1.0.1"));
+    assertTrue(filt.isIpAllowed("192.168.3.4"));
+    assertTrue(filt.isIpAllowed("fe80::1%eth0"));
+    assertTrue(filt.isIpAllowed("FE80::abcd"));
+
+    assertFalse(filt.isIpAllowed("10.1.2.3"));
+    assertFalse(filt.isIpAllowed("10.2.0.1"));
+    assertFalse(filt.isIpAllowed("::2"));
+    assertFalse(filt.isIpAllowed("1.2.3.4"));
+    assertFalse(filt.isIpAllowed("2001::1"));
+    assertFalse(filt.isIpAllowed("192.169.0.1"));
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    CompiledIpFilter filt = CompiledIpFilter.empty();
+    assertFalse(filt.isIpAllowed("127.0.0.1"));
+    assertFalse(filt.isIpAllowed("::1"));
+  }
+
+  /** Compare with IpFilter on realistically sized access lists */
+  @Test
+  public void testSameAsIpFilter() throws Exception {
+    Random rnd = new Random(1);
+    for (int round = 0; round < 20; round++) {
+      List<String> incl = new ArrayList<>();
+      List<String> excl = new ArrayList<>();
+      for (int ix = 0; ix < 300; ix++) {
+	(rnd.nextInt(4) == 0 ? excl : incl).add(randomSpec(rnd));
+      }
+      IpFilter ref = new IpFilter();
+      ref.setFilters(incl, excl);
+      CompiledIpFilter filt = CompiledIpFilter.compile(incl, excl);
+      assertTrue(filt.isCompiled());
+      for (int ix = 0; ix < 1000; ix++) {
+	String addr = randomAddr(rnd);
+	assertEquals(addr, ref.isIpAllowed(addr), filt.isIpAllowed(addr));
+      }
+    }
+  }
+
+  // Keep the address space small so that matches are common
+
+  private String randomSpec(Random rnd) {
+    if (rnd.nextBoolean()) {
+      return rnd.nextInt(4) + "." + rnd.nextInt(4) + "." +
+	rnd.nextInt(256) + "." + rnd.nextInt(256) + "/" + rnd.nextInt(33);
+    }
+    return "2001:db8:" + Integer.toHexString(rnd.nextInt(4)) + "::" +
+      Integer.toHexString(rnd.nextInt(65536)) + "/" + rnd.nextInt(129);
+  }
+
+  private String randomAddr(Random rnd) {
+    if (rnd.nextBoolean()) {
+      return rnd.nextInt(4) + "." + rnd.nextInt(4) + "." +
+	rnd.nextInt(256) + "." + rnd.nextInt(256);
+    }
+    return "2001:db8:" + Integer.toHexString(rnd.nextInt(4)) + ":0:" +
+      Integer.toHexString(rnd.nextInt(3)) + "::" +
+      Integer.toHexString(rnd.nextInt(65536));
+  }
+}
@@ -0,0 +1,267 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.*;
+import org.lockss.test.LockssTestCase4;
+import org.springframework.context.annotation.*;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Test class for org.lockss.spring.auth.CompiledPreAuthorizeManager
+ */
+public class TestCompiledPreAuthorizeManager extends LockssTestCase4 {
+
+  CompiledPreAuthorizeManager mgr;
+
+  @Before
+  public void setUpManager() {
+    mgr = new CompiledPreAuthorizeManager();
+  }
+
+  public static class Service {
+    @PreAuthorize("hasAnyAuthority('auAdminRole', 'debugRole')")
+    public void auOrDebug() {}
+
+    @PreAuthorize("hasAuthority('anyRole')")
+    public void anyRole() {}
+
+    @PreAuthorize("hasRole('ADMIN')")
+    public void admin() {}
+
+    @PreAuthorize("isAuthenticated() and hasRole('ADMIN')")
+    public void complex() {}
+
+    public void unannotated() {}
+  }
+
+  @PreAuthorize("hasAuthority('contentAccessRole')")
+  public static class ContentService {
+    public void read() {}
+  }
+
+  @Test
+  public void testParse() throws Exception {
+    assertEquals(Set.of("ROLE_x"), mgr.parse("hasRole('x')"));
+    assertEquals(Set.of("ROLE_x"), mgr.parse("hasRole('ROLE_x')"));
+    assertEquals(Set.of("ROLE_a", "ROLE_b"),
+		 mgr.parse("hasAnyRole('a', \"b\")"));
+    assertEquals(Set.of("a", "b"), mgr.parse(" hasAnyAuthority ( 'a' , 'b' ) "));
+    assertEquals(Set.of("auAdminRole"), mgr.parse("hasAuthority('auAdminRole')"));
+    assertNull(mgr.parse("hasAuthority('a', 'b')"));
+    assertNull(mgr.parse("hasAnyAuthority('a',)"));
+    assertNull(mgr.parse("hasAnyAuthority()"));
+    assertNull(mgr.parse("hasRole('a') or hasRole('b')"));
+    assertNull(mgr.parse("hasRole(#name)"));
+    assertNull(mgr.parse("isAuthenticated()"));
+  }
+
+  @Test
+  public void testLockssRoles() throws Exception {
+    Service svc = new Service();
+    MethodInvocation mi = invocation(svc, "auOrDebug");
+    assertTrue(mgr.isCompiled(mi));
+    assertTrue(isGranted(lockssUser("auAdminRole"), mi));
+    assertTrue(isGranted(lockssUser("debugRole,contentAccessRole"), mi));
+    assertFalse(isGranted(lockssUser("contentAccessRole"), mi));
+    assertFalse(isGranted(lockssUser(""), mi));
+    // Same result for tokens without a role mask
+    assertTrue(isGranted(plainUser("debugRole"), mi));
+    assertFalse(isGranted(plainUser("contentAccessRole"), mi));
+    assertFalse(isGranted(null, mi));
+
+    // anyRole is granted only if it's an actual authority
+    MethodInvocation any = invocation(svc, "anyRole");
+    assertFalse(isGranted(lockssUser("debugRole"), any));
+    assertTrue(isGranted(lockssUser("anyRole"), any));
+
+    // Class-level annotation
+    MethodInvocation read = invocation(new ContentService(), "read");
+    assertTrue(mgr.isCompiled(read));
+    assertTrue(isGranted(lockssUser("contentAccessRole"), read));
+    assertFalse(isGranted(lockssUser("auAdminRole"), read));
+  }
+
+  @Test
+  public void testRolePrefix() throws Exception {
+    MethodInvocation mi = invocation(new Service(), "admin");
+    assertTrue(mgr.isCompiled(mi));
+    assertTrue(isGranted(plainUser("ROLE_ADMIN"), mi));
+    assertFalse(isGranted(plainUser("ADMIN"), mi));
+  }
+
+  @Test
+  public void testFallback() throws Exception {
+    Service svc = new Service();
+    MethodInvocation mi = invocation(svc, "complex");
+    assertFalse(mgr.isCompiled(mi));
+    assertTrue(isGranted(plainUser("ROLE_ADMIN"), mi));
+    assertFalse(isGranted(plainUser("ROLE_USER"), mi));
+
+    MethodInvocation un = invocation(svc, "unannotated");
+    assertFalse(mgr.isCompiled(un));
+    assertNull(mgr.check(() -> plainUser("ROLE_USER"), un));
+  }
+
+  /** Referenced as @perms in expressions */
+  public static class Perms {
+    public boolean isOwner(Authentication auth) {
+      return auth != null && "fred".equals(auth.getName());
+    }
+  }
+
+  public static class BeanRefService {
+    @PreAuthorize("@perms.isOwner(authentication)")
+    public String owned() {
+      return "owned";
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    public String admin() {
+      return "admin";
+    }
+  }
+
+  @Configuration
+  public static class BeanRefConfig {
+    @Bean
+    public Perms perms() {
+      return new Perms();
+    }
+
+    @Bean
+    public BeanRefService beanRefService() {
+      return new BeanRefService();
+    }
+  }
+
+  @Test
+  public void testBeanReference() throws Exception {
+    try (AnnotationConfigApplicationContext ctx = methodSecurityContext(true)) {
+      assertTrue(ctx.containsBean("preAuthorizeAuthorizationMethodInterceptor"));
+      assertBeanReference(ctx);
+    }
+    // Same with Spring's standard method security
+    try (AnnotationConfigApplicationContext ctx = methodSecurityContext(false)) {
+      assertFalse(ctx.containsBean("preAuthorizeAuthorizationMethodInterceptor"));
+      assertBeanReference(ctx);
+    }
+  }
+
+  void assertBeanReference(AnnotationConfigApplicationContext ctx) {
+    BeanRefService svc = ctx.getBean(BeanRefService.class);
+    try {
+      SecurityContextHolder.getContext().setAuthentication(plainUser("ROLE_ADMIN"));
+      assertEquals("owned", svc.owned());
+      assertEquals("admin", svc.admin());
+      SecurityContextHolder.getContext()
+	.setAuthentication(new UsernamePasswordAuthenticationToken("barney", null,
+								   AuthorityUtils.NO_AUTHORITIES));
+      try {
+	svc.owned();
+	fail("Non-owner was allowed");
+      } catch (AccessDeniedException e) {
+	// expected
+      }
+      try {
+	svc.admin();
+	fail("Non-admin was allowed");
+      } catch (AccessDeniedException e) {
+	// expected
+      }
+    } finally {
+      SecurityContextHolder.clearContext();
+    }
+  }
+
+  AnnotationConfigApplicationContext methodSecurityContext(boolean compiled) {
+    AnnotationConfigApplicationContext ctx =
+      new AnnotationConfigApplicationContext();
+    ctx.getEnvironment().getPropertySources()
+      .addFirst(new MapPropertySource("test",
+				      Map.of(SpringSecurityConfigurer.PROP_COMPILED_PRE_AUTHORIZE,
+					     Boolean.toString(compiled))));
+    ctx.register(SpringSecurityConfigurer.StandardMethodSecurity.class,
+		 SpringSecurityConfigurer.CompiledMethodSecurity.class,
+		 BeanRefConfig.class);
+    ctx.refresh();
+    return ctx;
+  }
+
+  boolean isGranted(Authentication auth, MethodInvocation mi) {
+    AuthorizationDecision dec = mgr.check(() -> auth, mi);
+    return dec.isGranted();
+  }
+
+  Authentication lockssUser(String roles) {
+    return new LockssAuthenticationToken("fred", null,
+					 AuthorityUtils.commaSeparatedStringToAuthorityList(roles));
+  }
+
+  Authentication plainUser(String roles) {
+    return new UsernamePasswordAuthenticationToken("fred", null,
+						   AuthorityUtils.commaSeparatedStringToAuthorityList(roles));
+  }
+
+  MethodInvocation invocation(Object target, String methodName)
+      throws Exception {
+    Method method = target.getClass().getMethod(methodName);
+    return new MethodInvocation() {
+      public Method getMethod() {
+	return method;
+      }
+      public Object[] getArguments() {
+	return new Object[0];
+      }
+      public Object proceed() throws Throwable {
+	return method.invoke(target);
+      }
+      public Object getThis() {
+	return target;
+      }
+      public AccessibleObject getStaticPart() {
+	return method;
+      }
+    };
+  }
+}
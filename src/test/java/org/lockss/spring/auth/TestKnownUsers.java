@@ -0,0 +1,110 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.*;
+
+import static org.mockito.Mockito.*;
+
+import org.junit.*;
+import org.lockss.account.*;
+import org.lockss.test.LockssTestCase4;
+import org.lockss.util.time.TimeUtil;
+
+/**
+ * Test class for org.lockss.spring.auth.KnownUsers
+ */
+public class TestKnownUsers extends LockssTestCase4 {
+
+  AccountManager acctMgr;
+  List<UserAccount> accounts;
+  KnownUsers known;
+
+  @Before
+  public void setUpKnownUsers() {
+    accounts = new ArrayList<>();
+    accounts.add(account("fred"));
+    accounts.add(account("ginger"));
+    acctMgr = mock(AccountManager.class);
+    when(acctMgr.getUsers()).thenReturn(accounts);
+    // Rebuild synchronously
+    known = new KnownUsers(0.0001, TimeUtil.HOUR, Runnable::run);
+  }
+
+  UserAccount account(String name) {
+    UserAccount acct = mock(UserAccount.class);
+    when(acct.getName()).thenReturn(name);
+    return acct;
+  }
+
+  @Test
+  public void testRejectWithoutLookup() throws Exception {
+    // No filter yet, the first call builds it
+    assertTrue(known.mightExist("nobody", acctMgr));
+    assertEquals(1, known.getRebuildCount());
+    assertTrue(known.mightExist("fred", acctMgr));
+    assertTrue(known.mightExist("ginger", acctMgr));
+    for (int ix = 0; ix < 100; ix++) {
+      assertFalse(known.mightExist("nobody" + ix, acctMgr));
+    }
+    assertEquals(100, known.getRejectedCount());
+    assertEquals(1, known.getRebuildCount());
+    verify(acctMgr, never()).getUserOrNull(anyString());
+  }
+
+  @Test
+  public void testAccountAdded() throws Exception {
+    assertTrue(known.mightExist("fred", acctMgr));
+    assertEquals(1, known.getRebuildCount());
+
+    UserAccount acct = account("astaire");
+    accounts.add(acct);
+    when(acctMgr.getUserOrNull("astaire")).thenReturn(acct);
+    // The changed account count causes a rebuild, and the name is
+    // confirmed meanwhile
+    assertTrue(known.mightExist("astaire", acctMgr));
+    assertEquals(2, known.getRebuildCount());
+    verify(acctMgr, times(1)).getUserOrNull("astaire");
+    // Now it's in the filter
+    assertTrue(known.mightExist("astaire", acctMgr));
+    verify(acctMgr, times(1)).getUserOrNull("astaire");
+    // Unknown names are again refused without a lookup
+    assertFalse(known.mightExist("nobody", acctMgr));
+    verify(acctMgr, never()).getUserOrNull("nobody");
+
+    // Removing an account also causes a rebuild
+    accounts.remove(acct);
+    when(acctMgr.getUserOrNull("astaire")).thenReturn(null);
+    assertFalse(known.mightExist("nobody2", acctMgr));
+    assertEquals(3, known.getRebuildCount());
+  }
+}
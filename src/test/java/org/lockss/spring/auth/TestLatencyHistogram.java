@@ -0,0 +1,79 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import org.junit.*;
+import org.lockss.test.LockssTestCase4;
+
+/**
+ * Test class for org.lockss.spring.auth.LatencyHistogram
+ */
+public class TestLatencyHistogram extends LockssTestCase4 {
+
+  @Test
+  public void testBuckets() throws Exception {
+    for (long val : new long[] {0, 1, 7, 8, 9, 15, 16, 17, 31, 32, 1000,
+				123456789L}) {
+      int ix = LatencyHistogram.bucketIndex(val);
+      assertTrue(LatencyHistogram.bucketLowerBound(ix) <= val);
+      assertTrue(LatencyHistogram.bucketUpperBound(ix) >= val);
+    }
+    // Buckets are contiguous
+    for (int ix = 1; ix < 300; ix++) {
+      assertEquals(LatencyHistogram.bucketUpperBound(ix - 1) + 1,
+		   LatencyHistogram.bucketLowerBound(ix));
+    }
+  }
+
+  @Test
+  public void testPercentiles() throws Exception {
+    LatencyHistogram hist = new LatencyHistogram("test");
+    assertEquals(0, hist.getCount());
+    assertEquals(0, hist.getValueAtPercentile(50));
+    for (int ix = 1; ix <= 1000; ix++) {
+      hist.record(ix * 1000);
+    }
+    assertEquals(1000, hist.getCount());
+    assertEquals(1000000, hist.getMax());
+    assertEquals(500500.0, hist.getMean(), 0.1);
+    long p50 = hist.getValueAtPercentile(50);
+    assertTrue(p50 >= 500000 && p50 <= 500000 * 1.125);
+    long p99 = hist.getValueAtPercentile(99);
+    assertTrue(p99 >= 990000 && p99 <= 1000000);
+    assertEquals(1000000, hist.getValueAtPercentile(100));
+
+    hist.record(-5);
+    hist.record(Long.MAX_VALUE);
+    assertEquals(1002, hist.getCount());
+    assertEquals(0, hist.getValueAtPercentile(0.01));
+  }
+}
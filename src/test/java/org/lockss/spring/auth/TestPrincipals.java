@@ -0,0 +1,120 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.*;
+
+import org.junit.*;
+import org.lockss.test.LockssTestCase4;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * Test class for org.lockss.spring.auth.Principals
+ */
+public class TestPrincipals extends LockssTestCase4 {
+
+  @Test
+  public void testForUser() throws Exception {
+    Principals principals = new Principals();
+    UsernamePasswordAuthenticationToken t1 =
+      principals.forUser("fred", "auAdminRole,debugRole");
+    assertEquals("fred", t1.getName());
+    assertNull(t1.getCredentials());
+    assertTrue(t1.isAuthenticated());
+    assertEquals(Set.of("auAdminRole", "debugRole"), authorityNames(t1));
+    assertSame(t1, principals.forUser("fred", "auAdminRole,debugRole"));
+
+    // Users with the same roles share the authority list
+    UsernamePasswordAuthenticationToken t2 =
+      principals.forUser("ginger", "auAdminRole,debugRole");
+    assertNotSame(t1, t2);
+    assertSame(t1.getAuthorities(), t2.getAuthorities());
+
+    // A role change builds a new token
+    UsernamePasswordAuthenticationToken t3 =
+      principals.forUser("fred", "debugRole");
+    assertNotSame(t1, t3);
+    assertEquals(Set.of("debugRole"), authorityNames(t3));
+    assertEmpty(principals.forUser("fred", "").getAuthorities());
+  }
+
+  @Test
+  public void testTokensUnmodifiable() throws Exception {
+    Principals principals = new Principals();
+    UsernamePasswordAuthenticationToken tok =
+      principals.forUser("fred", "auAdminRole");
+    tok.setDetails("request details");
+    assertNull(tok.getDetails());
+    tok.eraseCredentials();
+    assertEquals("fred", tok.getName());
+    assertEquals(Set.of("auAdminRole"), authorityNames(tok));
+    for (boolean val : new boolean[] {true, false}) {
+      try {
+	tok.setAuthenticated(val);
+	fail("Should have thrown IllegalArgumentException");
+      } catch (IllegalArgumentException e) {
+      }
+    }
+    assertTrue(tok.isAuthenticated());
+    assertSame(tok, principals.forUser("fred", "auAdminRole"));
+
+    SpringAuthenticationFilter filt = new SpringAuthenticationFilter();
+    UsernamePasswordAuthenticationToken unauth =
+      filt.getPrivilegedUnauthenticatedUserToken();
+    unauth.eraseCredentials();
+    assertEquals("unauthenticatedPassword", unauth.getCredentials());
+    unauth.setDetails("x");
+    assertNull(unauth.getDetails());
+  }
+
+  @Test
+  public void testUnauthenticatedTokens() throws Exception {
+    SpringAuthenticationFilter filt = new SpringAuthenticationFilter();
+    assertSame(filt.getPrivilegedUnauthenticatedUserToken(),
+	       filt.getPrivilegedUnauthenticatedUserToken());
+    assertSame(filt.getUnprivilegedUnauthenticatedUserToken(),
+	       filt.getUnprivilegedUnauthenticatedUserToken());
+    assertEquals(Set.of(Roles.ROLE_ALL_ACCESS),
+		 authorityNames(filt.getPrivilegedUnauthenticatedUserToken()));
+    assertEquals(Set.of(Roles.ROLE_CONTENT_ACCESS),
+		 authorityNames(filt.getUnprivilegedUnauthenticatedUserToken()));
+  }
+
+  private Set<String> authorityNames(UsernamePasswordAuthenticationToken tok) {
+    Set<String> res = new HashSet<>();
+    for (GrantedAuthority auth : tok.getAuthorities()) {
+      res.add(auth.getAuthority());
+    }
+    return res;
+  }
+}
@@ -0,0 +1,133 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.*;
+import org.lockss.test.LockssTestCase4;
+import org.springframework.security.core.context.*;
+
+/**
+ * Test class for org.lockss.spring.auth.ScopedSecurityContextHolderStrategy
+ */
+public class TestScopedSecurityContextHolderStrategy extends LockssTestCase4 {
+
+  ScopedSecurityContextHolderStrategy strategy;
+  ExecutorService executor;
+
+  @Before
+  public void setUpStrategy() {
+    strategy = new ScopedSecurityContextHolderStrategy();
+    strategy.clearContext();
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDownStrategy() {
+    strategy.clearContext();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testBindRestore() throws Exception {
+    assertNull(strategy.peek());
+    SecurityContext outer = strategy.createEmptyContext();
+    SecurityContext inner = strategy.createEmptyContext();
+    assertNull(strategy.bind(outer));
+    assertSame(outer, strategy.getContext());
+    assertSame(outer, strategy.bind(inner));
+    assertSame(inner, strategy.getContext());
+    strategy.restore(outer);
+    assertSame(outer, strategy.getContext());
+    strategy.restore(null);
+    assertNull(strategy.peek());
+
+    // getContext() creates one if none bound
+    SecurityContext created = strategy.getContext();
+    assertNotNull(created);
+    assertSame(created, strategy.getContext());
+    try {
+      strategy.setContext(null);
+      fail("setContext(null) should throw");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test
+  public void testWrap() throws Exception {
+    SecurityContext ctx = strategy.createEmptyContext();
+    SecurityContext prev = strategy.bind(ctx);
+    AtomicReference<SecurityContext> seen = new AtomicReference<>();
+    Runnable task = strategy.wrap((Runnable)() -> seen.set(strategy.peek()));
+    Callable<SecurityContext> call =
+      strategy.wrap((Callable<SecurityContext>)() -> strategy.peek());
+    Executor wrapped = strategy.wrap((Executor)executor);
+    strategy.restore(prev);
+
+    // Tasks run with the same context instance, which is unbound after
+    executor.submit(task).get();
+    assertSame(ctx, seen.get());
+    assertSame(ctx, executor.submit(call).get());
+    assertNull(executor.submit(() -> strategy.peek()).get());
+
+    strategy.bind(ctx);
+    seen.set(null);
+    CountDownLatch done = new CountDownLatch(1);
+    wrapped.execute(() -> {
+	seen.set(strategy.peek());
+	done.countDown();
+      });
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertSame(ctx, seen.get());
+    assertNull(executor.submit(() -> strategy.peek()).get());
+  }
+
+  @Test
+  public void testPropagateDefaultStrategy() throws Exception {
+    SecurityContext ctx = SecurityContextHolder.createEmptyContext();
+    SecurityContextHolder.setContext(ctx);
+    try {
+      AtomicReference<SecurityContext> seen = new AtomicReference<>();
+      executor.submit(ScopedSecurityContextHolderStrategy.propagate(() -> {
+	    seen.set(SecurityContextHolder.getContext());
+	  })).get();
+      assertSame(ctx, seen.get());
+      assertSame(ctx,
+		 executor.submit(ScopedSecurityContextHolderStrategy.propagate(
+		   (Callable<SecurityContext>)SecurityContextHolder::getContext)).get());
+    } finally {
+      SecurityContextHolder.clearContext();
+    }
+  }
+}
@@ -27,12 +27,22 @@
  */
 package org.lockss.spring.auth;
 
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.LongSupplier;
+
+import static org.mockito.Mockito.*;
+
+import jakarta.servlet.http.HttpServletResponse;
 import org.junit.*;
 import org.junit.runner.RunWith;
+import org.lockss.account.*;
 import org.lockss.spring.test.SpringLockssTestCase4;
 import org.lockss.config.*;
 import org.lockss.log.*;
 import org.lockss.test.ConfigurationUtil;
+import org.springframework.mock.web.*;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.test.context.junit4.SpringRunner;
 
 /**
@@ -98,6 +108,58 @@ public class TestSpringAuthenticationFilter extends SpringLockssTestCase4 {
     assertTrue(authFilter.requiresIpAuthorization("GET", "/endpoint"));
   }
 
+  @Test
+  public void testRoutes() throws Exception {
+    try {
+      assertTrue(authFilter.requiresIpAuthorization("GET", "/health"));
+      SpringAuthenticationFilter.registerPublicRoute("GET", "/health");
+      assertFalse(authFilter.requiresIpAuthorization("GET", "/health"));
+      assertFalse(authFilter.requiresAuthentication("GET", "/health"));
+      assertTrue(authFilter.requiresAuthentication("PUT", "/health"));
+
+      ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_ROUTES,
+				    "* /aus/* read_allowed;GET /health auth_required;PUT /ip ip-only;GET /status auth_required;bogus");
+      // Configured routes take precedence over registered & builtin
+      assertTrue(authFilter.requiresIpAuthorization("GET", "/health"));
+      assertTrue(authFilter.requiresAuthentication("GET", "/health"));
+      assertTrue(authFilter.requiresAuthentication("GET", "/status"));
+      assertFalse(authFilter.requiresAuthentication("GET", "/aus/foo"));
+      assertFalse(authFilter.requiresAuthentication("get", "/AUS/foo"));
+      assertTrue(authFilter.requiresAuthentication("DELETE", "/aus/foo"));
+      assertTrue(authFilter.requiresIpAuthorization("GET", "/aus/foo"));
+      assertFalse(authFilter.requiresAuthentication("PUT", "/ip"));
+      assertTrue(authFilter.requiresIpAuthorization("PUT", "/ip"));
+      assertTrue(authFilter.requiresAuthentication("GET", "/ip"));
+      assertFalse(authFilter.requiresAuthentication("GET", "/v3/api-docs"));
+    } finally {
+      SpringAuthenticationFilter.clearRegisteredRoutes();
+    }
+  }
+
+  @Test
+  public void testGetClientIp() throws Exception {
+    MockHttpServletRequest req = new MockHttpServletRequest();
+    req.addHeader("X-Forwarded-For", "5.5.5.5, 6.6.6.6");
+    // X-Forwarded-For is ignored unless sent by a trusted proxy
+    assertEquals("1.2.3.4", authFilter.getClientIp(req, "1.2.3.4"));
+    assertEquals("::1", authFilter.getClientIp(req, "[::1]"));
+
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_TRUSTED_PROXIES,
+				  "10.0.0.0/8");
+    assertEquals("1.2.3.4", authFilter.getClientIp(req, "1.2.3.4"));
+    assertEquals("6.6.6.6", authFilter.getClientIp(req, "10.1.1.1"));
+    assertEquals("10.1.1.1",
+		 authFilter.getClientIp(new MockHttpServletRequest(),
+					"10.1.1.1"));
+    // Hops are followed back through trusted proxies only
+    req = new MockHttpServletRequest();
+    req.addHeader("X-Forwarded-For", "5.5.5.5, 6.6.6.6, 10.2.2.2");
+    assertEquals("6.6.6.6", authFilter.getClientIp(req, "10.1.1.1"));
+    req = new MockHttpServletRequest();
+    req.addHeader("X-Forwarded-For", "10.3.3.3, 10.2.2.2");
+    assertEquals("10.3.3.3", authFilter.getClientIp(req, "10.1.1.1"));
+  }
+
   @Test
   public void testIsIpAuthorized() throws Exception {
     // Loopback is allowed by default
@@ -136,6 +198,302 @@ public class TestSpringAuthenticationFilter extends SpringLockssTestCase4 {
     assertTrue(authFilter.isIpAuthorized("88.77.66.11", true));
   }
 
+  @Test
+  public void testCredentialCacheConfig() throws Exception {
+    CredentialCache cache = authFilter.getCredentialCache();
+    assertTrue(cache.isEnabled());
+    String hdr = "Basic dXNlcjpwYXNzd29yZA==";
+    String key = cache.keyFor(hdr);
+    assertNotNull(key);
+    assertNotEquals(hdr, key);
+    assertFalse(key.contains("dXNlcjpwYXNzd29yZA"));
+    assertEquals(key, cache.keyFor(hdr));
+    assertNotEquals(key, cache.keyFor("Basic Zm9vOmJhcg=="));
+    assertNull(cache.get(key, null));
+    assertEquals(1, cache.getMisses());
+    assertEquals(0, cache.getHits());
+
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_CREDENTIAL_CACHE_SIZE,
+				  "0");
+    cache = authFilter.getCredentialCache();
+    assertFalse(cache.isEnabled());
+    assertNull(cache.keyFor(hdr));
+    assertNull(cache.get(null, null));
+  }
+
+  /** Install a filter that uses the AccountManager, with basic auth
+   * enabled */
+  void useAccountManager(AccountManager acctMgr) {
+    authFilter = new SpringAuthenticationFilter() {
+	@Override
+	protected AccountManager getAccountManager(long wait) {
+	  return acctMgr;
+	}
+      };
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_AUTH_TYPE,
+				  SpringAuthenticationFilter.BASIC_AUTH_TYPE);
+  }
+
+  /** Send a request with the credentials through the filter, return
+   * the response status */
+  int doAuthRequest(String user, String password) throws Exception {
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", "/endpoint");
+    String creds = user + ":" + password;
+    req.addHeader("Authorization",
+		  "Basic " + Base64.getEncoder()
+		  .encodeToString(creds.getBytes(StandardCharsets.UTF_8)));
+    MockHttpServletResponse resp = new MockHttpServletResponse();
+    MockFilterChain chain = new MockFilterChain();
+    try {
+      authFilter.doFilter(req, resp, chain);
+    } finally {
+      SecurityContextHolder.clearContext();
+    }
+    if (resp.getStatus() == HttpServletResponse.SC_OK) {
+      assertSame(req, chain.getRequest());
+    }
+    return resp.getStatus();
+  }
+
+  @Test
+  public void testCredentialCache() throws Exception {
+    UserAccount acct = mock(UserAccount.class);
+    when(acct.getName()).thenReturn("fred");
+    when(acct.getPassword()).thenReturn("hash1");
+    when(acct.getRoles()).thenReturn("userAdminRole");
+    when(acct.isEnabled()).thenReturn(true);
+    when(acct.check("pw")).thenReturn(true);
+    AccountManager acctMgr = mock(AccountManager.class);
+    when(acctMgr.isStarted()).thenReturn(true);
+    when(acctMgr.getUserOrNull("fred")).thenReturn(acct);
+    useAccountManager(acctMgr);
+    CredentialCache cache = authFilter.getCredentialCache();
+
+    // The first request checks the password, the second is served from
+    // the cache
+    assertEquals(200, doAuthRequest("fred", "pw"));
+    verify(acct, times(1)).check("pw");
+    assertEquals(1, cache.getMisses());
+    assertEquals(0, cache.getHits());
+    assertEquals(200, doAuthRequest("fred", "pw"));
+    verify(acct, times(1)).check("pw");
+    assertEquals(1, cache.getHits());
+
+    // Different credentials aren't served from the cache
+    assertEquals(401, doAuthRequest("fred", "wrong"));
+    verify(acct, times(1)).check("wrong");
+    assertEquals(2, cache.getMisses());
+
+    // Changing the password invalidates the entry
+    when(acct.getPassword()).thenReturn("hash2");
+    assertEquals(200, doAuthRequest("fred", "pw"));
+    verify(acct, times(2)).check("pw");
+    assertEquals(3, cache.getMisses());
+    assertEquals(200, doAuthRequest("fred", "pw"));
+    verify(acct, times(2)).check("pw");
+    assertEquals(2, cache.getHits());
+
+    // So does changing the roles
+    when(acct.getRoles()).thenReturn("debugRole");
+    assertEquals(200, doAuthRequest("fred", "pw"));
+    verify(acct, times(3)).check("pw");
+    assertEquals(4, cache.getMisses());
+
+    // Disabling the account refuses the next request
+    when(acct.isEnabled()).thenReturn(false);
+    when(acct.check("pw")).thenReturn(false);
+    assertEquals(401, doAuthRequest("fred", "pw"));
+    verify(acct, times(4)).check("pw");
+    assertEquals(5, cache.getMisses());
+
+    // As does replacing the account
+    when(acct.isEnabled()).thenReturn(true);
+    when(acct.check("pw")).thenReturn(true);
+    assertEquals(200, doAuthRequest("fred", "pw"));
+    assertEquals(200, doAuthRequest("fred", "pw"));
+    verify(acct, times(5)).check("pw");
+    UserAccount acct2 = mock(UserAccount.class);
+    when(acct2.getName()).thenReturn("fred");
+    when(acct2.getPassword()).thenReturn("hash2");
+    when(acct2.getRoles()).thenReturn("debugRole");
+    when(acct2.isEnabled()).thenReturn(true);
+    when(acct2.check("pw")).thenReturn(true);
+    when(acctMgr.getUserOrNull("fred")).thenReturn(acct2);
+    assertEquals(200, doAuthRequest("fred", "pw"));
+    verify(acct2, times(1)).check("pw");
+
+    // A config change flushes the cache
+    assertEquals(200, doAuthRequest("fred", "pw"));
+    verify(acct2, times(1)).check("pw");
+    assertEquals(1, cache.size());
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_LOG_FORBIDDEN,
+				  "false");
+    assertSame(cache, authFilter.getCredentialCache());
+    assertEquals(0, cache.size());
+    assertEquals(200, doAuthRequest("fred", "pw"));
+    verify(acct2, times(2)).check("pw");
+
+    // The counters are published
+    Map<String,LongSupplier> counters = new HashMap<>();
+    authFilter.publishMetrics(new MetricsRegistry() {
+	public void registerCounter(String name, LongSupplier value) {
+	  counters.put(name, value);
+	}
+	public void registerHistogram(String name, LatencyHistogram hist) {
+	}
+      });
+    assertEquals(cache.getHits(),
+		 counters.get("lockss.restAuth.credentialCache.hits").getAsLong());
+    assertEquals(cache.getMisses(),
+		 counters.get("lockss.restAuth.credentialCache.misses").getAsLong());
+  }
+
+  @Test
+  public void testIpDecisionCache() throws Exception {
+    assertTrue(authFilter.isRemoteAddrAuthorized("127.0.0.1", false));
+    assertTrue(authFilter.isRemoteAddrAuthorized("[::1]", false));
+    assertFalse(authFilter.isRemoteAddrAuthorized("1.2.3.4", false));
+    assertFalse(authFilter.isForwardedForAuthorized("127.0.0.1, 1.2.3.4",
+						    false));
+    assertTrue(authFilter.isForwardedForAuthorized("1.2.3.4, 127.0.0.1",
+						   false));
+
+    // Cached decisions must not survive an access list change
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_IP_INCLUDE,
+				  "1.2.3.0/24");
+    assertTrue(authFilter.isRemoteAddrAuthorized("1.2.3.4", false));
+    assertTrue(authFilter.isForwardedForAuthorized("127.0.0.1, 1.2.3.4",
+						   false));
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_ALLOW_LOOPBACK,
+				  "false");
+    assertFalse(authFilter.isRemoteAddrAuthorized("127.0.0.1", false));
+    assertFalse(authFilter.isRemoteAddrAuthorized("[::1]", false));
+    assertFalse(authFilter.isForwardedForAuthorized("1.2.3.4, 127.0.0.1",
+						    false));
+  }
+
+  @Test
+  public void testIpDecisionCacheSize() throws Exception {
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_IP_DECISION_CACHE_SIZE,
+				  "300");
+    IpDecisionCache cache = authFilter.getPolicy().ipDecisionCache;
+    assertEquals(512, cache.getSize());
+    assertEquals(300, cache.getConfiguredSize());
+    // A reload with the same size keeps the cache
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_LOG_FORBIDDEN,
+				  "false");
+    assertSame(cache, authFilter.getPolicy().ipDecisionCache);
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_IP_DECISION_CACHE_SIZE,
+				  "-1");
+    cache = authFilter.getPolicy().ipDecisionCache;
+    assertEquals(0, cache.getSize());
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_LOG_FORBIDDEN,
+				  "true");
+    assertSame(cache, authFilter.getPolicy().ipDecisionCache);
+  }
+
+  @Test
+  public void testPolicy() throws Exception {
+    AuthPolicy p1 = authFilter.getPolicy();
+    assertFalse(authFilter.isAuthenticationOn());
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_AUTH_TYPE,
+				  SpringAuthenticationFilter.BASIC_AUTH_TYPE);
+    AuthPolicy p2 = authFilter.getPolicy();
+    assertNotSame(p1, p2);
+    assertTrue(p2.isConfigSet);
+    assertEquals(AuthPolicy.AuthMode.BASIC, p2.authMode);
+    assertTrue(p2.generation > p1.generation);
+    assertTrue(authFilter.isAuthenticationOn());
+    // The earlier snapshot is unaffected
+    assertFalse(authFilter.isAuthenticationOn(p1));
+
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_AUTH_TYPE,
+				  "bogus");
+    assertNull(authFilter.getPolicy().authMode);
+    try {
+      authFilter.isAuthenticationOn();
+      fail("Invalid auth type should throw");
+    } catch (java.security.AccessControlException e) {
+    }
+  }
+
+  @Test
+  public void testTokenConfig() throws Exception {
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_AUTH_TYPE,
+				  SpringAuthenticationFilter.TOKEN_AUTH_TYPE);
+    assertEquals(AuthPolicy.AuthMode.TOKEN, authFilter.getPolicy().authMode);
+    assertTrue(authFilter.isAuthenticationOn());
+    BearerTokens tokens = authFilter.getBearerTokens();
+    assertNull(tokens.verify("", null));
+    assertNull(tokens.verify("bogus", null));
+    assertNull(tokens.verify("!!!.???", null));
+    assertNull(tokens.verify("MTpeeHg.c2ln", null));
+    assertEquals(4, tokens.getRejectedCount());
+
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_TOKEN_KEY_ROTATION_INTERVAL,
+				  "10m");
+    assertNotSame(tokens, authFilter.getBearerTokens());
+    tokens = authFilter.getBearerTokens();
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_ALLOW_UNAUTHENTICATED_READ,
+				  "true");
+    assertSame(tokens, authFilter.getBearerTokens());
+
+    assertTrue(SpringAuthenticationFilter.isBearerAuthorization("Bearer abc"));
+    assertTrue(SpringAuthenticationFilter.isBearerAuthorization("bearer abc"));
+    assertFalse(SpringAuthenticationFilter.isBearerAuthorization("Basic abc"));
+    assertFalse(SpringAuthenticationFilter.isBearerAuthorization("Bear"));
+  }
+
+  @Test
+  public void testX509Config() throws Exception {
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_AUTH_TYPE,
+				  SpringAuthenticationFilter.X509_AUTH_TYPE);
+    assertEquals(AuthPolicy.AuthMode.X509, authFilter.getPolicy().authMode);
+    assertTrue(authFilter.isAuthenticationOn());
+    X509UserCache users = authFilter.getX509Users();
+    assertTrue(users.isSameAs(SpringAuthenticationFilter.DEFAULT_X509_CACHE_SIZE,
+			      SpringAuthenticationFilter.DEFAULT_X509_USER_ATTRIBUTE));
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_ALLOW_UNAUTHENTICATED_READ,
+				  "true");
+    assertSame(users, authFilter.getX509Users());
+    ConfigurationUtil.addFromArgs(SpringAuthenticationFilter.PARAM_X509_USER_ATTRIBUTE,
+				  "UID");
+    assertNotSame(users, authFilter.getX509Users());
+    assertTrue(authFilter.getX509Users().isSameAs(SpringAuthenticationFilter.DEFAULT_X509_CACHE_SIZE,
+						  "UID"));
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", "/status");
+    MockFilterChain chain = new MockFilterChain();
+    authFilter.doFilter(req, new MockHttpServletResponse(), chain);
+    assertSame(req, chain.getRequest());
+    AuthMetrics metrics = authFilter.getMetrics();
+    assertEquals(1, metrics.getCount(AuthMetrics.Outcome.ALLOWED));
+    assertEquals(0, metrics.getCount(AuthMetrics.Outcome.FORBIDDEN_IP));
+    assertEquals(1, metrics.getFilterLatency().getCount());
+
+    Map<String,LongSupplier> counters = new HashMap<>();
+    Map<String,LatencyHistogram> hists = new HashMap<>();
+    authFilter.publishMetrics(new MetricsRegistry() {
+	public void registerCounter(String name, LongSupplier value) {
+	  counters.put(name, value);
+	}
+	public void registerHistogram(String name, LatencyHistogram hist) {
+	  hists.put(name, hist);
+	}
+      });
+    assertEquals(1,
+		 counters.get("lockss.restAuth.outcome.allowed").getAsLong());
+    assertEquals(0,
+		 counters.get("lockss.restAuth.outcome.throttled").getAsLong());
+    assertTrue(counters.containsKey("lockss.restAuth.throttle.rejected"));
+    assertSame(metrics.getFilterLatency(),
+	       hists.get("lockss.restAuth.latency.filter"));
+    assertEquals(3, hists.size());
+  }
+
   @Test
   public void testLastElement() throws Exception {
     assertEquals("1.2.3.4", authFilter.lastElement("1.2.3.4"));
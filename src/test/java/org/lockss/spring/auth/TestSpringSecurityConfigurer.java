@@ -0,0 +1,195 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.io.IOException;
+import java.util.List;
+
+import jakarta.servlet.*;
+import jakarta.servlet.http.*;
+import org.junit.*;
+import org.lockss.test.LockssTestCase4;
+import org.springframework.context.annotation.*;
+import org.springframework.mock.web.*;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.*;
+import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.AnonymousAuthenticationFilter;
+import org.springframework.security.web.authentication.logout.LogoutFilter;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.security.web.csrf.CsrfFilter;
+import org.springframework.security.web.header.HeaderWriterFilter;
+import org.springframework.security.web.savedrequest.RequestCacheAwareFilter;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Test class for org.lockss.spring.auth.SpringSecurityConfigurer
+ */
+public class TestSpringSecurityConfigurer extends LockssTestCase4 {
+
+  static final String USER_HEADER = "X-Test-User";
+
+  AnnotationConfigWebApplicationContext ctx;
+  Filter proxy;
+
+  /** Builds the lean chain, with a stand-in for the LOCKSS filter */
+  @Configuration
+  @EnableWebSecurity
+  public static class LeanChainConfig {
+    @Bean
+    public SecurityFilterChain filterChain(HttpSecurity http)
+	throws Exception {
+      new SpringSecurityConfigurer().configureLeanChain(http);
+      http.addFilterBefore(new HeaderAuthFilter(),
+			   BasicAuthenticationFilter.class);
+      return http.build();
+    }
+  }
+
+  /** Authenticates the user named in the X-Test-User header, if any */
+  static class HeaderAuthFilter extends OncePerRequestFilter {
+    @Override
+    protected void doFilterInternal(HttpServletRequest req,
+				    HttpServletResponse resp,
+				    FilterChain chain)
+	throws ServletException, IOException {
+      String user = req.getHeader(USER_HEADER);
+      if (user != null) {
+	SecurityContextHolder.getContext()
+	  .setAuthentication(new UsernamePasswordAuthenticationToken(user, null,
+								     AuthorityUtils.NO_AUTHORITIES));
+      }
+      chain.doFilter(req, resp);
+    }
+  }
+
+  @Before
+  public void setUpContext() {
+    ctx = new AnnotationConfigWebApplicationContext();
+    ctx.setServletContext(new MockServletContext());
+    ctx.register(LeanChainConfig.class);
+    ctx.refresh();
+    proxy = ctx.getBean("springSecurityFilterChain", Filter.class);
+  }
+
+  @After
+  public void tearDownContext() {
+    SecurityContextHolder.clearContext();
+    if (ctx != null) {
+      ctx.close();
+    }
+  }
+
+  @Test
+  public void testFilters() throws Exception {
+    List<Filter> filters = ctx.getBean(SecurityFilterChain.class).getFilters();
+    assertTrue(hasFilter(filters, HeaderWriterFilter.class));
+    assertFalse(hasFilter(filters, CsrfFilter.class));
+    assertFalse(hasFilter(filters, LogoutFilter.class));
+    assertFalse(hasFilter(filters, RequestCacheAwareFilter.class));
+    assertFalse(hasFilter(filters, AnonymousAuthenticationFilter.class));
+  }
+
+  @Test
+  public void testUnauthenticated() throws Exception {
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", "/aus");
+    MockHttpServletResponse resp = new MockHttpServletResponse();
+    MockFilterChain chain = new MockFilterChain();
+    proxy.doFilter(req, resp, chain);
+    assertNull(chain.getRequest());
+    assertTrue("Status: " + resp.getStatus(),
+	       resp.getStatus() == HttpServletResponse.SC_UNAUTHORIZED
+	       || resp.getStatus() == HttpServletResponse.SC_FORBIDDEN);
+    assertNull(req.getSession(false));
+  }
+
+  @Test
+  public void testAuthenticated() throws Exception {
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", "/aus");
+    req.addHeader(USER_HEADER, "fred");
+    MockHttpServletResponse resp = new MockHttpServletResponse();
+    MockFilterChain chain = new MockFilterChain();
+    proxy.doFilter(req, resp, chain);
+    assertNotNull(chain.getRequest());
+    assertEquals(HttpServletResponse.SC_OK, resp.getStatus());
+    // Nothing is stored in a session or left bound to the thread
+    assertNull(req.getSession(false));
+    assertNull(SecurityContextHolder.getContext().getAuthentication());
+    // Default security headers are still written
+    assertEquals("nosniff", resp.getHeader("X-Content-Type-Options"));
+    assertTrue(resp.getHeader("Cache-Control").contains("no-store"));
+  }
+
+  @Test
+  public void testSessionContextIgnored() throws Exception {
+    // An authenticated context in the session isn't restored
+    SecurityContext sc = SecurityContextHolder.createEmptyContext();
+    sc.setAuthentication(new UsernamePasswordAuthenticationToken("fred", null,
+								 AuthorityUtils.NO_AUTHORITIES));
+    MockHttpSession session = new MockHttpSession();
+    session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY,
+			 sc);
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", "/aus");
+    req.setSession(session);
+    MockHttpServletResponse resp = new MockHttpServletResponse();
+    MockFilterChain chain = new MockFilterChain();
+    proxy.doFilter(req, resp, chain);
+    assertNull(chain.getRequest());
+    assertTrue("Status: " + resp.getStatus(),
+	       resp.getStatus() == HttpServletResponse.SC_UNAUTHORIZED
+	       || resp.getStatus() == HttpServletResponse.SC_FORBIDDEN);
+  }
+
+  @Test
+  public void testErrorDispatch() throws Exception {
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", "/error");
+    req.setDispatcherType(DispatcherType.ERROR);
+    MockHttpServletResponse resp = new MockHttpServletResponse();
+    MockFilterChain chain = new MockFilterChain();
+    proxy.doFilter(req, resp, chain);
+    assertNotNull(chain.getRequest());
+  }
+
+  boolean hasFilter(List<Filter> filters, Class<? extends Filter> cls) {
+    for (Filter f : filters) {
+      if (cls.isInstance(f)) {
+	return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,111 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.*;
+import org.lockss.test.LockssTestCase4;
+import org.lockss.util.time.Deadline;
+import org.springframework.mock.web.*;
+
+/**
+ * Test class for org.lockss.spring.auth.StartupGate
+ */
+public class TestStartupGate extends LockssTestCase4 {
+
+  AtomicBoolean ready = new AtomicBoolean(false);
+  StartupGate gate;
+
+  @Before
+  public void setUpGate() {
+    gate = new StartupGate("test",
+			   new StartupGate.Readiness() {
+			     public boolean isReady() {
+			       return ready.get();
+			     }
+			     public boolean await(long wait) {
+			       Deadline until = Deadline.in(wait);
+			       while (!ready.get() && !until.expired()) {
+				 try {
+				   Thread.sleep(10);
+				 } catch (InterruptedException e) {
+				 }
+			       }
+			       return ready.get();
+			     }
+			   },
+			   resp -> resp.sendError(503));
+  }
+
+  MockHttpServletRequest makeReq(String uri) {
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", uri);
+    req.setAsyncSupported(true);
+    return req;
+  }
+
+  @Test
+  public void testNotSupported() throws Exception {
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", "/foo");
+    assertEquals(StartupGate.Result.NOT_SUSPENDED,
+		 gate.suspend(req, new MockHttpServletResponse(), 10000, 10));
+    assertEquals(StartupGate.Result.NOT_SUSPENDED,
+		 gate.suspend(makeReq("/foo"), new MockHttpServletResponse(),
+			      10000, 0));
+  }
+
+  @Test
+  public void testSuspendAndResume() throws Exception {
+    MockHttpServletRequest req1 = makeReq("/foo");
+    MockHttpServletRequest req2 = makeReq("/bar");
+    MockHttpServletRequest req3 = makeReq("/baz");
+    assertEquals(StartupGate.Result.SUSPENDED,
+		 gate.suspend(req1, new MockHttpServletResponse(), 10000, 2));
+    assertEquals(StartupGate.Result.SUSPENDED,
+		 gate.suspend(req2, new MockHttpServletResponse(), 10000, 2));
+    assertEquals(StartupGate.Result.FULL,
+		 gate.suspend(req3, new MockHttpServletResponse(), 10000, 2));
+    assertEquals(2, gate.getWaitingCount());
+    assertNull(((MockAsyncContext)req1.getAsyncContext()).getDispatchedPath());
+
+    ready.set(true);
+    Deadline until = Deadline.in(10000);
+    while (gate.getWaitingCount() > 0 && !until.expired()) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, gate.getWaitingCount());
+    assertEquals("/foo",
+		 ((MockAsyncContext)req1.getAsyncContext()).getDispatchedPath());
+    assertEquals("/bar",
+		 ((MockAsyncContext)req2.getAsyncContext()).getDispatchedPath());
+  }
+}
@@ -0,0 +1,165 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import org.junit.*;
+import org.lockss.test.LockssTestCase4;
+import org.lockss.util.time.TimeBase;
+
+/**
+ * Test class for org.lockss.spring.auth.TokenBuckets and LoginThrottle
+ */
+public class TestTokenBuckets extends LockssTestCase4 {
+
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    TimeBase.setSimulated(1000000);
+  }
+
+  @Test
+  public void testBurstAndRefill() throws Exception {
+    TokenBuckets tb = new TokenBuckets(16, 3, 1000);
+    assertTrue(tb.isAvailable("a"));
+    for (int ix = 0; ix < 3; ix++) {
+      assertTrue(tb.tryAcquire("a"));
+    }
+    assertFalse(tb.tryAcquire("a"));
+    assertFalse(tb.isAvailable("a"));
+    assertEquals(1000, tb.timeUntilAvailable("a"));
+    TimeBase.step(999);
+    assertFalse(tb.tryAcquire("a"));
+    assertEquals(1, tb.timeUntilAvailable("a"));
+    TimeBase.step(1);
+    assertTrue(tb.tryAcquire("a"));
+    assertFalse(tb.tryAcquire("a"));
+    // Idle buckets refill completely, but no further
+    TimeBase.step(100000);
+    for (int ix = 0; ix < 3; ix++) {
+      assertTrue(tb.tryAcquire("a"));
+    }
+    assertFalse(tb.tryAcquire("a"));
+  }
+
+  @Test
+  public void testSlowRate() throws Exception {
+    // Frequent checks mustn't lose the time between them to rounding
+    TokenBuckets tb = new TokenBuckets(16, 1, 60000);
+    assertTrue(tb.tryAcquire("x"));
+    for (int ix = 0; ix < 599; ix++) {
+      TimeBase.step(100);
+      assertFalse(tb.tryAcquire("x"));
+    }
+    TimeBase.step(100);
+    assertTrue(tb.tryAcquire("x"));
+
+    tb.consume("y");
+    tb.consume("y");
+    assertFalse(tb.isAvailable("y"));
+    TimeBase.step(60000);
+    assertTrue(tb.isAvailable("y"));
+  }
+
+  @Test
+  public void testIllegal() throws Exception {
+    assertIllegal(16, 0, 1000);
+    assertIllegal(16, TokenBuckets.MAX_BURST + 1, 1000);
+    assertIllegal(16, 1, 0);
+  }
+
+  private void assertIllegal(int stripes, int burst, long interval) {
+    try {
+      new TokenBuckets(stripes, burst, interval);
+      fail("Should have thrown IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test
+  public void testLoginThrottle() throws Exception {
+    LoginThrottle lt = new LoginThrottle();
+    lt.setUserFailureLimit(64, 2, 1000);
+    lt.setIpFailureLimit(64, 3, 1000);
+    assertEquals(0, lt.checkUser("u"));
+    assertEquals(0, lt.checkIp("1.2.3.4"));
+    lt.recordFailure("u", "1.2.3.4");
+    lt.recordFailure("u", "1.2.3.4");
+    assertTrue(lt.checkUser("u") > 0);
+    assertEquals(0, lt.checkIp("1.2.3.4"));
+    lt.recordFailure(null, "1.2.3.4");
+    assertTrue(lt.checkIp("1.2.3.4") > 0);
+    assertEquals(0, lt.checkIp("1.2.3.5"));
+    assertEquals(2, lt.getRejectedCount());
+    assertEquals(3, lt.getFailureCount());
+    TimeBase.step(1000);
+    assertEquals(0, lt.checkUser("u"));
+    assertEquals(0, lt.checkIp("1.2.3.4"));
+
+    // Request rate limit
+    lt.setIpRequestLimit(64, 2, 1000);
+    assertEquals(0, lt.checkIp("5.6.7.8"));
+    assertEquals(0, lt.checkIp("5.6.7.8"));
+    assertTrue(lt.checkIp("5.6.7.8") > 0);
+    lt.setIpRequestLimit(64, 0, 1000);
+    assertEquals(0, lt.checkIp("5.6.7.8"));
+  }
+
+  @Test
+  public void testUserFailures() throws Exception {
+    LoginThrottle lt = new LoginThrottle();
+    lt.setUserFailureLimit(3, 2, 1000);
+    // Each user has its own bucket, so failures for other names never
+    // affect a user
+    for (int ix = 0; ix < 100; ix++) {
+      lt.recordFailure("name" + ix, null);
+      lt.recordFailure("name" + ix, null);
+    }
+    assertEquals(3, lt.getUserFailureCount());
+    assertEquals(0, lt.checkUser("u"));
+    assertTrue(lt.checkUser("name99") > 0);
+    // The least recently failed are forgotten
+    assertEquals(0, lt.checkUser("name0"));
+
+    lt.recordFailure("u", null);
+    assertEquals(0, lt.checkUser("u"));
+    // Success forgets earlier failures
+    lt.recordSuccess("u");
+    lt.recordFailure("u", null);
+    assertEquals(0, lt.checkUser("u"));
+    lt.recordFailure("u", null);
+    assertTrue(lt.checkUser("u") > 0);
+
+    lt.setUserFailureLimit(3, 0, 1000);
+    assertEquals(0, lt.checkUser("u"));
+    assertEquals(0, lt.getUserFailureCount());
+  }
+}
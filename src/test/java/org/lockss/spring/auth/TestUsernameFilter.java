@@ -0,0 +1,106 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.*;
+
+import org.junit.*;
+import org.lockss.log.L4JLogger;
+import org.lockss.test.LockssTestCase4;
+
+/**
+ * Test class for org.lockss.spring.auth.UsernameFilter
+ */
+public class TestUsernameFilter extends LockssTestCase4 {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  static final int NUM_NAMES = 100000;
+
+  List<String> makeNames(String prefix, int n) {
+    List<String> res = new ArrayList<>(n);
+    for (int ix = 0; ix < n; ix++) {
+      res.add(prefix + ix);
+    }
+    return res;
+  }
+
+  @Test
+  public void testSmall() throws Exception {
+    UsernameFilter filt =
+      UsernameFilter.build(List.of("admin", "fred", "Ginger"), 0.01);
+    assertEquals(3, filt.size());
+    assertTrue(filt.mightContain("admin"));
+    assertTrue(filt.mightContain("fred"));
+    assertTrue(filt.mightContain("Ginger"));
+    assertFalse(UsernameFilter.build(Collections.emptyList(), 0.01)
+		.mightContain("admin"));
+  }
+
+  @Test
+  public void testIllegal() throws Exception {
+    for (double fpp : new double[] {0, 1, -0.1, Double.NaN}) {
+      try {
+	UsernameFilter.build(List.of("a"), fpp);
+	fail("fpp " + fpp + " should be illegal");
+      } catch (IllegalArgumentException e) {
+      }
+    }
+  }
+
+  /** Build from 100k names, check there are no false negatives and the
+   * false positive rate is close to that requested, and report the
+   * build time, which is most of the time KnownUsers takes to rebuild
+   * the filter */
+  @Test
+  public void testLarge() throws Exception {
+    List<String> names = makeNames("user", NUM_NAMES);
+    List<String> others = makeNames("other", NUM_NAMES);
+    for (double fpp : new double[] {0.1, 0.01, 0.001}) {
+      long start = System.nanoTime();
+      UsernameFilter filt = UsernameFilter.build(names, fpp);
+      long elapsed = System.nanoTime() - start;
+      log.info("Built {} in {}ms", filt, elapsed / 1000000);
+      for (String name : names) {
+	assertTrue(name, filt.mightContain(name));
+      }
+      int falsePos = 0;
+      for (String name : others) {
+	if (filt.mightContain(name)) {
+	  falsePos++;
+	}
+      }
+      double rate = (double)falsePos / NUM_NAMES;
+      assertTrue("False positive rate " + rate + " > " + fpp,
+		 rate < fpp * 1.5);
+    }
+  }
+}
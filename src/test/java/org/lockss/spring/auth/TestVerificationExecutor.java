@@ -0,0 +1,155 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.*;
+import org.lockss.test.LockssTestCase4;
+import org.lockss.util.time.Deadline;
+import org.springframework.mock.web.*;
+
+/**
+ * Test class for org.lockss.spring.auth.VerificationExecutor
+ */
+public class TestVerificationExecutor extends LockssTestCase4 {
+
+  VerificationExecutor exec;
+
+  @After
+  public void tearDownExecutor() {
+    if (exec != null) {
+      exec.shutdown();
+    }
+  }
+
+  MockHttpServletRequest makeReq(String uri) {
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", uri);
+    req.setAsyncSupported(true);
+    return req;
+  }
+
+  String waitDispatched(MockHttpServletRequest req) throws Exception {
+    MockAsyncContext actx = (MockAsyncContext)req.getAsyncContext();
+    Deadline until = Deadline.in(10000);
+    while (actx.getDispatchedPath() == null && !until.expired()) {
+      Thread.sleep(10);
+    }
+    return actx.getDispatchedPath();
+  }
+
+  @Test
+  public void testNotAsync() throws Exception {
+    exec = new VerificationExecutor(1, 1);
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", "/foo");
+    assertEquals(VerificationExecutor.Result.NOT_ASYNC,
+		 exec.submit(req, new MockHttpServletResponse(), 10000,
+			     resp -> resp.sendError(503), () -> "result"));
+    assertFalse(req.isAsyncStarted());
+  }
+
+  @Test
+  public void testSubmit() throws Exception {
+    exec = new VerificationExecutor(1, 1);
+    MockHttpServletRequest req = makeReq("/foo");
+    assertEquals(VerificationExecutor.Result.SUBMITTED,
+		 exec.submit(req, new MockHttpServletResponse(), 10000,
+			     resp -> resp.sendError(503), () -> "result"));
+    assertEquals("/foo", waitDispatched(req));
+    assertEquals("result",
+		 req.getAttribute(VerificationExecutor.RESULT_ATTR));
+  }
+
+  @Test
+  public void testCheckThrows() throws Exception {
+    exec = new VerificationExecutor(1, 1);
+    MockHttpServletRequest req = makeReq("/foo");
+    MockHttpServletResponse resp = new MockHttpServletResponse();
+    assertEquals(VerificationExecutor.Result.SUBMITTED,
+		 exec.submit(req, resp, 10000,
+			     r -> r.sendError(503),
+			     () -> {
+			       throw new IllegalStateException("check failed");
+			     }));
+    Deadline until = Deadline.in(10000);
+    while (req.isAsyncStarted() && !until.expired()) {
+      Thread.sleep(10);
+    }
+    assertFalse(req.isAsyncStarted());
+    assertEquals(500, resp.getStatus());
+    assertNull(req.getAttribute(VerificationExecutor.RESULT_ATTR));
+    assertNull(((MockAsyncContext)req.getAsyncContext()).getDispatchedPath());
+
+    // The pool thread survives
+    req = makeReq("/bar");
+    assertEquals(VerificationExecutor.Result.SUBMITTED,
+		 exec.submit(req, new MockHttpServletResponse(), 10000,
+			     r -> r.sendError(503), () -> "result"));
+    assertEquals("/bar", waitDispatched(req));
+  }
+
+  @Test
+  public void testSaturated() throws Exception {
+    exec = new VerificationExecutor(1, 1);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    MockHttpServletRequest req1 = makeReq("/one");
+    MockHttpServletRequest req2 = makeReq("/two");
+    MockHttpServletRequest req3 = makeReq("/three");
+    assertEquals(VerificationExecutor.Result.SUBMITTED,
+		 exec.submit(req1, new MockHttpServletResponse(), 10000,
+			     resp -> resp.sendError(503),
+			     () -> {
+			       started.countDown();
+			       try {
+				 release.await();
+			       } catch (InterruptedException e) {
+			       }
+			       return "one";
+			     }));
+    started.await();
+    assertEquals(VerificationExecutor.Result.SUBMITTED,
+		 exec.submit(req2, new MockHttpServletResponse(), 10000,
+			     resp -> resp.sendError(503), () -> "two"));
+    assertEquals(VerificationExecutor.Result.SATURATED,
+		 exec.submit(req3, new MockHttpServletResponse(), 10000,
+			     resp -> resp.sendError(503), () -> "three"));
+    assertTrue(req3.isAsyncStarted());
+    assertEquals(1, exec.getRejectedCount());
+
+    release.countDown();
+    assertEquals("/one", waitDispatched(req1));
+    assertEquals("/two", waitDispatched(req2));
+    assertEquals("two", req2.getAttribute(VerificationExecutor.RESULT_ATTR));
+    assertNull(req3.getAttribute(VerificationExecutor.RESULT_ATTR));
+  }
+}
@@ -0,0 +1,122 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.auth;
+
+import java.io.*;
+import java.nio.file.Paths;
+import java.security.*;
+import java.security.cert.X509Certificate;
+import java.util.*;
+
+import org.junit.*;
+import org.lockss.test.LockssTestCase4;
+
+/**
+ * Test class for org.lockss.spring.auth.X509UserCache
+ */
+public class TestX509UserCache extends LockssTestCase4 {
+
+  static final String PASSWORD = "changeit";
+
+  File keystore;
+
+  @Before
+  public void setUpCerts() throws Exception {
+    keystore = new File(getTempDir(), "certs.p12");
+    genCert("fred", "CN=fred, OU=LOCKSS, O=Stanford");
+    genCert("ginger", "CN=ginger, CN=extra, O=Stanford");
+    genCert("anon", "OU=LOCKSS, O=Stanford");
+  }
+
+  /** Generate a self-signed certificate with keytool */
+  void genCert(String alias, String dname) throws Exception {
+    String keytool =
+      Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+    Process proc =
+      new ProcessBuilder(keytool, "-genkeypair", "-keyalg", "EC",
+			 "-alias", alias, "-dname", dname,
+			 "-validity", "2",
+			 "-storetype", "PKCS12",
+			 "-keystore", keystore.toString(),
+			 "-storepass", PASSWORD)
+      .redirectErrorStream(true)
+      .start();
+    proc.getInputStream().readAllBytes();
+    assertEquals("keytool exit status", 0, proc.waitFor());
+  }
+
+  X509Certificate getCert(String alias) throws Exception {
+    KeyStore ks = KeyStore.getInstance("PKCS12");
+    try (InputStream in = new FileInputStream(keystore)) {
+      ks.load(in, PASSWORD.toCharArray());
+    }
+    return (X509Certificate)ks.getCertificate(alias);
+  }
+
+  @Test
+  public void testUserNameOf() throws Exception {
+    X509UserCache cn = new X509UserCache(10, "CN");
+    assertEquals("fred", cn.userNameOf(getCert("fred")));
+    // The most specific (leftmost) CN is used
+    assertEquals("ginger", cn.userNameOf(getCert("ginger")));
+    assertNull(cn.userNameOf(getCert("anon")));
+
+    X509UserCache ou = new X509UserCache(10, "ou");
+    assertEquals("LOCKSS", ou.userNameOf(getCert("fred")));
+    assertEquals("LOCKSS", ou.userNameOf(getCert("anon")));
+    assertNull(ou.userNameOf(getCert("ginger")));
+  }
+
+  @Test
+  public void testFingerprint() throws Exception {
+    X509Certificate fred = getCert("fred");
+    String fp = X509UserCache.fingerprint(fred);
+    assertEquals(64, fp.length());
+    assertTrue(fp.matches("[0-9a-f]+"));
+    assertEquals(fp, X509UserCache.fingerprint(getCert("fred")));
+    assertNotEquals(fp, X509UserCache.fingerprint(getCert("ginger")));
+
+    byte[] digest =
+      MessageDigest.getInstance("SHA-256").digest(fred.getEncoded());
+    assertEquals(new java.math.BigInteger(1, digest).toString(16),
+		 fp.replaceFirst("^0+", ""));
+  }
+
+  @Test
+  public void testIsSameAs() throws Exception {
+    X509UserCache users = new X509UserCache(10, "CN");
+    assertTrue(users.isSameAs(10, "CN"));
+    assertFalse(users.isSameAs(11, "CN"));
+    assertFalse(users.isSameAs(10, "UID"));
+    assertEquals(0, users.size());
+  }
+}
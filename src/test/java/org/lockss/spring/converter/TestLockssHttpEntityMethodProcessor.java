@@ -0,0 +1,799 @@
+/*
+
+Copyright (c) 2000-2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation and/or
+other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+may be used to endorse or promote products derived from this software without
+specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package org.lockss.spring.converter;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.*;
+import java.util.zip.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.*;
+import org.junit.*;
+import org.lockss.test.LockssTestCase4;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.*;
+import org.springframework.http.converter.*;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.web.*;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.accept.ContentNegotiationManager;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Test class for org.lockss.spring.converter.LockssHttpEntityMethodProcessor
+ */
+public class TestLockssHttpEntityMethodProcessor extends LockssTestCase4 {
+
+  LockssHttpEntityMethodProcessor processor;
+  MethodParameter returnType;
+
+  public ResponseEntity<String> handler() {
+    return null;
+  }
+
+  public ResponseEntity<Stream<?>> streamHandler() {
+    return null;
+  }
+
+  public ResponseEntity<Iterator<?>> iteratorHandler() {
+    return null;
+  }
+
+  public ResponseEntity<Iterable<?>> iterableHandler() {
+    return null;
+  }
+
+  public ResponseEntity<JsonNode> jsonNodeHandler() {
+    return null;
+  }
+
+  public ResponseEntity<Object> objectHandler() {
+    return null;
+  }
+
+  /** Handle subsequent responses as if returned by the named handler */
+  void returning(String handlerName) throws Exception {
+    returnType = new MethodParameter(getClass().getMethod(handlerName), -1);
+  }
+
+  public void consumer(HttpEntity<String> entity, RequestEntity<String> req) {
+  }
+
+  @Before
+  public void setUpProcessor() throws Exception {
+    List<HttpMessageConverter<?>> converters = new ArrayList<>();
+    converters.add(new ByteArrayHttpMessageConverter());
+    converters.add(new StringHttpMessageConverter());
+    processor =
+      new LockssHttpEntityMethodProcessor(converters,
+					  new ContentNegotiationManager());
+    returnType = new MethodParameter(getClass().getMethod("handler"), -1);
+  }
+
+  MockHttpServletResponse handle(ResponseEntity<?> entity, String accept)
+      throws Exception {
+    return handle(new MockHttpServletRequest("GET", "/foo"), entity, accept);
+  }
+
+  MockHttpServletResponse handleEncoded(ResponseEntity<?> entity,
+					String accept, String acceptEncoding)
+      throws Exception {
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", "/foo");
+    req.addHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+    return handle(req, entity, accept);
+  }
+
+  MockHttpServletResponse handle(MockHttpServletRequest req,
+				 ResponseEntity<?> entity, String accept)
+      throws Exception {
+    if (accept != null) {
+      req.addHeader(HttpHeaders.ACCEPT, accept);
+    }
+    MockHttpServletResponse resp = new MockHttpServletResponse();
+    processor.handleReturnValue(entity, returnType, new ModelAndViewContainer(),
+				new ServletWebRequest(req, resp));
+    return resp;
+  }
+
+  @Test
+  public void testNegotiationCache() throws Exception {
+    assertEquals(0, processor.getNegotiationCacheSize());
+    for (int ix = 0; ix < 3; ix++) {
+      MockHttpServletResponse resp =
+	handle(ResponseEntity.ok("body" + ix), "text/plain");
+      assertEquals("body" + ix, resp.getContentAsString());
+      assertTrue(resp.getContentType().startsWith("text/plain"));
+      assertEquals(1, processor.getNegotiationCacheSize());
+    }
+
+    MockHttpServletResponse resp = handle(ResponseEntity.ok("any"), "*/*");
+    assertEquals("any", resp.getContentAsString());
+    assertEquals(2, processor.getNegotiationCacheSize());
+
+    // An explicit Content-Type is a distinct negotiation
+    resp = handle(ResponseEntity.ok()
+		  .contentType(MediaType.TEXT_HTML).body("<p>"),
+		  "*/*");
+    assertEquals("<p>", resp.getContentAsString());
+    assertTrue(resp.getContentType().startsWith("text/html"));
+    assertEquals(3, processor.getNegotiationCacheSize());
+    resp = handle(ResponseEntity.ok("again"), "*/*");
+    assertTrue(resp.getContentType().startsWith("text/plain"));
+
+    // Unacceptable types aren't cached
+    try {
+      handle(ResponseEntity.ok("x"), "application/json");
+      fail("Should have thrown HttpMediaTypeNotAcceptableException");
+    } catch (HttpMediaTypeNotAcceptableException e) {
+    }
+    assertEquals(3, processor.getNegotiationCacheSize());
+  }
+
+  @Test
+  public void testEntityTypeCache() throws Exception {
+    assertEquals(0, processor.getEntityTypeCacheSize());
+    handle(ResponseEntity.ok("one"), "text/plain");
+    assertEquals(1, processor.getEntityTypeCacheSize());
+    MockHttpServletResponse resp = handle(ResponseEntity.ok("two"), "text/plain");
+    assertEquals("two", resp.getContentAsString());
+    assertEquals(1, processor.getEntityTypeCacheSize());
+
+    java.lang.reflect.Method consumer =
+      getClass().getMethod("consumer", HttpEntity.class, RequestEntity.class);
+    MethodParameter entityParam = new MethodParameter(consumer, 0);
+    MethodParameter requestParam = new MethodParameter(consumer, 1);
+    for (int ix = 0; ix < 2; ix++) {
+      Object arg = resolve(entityParam, "body" + ix);
+      assertFalse(arg instanceof RequestEntity);
+      assertEquals("body" + ix, ((HttpEntity<?>)arg).getBody());
+      arg = resolve(requestParam, "req" + ix);
+      assertTrue(arg instanceof RequestEntity);
+      assertEquals("req" + ix, ((HttpEntity<?>)arg).getBody());
+    }
+    assertEquals(3, processor.getEntityTypeCacheSize());
+  }
+
+  Object resolve(MethodParameter param, String body) throws Exception {
+    MockHttpServletRequest req = new MockHttpServletRequest("POST", "/foo");
+    req.setContentType("text/plain");
+    req.setContent(body.getBytes("UTF-8"));
+    return processor.resolveArgument(param, new ModelAndViewContainer(),
+				     new ServletWebRequest(req,
+							   new MockHttpServletResponse()),
+				     null);
+  }
+
+  File makeFile(String name, int size) throws IOException {
+    File file = new File(getTempDir(), name);
+    byte[] content = new byte[size];
+    for (int ix = 0; ix < size; ix++) {
+      content[ix] = (byte)('a' + ix % 26);
+    }
+    Files.write(file.toPath(), content);
+    return file;
+  }
+
+  @Test
+  public void testFileBodyTransfer() throws Exception {
+    File file = makeFile("small.txt", 1000);
+    byte[] content = Files.readAllBytes(file.toPath());
+    MockHttpServletResponse resp =
+      handle(ResponseEntity.ok(new FileSystemResource(file)), "*/*");
+    assertArrayEquals(content, resp.getContentAsByteArray());
+    assertEquals(1000, resp.getContentLength());
+    assertTrue(resp.getContentType().startsWith("text/plain"));
+
+    resp = handle(ResponseEntity.ok(new FileRegion(file.toPath(), 0, 1000)),
+		  "*/*");
+    assertArrayEquals(content, resp.getContentAsByteArray());
+
+    // A bare Path isn't file-backed; it's left to the converters, none of
+    // which handle it here
+    try {
+      handle(ResponseEntity.ok(file.toPath()), "*/*");
+      fail("Path body shouldn't have been sent from the file");
+    } catch (HttpMessageNotWritableException |
+	     HttpMediaTypeNotAcceptableException e) {
+    }
+
+    // Region of an open channel, closed after writing
+    FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    resp = handle(ResponseEntity.ok()
+		  .contentType(MediaType.APPLICATION_OCTET_STREAM)
+		  .body(new FileRegion(ch, 10, 26)), "*/*");
+    assertEquals("klmnopqrstuvwxyzabcdefghij", resp.getContentAsString());
+    assertEquals(26, resp.getContentLength());
+    assertEquals("application/octet-stream", resp.getContentType());
+    assertFalse(ch.isOpen());
+
+    // Region past the end of the file fails before anything is committed
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", "/foo");
+    assertRegionRejected(req, new FileRegion(file.toPath(), 990, 20));
+    ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    assertRegionRejected(req, new FileRegion(ch, 1001, 0));
+    assertFalse(ch.isOpen());
+
+    // HEAD sends only the headers
+    resp = handle(new MockHttpServletRequest("HEAD", "/foo"),
+		  ResponseEntity.ok(new FileSystemResource(file)), "*/*");
+    assertEquals(1000, resp.getContentLength());
+    assertEquals(0, resp.getContentAsByteArray().length);
+  }
+
+  @Test
+  public void testFileBodySendfile() throws Exception {
+    int size = (int)LockssHttpEntityMethodProcessor.MIN_SENDFILE_SIZE + 10;
+    File file = makeFile("big.bin", size);
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", "/foo");
+    req.setAttribute(LockssHttpEntityMethodProcessor.SENDFILE_SUPPORT_ATTR,
+		     Boolean.TRUE);
+    MockHttpServletResponse resp =
+      handle(req, ResponseEntity.ok(new FileRegion(file.toPath(), 5, size - 5)),
+	     "*/*");
+    assertEquals(0, resp.getContentAsByteArray().length);
+    assertEquals(size - 5, resp.getContentLength());
+    assertTrue(resp.isCommitted());
+    assertEquals(file.getAbsolutePath(),
+		 req.getAttribute(LockssHttpEntityMethodProcessor.SENDFILE_FILENAME_ATTR));
+    assertEquals(5L,
+		 req.getAttribute(LockssHttpEntityMethodProcessor.SENDFILE_START_ATTR));
+    assertEquals((long)size,
+		 req.getAttribute(LockssHttpEntityMethodProcessor.SENDFILE_END_ATTR));
+
+    // Small files are copied even if sendfile is available
+    File small = makeFile("small.bin", 100);
+    req = new MockHttpServletRequest("GET", "/foo");
+    req.setAttribute(LockssHttpEntityMethodProcessor.SENDFILE_SUPPORT_ATTR,
+		     Boolean.TRUE);
+    resp = handle(req, ResponseEntity.ok(new FileSystemResource(small)), "*/*");
+    assertEquals(100, resp.getContentAsByteArray().length);
+    assertNull(req.getAttribute(LockssHttpEntityMethodProcessor.SENDFILE_FILENAME_ATTR));
+
+    // Region past the end of the file isn't handed to the container
+    req = new MockHttpServletRequest("GET", "/foo");
+    req.setAttribute(LockssHttpEntityMethodProcessor.SENDFILE_SUPPORT_ATTR,
+		     Boolean.TRUE);
+    assertRegionRejected(req, new FileRegion(file.toPath(), 5, size));
+    assertNull(req.getAttribute(LockssHttpEntityMethodProcessor.SENDFILE_FILENAME_ATTR));
+  }
+
+  void assertRegionRejected(MockHttpServletRequest req, FileRegion region)
+      throws Exception {
+    MockHttpServletResponse resp = new MockHttpServletResponse();
+    try {
+      processor.handleReturnValue(ResponseEntity.ok(region), returnType,
+				  new ModelAndViewContainer(),
+				  new ServletWebRequest(req, resp));
+      fail("Should have thrown IOException");
+    } catch (IOException e) {
+    }
+    assertFalse(resp.isCommitted());
+    assertNull(resp.getHeader(HttpHeaders.CONTENT_LENGTH));
+  }
+
+  void useJsonProcessor() {
+    List<HttpMessageConverter<?>> converters = new ArrayList<>();
+    converters.add(new StringHttpMessageConverter());
+    converters.add(new MappingJackson2HttpMessageConverter());
+    processor =
+      new LockssHttpEntityMethodProcessor(converters,
+					  new ContentNegotiationManager());
+  }
+
+  @Test
+  public void testStreamingJson() throws Exception {
+    useJsonProcessor();
+    AtomicBoolean closed = new AtomicBoolean();
+    Stream<Map<String,Integer>> stream =
+      IntStream.range(0, 3).mapToObj(i -> Map.of("n", i))
+      .onClose(() -> closed.set(true));
+    returning("streamHandler");
+    MockHttpServletResponse resp = handle(ResponseEntity.ok(stream), "*/*");
+    assertEquals("[{\"n\":0},{\"n\":1},{\"n\":2}]",
+		 resp.getContentAsString());
+    assertTrue(resp.getContentType().startsWith("application/json"));
+    assertTrue(closed.get());
+
+    returning("iteratorHandler");
+    resp = handle(ResponseEntity.ok(List.of("a", "b").iterator()),
+		  "application/json");
+    assertEquals("[\"a\",\"b\"]", resp.getContentAsString());
+
+    returning("iterableHandler");
+    Iterable<String> empty = () -> Collections.emptyIterator();
+    resp = handle(ResponseEntity.ok(empty), "*/*");
+    assertEquals("[]", resp.getContentAsString());
+
+    // Explicit JSON Content-Type is kept
+    returning("streamHandler");
+    resp = handle(ResponseEntity.ok()
+		  .contentType(MediaType.valueOf("application/vnd.lockss+json"))
+		  .body(Stream.of(1, 2)), "*/*");
+    assertEquals("[1,2]", resp.getContentAsString());
+    assertEquals("application/vnd.lockss+json", resp.getContentType());
+
+    // A failure mid-stream leaves the array unterminated
+    Stream<Integer> failing = Stream.of(1, 2, 3).map(i -> {
+	if (i == 3) {
+	  throw new IllegalStateException("boom");
+	}
+	return i;
+      });
+    MockHttpServletResponse failResp = new MockHttpServletResponse();
+    try {
+      processor.handleReturnValue(ResponseEntity.ok(failing), returnType,
+				  new ModelAndViewContainer(),
+				  new ServletWebRequest(new MockHttpServletRequest("GET", "/foo"),
+							failResp));
+      fail("Should have thrown IllegalStateException");
+    } catch (IllegalStateException e) {
+    }
+    assertTrue(failResp.getContentAsString().startsWith("[1"));
+    assertFalse(failResp.getContentAsString().endsWith("]"));
+  }
+
+  @Test
+  public void testStreamingNdjson() throws Exception {
+    useJsonProcessor();
+    processor.setStreamingFlushBatchSize(2);
+    returning("streamHandler");
+    MockHttpServletResponse resp =
+      handle(ResponseEntity.ok(IntStream.range(0, 3).mapToObj(i -> Map.of("n", i))),
+	     "application/x-ndjson");
+    assertEquals("{\"n\":0}\n{\"n\":1}\n{\"n\":2}\n",
+		 resp.getContentAsString());
+    assertEquals("application/x-ndjson", resp.getContentType());
+
+    // Preferred type is chosen
+    returning("iteratorHandler");
+    resp = handle(ResponseEntity.ok(List.of("a", "b").iterator()),
+		  "application/json;q=0.5, application/x-ndjson");
+    assertEquals("\"a\"\n\"b\"\n", resp.getContentAsString());
+    resp = handle(ResponseEntity.ok(List.of("a", "b").iterator()),
+		  "application/json, application/x-ndjson;q=0.5");
+    assertEquals("[\"a\",\"b\"]", resp.getContentAsString());
+
+    // Explicit Content-Type
+    returning("streamHandler");
+    resp = handle(ResponseEntity.ok()
+		  .contentType(MediaType.APPLICATION_NDJSON)
+		  .body(Stream.of(1, 2)), "*/*");
+    assertEquals("1\n2\n", resp.getContentAsString());
+
+    returning("iterableHandler");
+    Iterable<String> empty = () -> Collections.emptyIterator();
+    resp = handle(ResponseEntity.ok(empty), "application/x-ndjson");
+    assertEquals("", resp.getContentAsString());
+
+    try {
+      processor.setStreamingFlushBatchSize(-1);
+      fail("Negative batch size should throw");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  String bigString() {
+    StringBuilder sb = new StringBuilder();
+    for (int ix = 0; ix < 2000; ix++) {
+      sb.append("line ").append(ix).append('\n');
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testIterableBodiesNotStreamed() throws Exception {
+    useJsonProcessor();
+    // An ObjectNode is Iterable over its values, but is written as an
+    // object by the converter
+    returning("jsonNodeHandler");
+    ObjectNode node = JsonNodeFactory.instance.objectNode();
+    node.put("a", 1);
+    node.put("b", "two");
+    MockHttpServletResponse resp = handle(ResponseEntity.ok(node), "*/*");
+    assertEquals("{\"a\":1,\"b\":\"two\"}", resp.getContentAsString());
+    assertTrue(resp.getContentType().startsWith("application/json"));
+
+    // The declared type decides, not the body's class
+    returning("objectHandler");
+    resp = handle(ResponseEntity.ok(node), "*/*");
+    assertEquals("{\"a\":1,\"b\":\"two\"}", resp.getContentAsString());
+
+    // A Path is Iterable over its segments
+    Path path = Paths.get("/a/b");
+    resp = handle(ResponseEntity.ok(path), "application/json");
+    assertFalse(resp.getContentAsString().startsWith("["));
+  }
+
+  /** Writes a Stream body as text/csv lines */
+  static class CsvConverter extends AbstractHttpMessageConverter<Stream<?>> {
+    CsvConverter() {
+      super(MediaType.valueOf("text/csv"));
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+      return Stream.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected Stream<?> readInternal(Class<? extends Stream<?>> clazz,
+				     HttpInputMessage inputMessage) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void writeInternal(Stream<?> body, HttpOutputMessage outputMessage)
+	throws IOException {
+      Writer wrtr = new OutputStreamWriter(outputMessage.getBody(), "UTF-8");
+      for (Iterator<?> iter = body.iterator(); iter.hasNext(); ) {
+	wrtr.write(iter.next() + "\n");
+      }
+      wrtr.flush();
+    }
+  }
+
+  MockHttpServletResponse handleProducing(ResponseEntity<?> entity,
+					  String accept, String... produces)
+      throws Exception {
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", "/foo");
+    Set<MediaType> producible = new LinkedHashSet<>();
+    for (String type : produces) {
+      producible.add(MediaType.valueOf(type));
+    }
+    req.setAttribute(HandlerMapping.PRODUCIBLE_MEDIA_TYPES_ATTRIBUTE,
+		     producible);
+    return handle(req, entity, accept);
+  }
+
+  @Test
+  public void testStreamingProducible() throws Exception {
+    List<HttpMessageConverter<?>> converters = new ArrayList<>();
+    converters.add(new MappingJackson2HttpMessageConverter());
+    converters.add(new CsvConverter());
+    processor =
+      new LockssHttpEntityMethodProcessor(converters,
+					  new ContentNegotiationManager());
+    returning("streamHandler");
+
+    // A handler that produces only CSV isn't forced to JSON by */*
+    MockHttpServletResponse resp =
+      handleProducing(ResponseEntity.ok(Stream.of(1, 2)), "*/*", "text/csv");
+    assertEquals("1\n2\n", resp.getContentAsString());
+    assertTrue(resp.getContentType().startsWith("text/csv"));
+
+    // Only the producible streaming type is chosen
+    resp = handleProducing(ResponseEntity.ok(Stream.of(1, 2)), "*/*",
+			   "text/csv", "application/x-ndjson");
+    assertEquals("1\n2\n", resp.getContentAsString());
+    assertEquals("application/x-ndjson", resp.getContentType());
+    resp = handleProducing(ResponseEntity.ok(Stream.of(1, 2)),
+			   "application/json, application/x-ndjson;q=0.5",
+			   "application/x-ndjson");
+    assertEquals("application/x-ndjson", resp.getContentType());
+
+    resp = handleProducing(ResponseEntity.ok(Stream.of(1, 2)), "*/*",
+			   "application/json", "text/csv");
+    assertEquals("[1,2]", resp.getContentAsString());
+    assertTrue(resp.getContentType().startsWith("application/json"));
+  }
+
+  @Test
+  public void testCompression() throws Exception {
+    String big = bigString();
+    // Disabled by default
+    assertNull(processor.getCompression());
+    MockHttpServletResponse resp =
+      handleEncoded(ResponseEntity.ok(big), "text/plain", "gzip, deflate");
+    assertNull(resp.getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(big, resp.getContentAsString());
+
+    processor.setCompressionEnabled(true);
+    resp = handleEncoded(ResponseEntity.ok(big), "text/plain", "gzip, deflate");
+    assertEquals("gzip", resp.getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertTrue(resp.getHeaders(HttpHeaders.VARY).contains(HttpHeaders.ACCEPT_ENCODING));
+    byte[] compressed = resp.getContentAsByteArray();
+    assertTrue(compressed.length < big.length() / 2);
+    assertNull(resp.getHeader(HttpHeaders.CONTENT_LENGTH));
+    assertEquals(big, new String(new GZIPInputStream(new java.io.ByteArrayInputStream(compressed)).readAllBytes(), "UTF-8"));
+
+    resp = handleEncoded(ResponseEntity.ok(big), "text/plain", "deflate");
+    assertEquals("deflate", resp.getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(big, new String(new InflaterInputStream(new java.io.ByteArrayInputStream(resp.getContentAsByteArray())).readAllBytes(), "UTF-8"));
+
+    // Deflaters are reused
+    ResponseCompression rc = processor.getCompression();
+    for (int ix = 0; ix < 3; ix++) {
+      handleEncoded(ResponseEntity.ok(big), "text/plain", "gzip");
+    }
+    assertEquals(1, rc.getPool(ResponseCompression.GZIP).getCreatedCount());
+    assertEquals(1, rc.getPool(ResponseCompression.GZIP).getIdleCount());
+
+    // Small bodies aren't compressed
+    resp = handleEncoded(ResponseEntity.ok("small"), "text/plain", "gzip");
+    assertNull(resp.getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertEquals("small", resp.getContentAsString());
+    assertEquals(5, resp.getContentLength());
+    assertTrue(resp.getHeaders(HttpHeaders.VARY).contains(HttpHeaders.ACCEPT_ENCODING));
+
+    // Not acceptable
+    resp = handleEncoded(ResponseEntity.ok(big), "text/plain", "gzip;q=0, br");
+    assertNull(resp.getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(big, resp.getContentAsString());
+
+    // Already compressed types aren't compressed
+    resp = handleEncoded(ResponseEntity.ok()
+			 .contentType(MediaType.IMAGE_PNG).body(big.getBytes()),
+			 "*/*", "gzip");
+    assertNull(resp.getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(big.length(), resp.getContentAsByteArray().length);
+
+    processor.setCompressionEnabled(false);
+    resp = handleEncoded(ResponseEntity.ok(big), "text/plain", "gzip");
+    assertNull(resp.getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(big, resp.getContentAsString());
+  }
+
+  @Test
+  public void testCompressedStreaming() throws Exception {
+    useJsonProcessor();
+    processor.setCompression(0, Deflater.BEST_SPEED);
+    returning("streamHandler");
+    MockHttpServletResponse resp =
+      handleEncoded(ResponseEntity.ok(Stream.of(1, 2, 3)),
+		    "application/x-ndjson", "gzip");
+    assertEquals("gzip", resp.getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertEquals("1\n2\n3\n",
+		 new String(new GZIPInputStream(new java.io.ByteArrayInputStream(resp.getContentAsByteArray())).readAllBytes(), "UTF-8"));
+
+    // Elements much smaller than the minimum size aren't held back: the
+    // first is sent, compressed, before the second is produced
+    processor.setCompressionEnabled(true);
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", "/foo");
+    req.addHeader(HttpHeaders.ACCEPT, "application/x-ndjson");
+    req.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+    MockHttpServletResponse streamResp = new MockHttpServletResponse();
+    List<Integer> sentBefore = new ArrayList<>();
+    Stream<Integer> stream = Stream.of(1, 2).peek(i -> {
+	if (i == 2) {
+	  sentBefore.add(streamResp.getContentAsByteArray().length);
+	}
+      });
+    processor.handleReturnValue(ResponseEntity.ok(stream), returnType,
+				new ModelAndViewContainer(),
+				new ServletWebRequest(req, streamResp));
+    assertEquals("gzip", streamResp.getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertTrue(sentBefore.get(0) > 0);
+    assertEquals("1\n2\n",
+		 new String(new GZIPInputStream(new java.io.ByteArrayInputStream(streamResp.getContentAsByteArray())).readAllBytes(), "UTF-8"));
+  }
+
+  @Test
+  public void testSelectEncoding() throws Exception {
+    assertEquals("gzip", ResponseCompression.selectEncoding("gzip, deflate"));
+    assertEquals("deflate",
+		 ResponseCompression.selectEncoding("deflate;q=1, gzip;q=0.5"));
+    assertEquals("gzip", ResponseCompression.selectEncoding("*"));
+    assertEquals("deflate", ResponseCompression.selectEncoding("gzip;q=0, *"));
+    assertEquals("gzip", ResponseCompression.selectEncoding("x-gzip"));
+    assertNull(ResponseCompression.selectEncoding("identity"));
+    assertNull(ResponseCompression.selectEncoding("br"));
+    assertNull(ResponseCompression.selectEncoding(""));
+    assertNull(ResponseCompression.selectEncoding(null));
+
+    assertTrue(ResponseCompression.isCompressible(MediaType.APPLICATION_JSON));
+    assertTrue(ResponseCompression.isCompressible(MediaType.TEXT_HTML));
+    assertTrue(ResponseCompression.isCompressible(MediaType.valueOf("image/svg+xml")));
+    assertFalse(ResponseCompression.isCompressible(MediaType.IMAGE_JPEG));
+    assertFalse(ResponseCompression.isCompressible(MediaType.valueOf("application/zip")));
+    assertFalse(ResponseCompression.isCompressible(MediaType.APPLICATION_OCTET_STREAM));
+    assertFalse(ResponseCompression.isCompressible(null));
+  }
+
+  Object resolveEncoded(byte[] body, String encoding) throws Exception {
+    java.lang.reflect.Method consumer =
+      getClass().getMethod("consumer", HttpEntity.class, RequestEntity.class);
+    MockHttpServletRequest req = new MockHttpServletRequest("POST", "/foo");
+    req.setContentType("text/plain;charset=UTF-8");
+    req.addHeader(HttpHeaders.CONTENT_ENCODING, encoding);
+    req.setContent(body);
+    return processor.resolveArgument(new MethodParameter(consumer, 1),
+				     new ModelAndViewContainer(),
+				     new ServletWebRequest(req,
+							   new MockHttpServletResponse()),
+				     null);
+  }
+
+  byte[] deflate(byte[] data, boolean gzip, boolean nowrap) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (OutputStream out =
+	 gzip ? new GZIPOutputStream(bos)
+	 : new DeflaterOutputStream(bos, new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap))) {
+      out.write(data);
+    }
+    return bos.toByteArray();
+  }
+
+  @Test
+  public void testDecompressedRequest() throws Exception {
+    String big = bigString();
+    byte[] bytes = big.getBytes("UTF-8");
+    RequestEntity<?> req =
+      (RequestEntity<?>)resolveEncoded(deflate(bytes, true, false), "gzip");
+    assertEquals(big, req.getBody());
+    assertNull(req.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(big, ((HttpEntity<?>)resolveEncoded(deflate(bytes, false, false),
+						     "deflate")).getBody());
+    // Raw deflate data without the zlib wrapper
+    assertEquals(big, ((HttpEntity<?>)resolveEncoded(deflate(bytes, false, true),
+						     "Deflate")).getBody());
+    // Identity and unknown encodings are passed through
+    assertEquals("plain", ((HttpEntity<?>)resolveEncoded("plain".getBytes("UTF-8"),
+							 "identity")).getBody());
+
+    processor.setMaxDecompressedRequestSize(bytes.length);
+    assertEquals(big, ((HttpEntity<?>)resolveEncoded(deflate(bytes, true, false),
+						     "gzip")).getBody());
+    processor.setMaxDecompressedRequestSize(bytes.length - 1);
+    try {
+      resolveEncoded(deflate(bytes, true, false), "gzip");
+      fail("Should have thrown PayloadTooLargeException");
+    } catch (org.springframework.web.server.PayloadTooLargeException e) {
+      assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, e.getStatusCode());
+    }
+  }
+
+  MockHttpServletResponse handleConditional(ResponseEntity<?> entity,
+					    String ifNoneMatch)
+      throws Exception {
+    MockHttpServletRequest req = new MockHttpServletRequest("GET", "/foo");
+    if (ifNoneMatch != null) {
+      req.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+    }
+    return handle(req, entity, "text/plain");
+  }
+
+  @Test
+  public void testAutoETag() throws Exception {
+    String big = bigString();
+    MockHttpServletResponse resp = handleConditional(ResponseEntity.ok(big), null);
+    assertNull(resp.getHeader(HttpHeaders.ETAG));
+
+    processor.setAutoETag(true);
+    resp = handleConditional(ResponseEntity.ok(big), null);
+    String etag = resp.getHeader(HttpHeaders.ETAG);
+    assertNotNull(etag);
+    assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+    assertEquals(big, resp.getContentAsString());
+    assertEquals(200, resp.getStatus());
+
+    resp = handleConditional(ResponseEntity.ok(big), etag);
+    assertEquals(304, resp.getStatus());
+    assertEquals(0, resp.getContentAsByteArray().length);
+    assertEquals(etag, resp.getHeader(HttpHeaders.ETAG));
+
+    resp = handleConditional(ResponseEntity.ok(big + "x"), etag);
+    assertEquals(200, resp.getStatus());
+    assertNotEquals(etag, resp.getHeader(HttpHeaders.ETAG));
+    assertEquals(big + "x", resp.getContentAsString());
+
+    // The compressed representation has a different ETag
+    processor.setCompressionEnabled(true);
+    resp = handleEncoded(ResponseEntity.ok(big), "text/plain", "gzip");
+    assertEquals("gzip", resp.getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertNotEquals(etag, resp.getHeader(HttpHeaders.ETAG));
+    assertEquals(big, new String(new GZIPInputStream(new ByteArrayInputStream(resp.getContentAsByteArray())).readAllBytes(), "UTF-8"));
+
+    // The controller's ETag is used if present
+    resp = handleConditional(ResponseEntity.ok().eTag("\"mine\"").body(big),
+			     null);
+    assertEquals("\"mine\"", resp.getHeader(HttpHeaders.ETAG));
+
+    // Bodies larger than the buffer get no ETag
+    processor.setAutoETagBufferSize(100);
+    resp = handleConditional(ResponseEntity.ok(big), null);
+    assertNull(resp.getHeader(HttpHeaders.ETAG));
+    assertEquals(big, resp.getContentAsString());
+
+    // Not for unsafe methods
+    processor.setAutoETagBufferSize(AutoETag.DEFAULT_MAX_BUFFER_SIZE);
+    resp = handle(new MockHttpServletRequest("POST", "/foo"),
+		  ResponseEntity.ok(big), "text/plain");
+    assertNull(resp.getHeader(HttpHeaders.ETAG));
+  }
+
+  @Test
+  public void testVersionKeyETag() throws Exception {
+    processor.setAutoETag(true);
+    MockHttpServletResponse resp =
+      handleConditional(ResponseEntity.ok()
+			.header(LockssHttpEntityMethodProcessor.VERSION_KEY_HEADER, "v1")
+			.body("content"), null);
+    String etag = resp.getHeader(HttpHeaders.ETAG);
+    assertNotNull(etag);
+    assertNull(resp.getHeader(LockssHttpEntityMethodProcessor.VERSION_KEY_HEADER));
+    assertEquals("content", resp.getContentAsString());
+
+    // The body isn't serialized; it has no converter, so would fail if it
+    // were
+    resp = handleConditional(ResponseEntity.ok()
+			     .header(LockssHttpEntityMethodProcessor.VERSION_KEY_HEADER, "v1")
+			     .body(new Object()), etag);
+    assertEquals(304, resp.getStatus());
+    assertEquals(0, resp.getContentAsByteArray().length);
+
+    resp = handleConditional(ResponseEntity.ok()
+			     .header(LockssHttpEntityMethodProcessor.VERSION_KEY_HEADER, "v2")
+			     .body("new content"), etag);
+    assertEquals(200, resp.getStatus());
+    assertNotEquals(etag, resp.getHeader(HttpHeaders.ETAG));
+    assertEquals("new content", resp.getContentAsString());
+  }
+
+  @Test
+  public void testStreamableBodies() throws Exception {
+    assertTrue(StreamingJsonWriter.isStreamable(Stream.of(1)));
+    assertTrue(StreamingJsonWriter.isStreamable(IntStream.of(1)));
+    assertTrue(StreamingJsonWriter.isStreamable(List.of(1).iterator()));
+    Iterable<Integer> iterable = () -> List.of(1).iterator();
+    assertTrue(StreamingJsonWriter.isStreamable(iterable));
+    // Collections are written by the converters
+    assertFalse(StreamingJsonWriter.isStreamable(List.of(1)));
+    assertFalse(StreamingJsonWriter.isStreamable(Set.of(1)));
+    assertFalse(StreamingJsonWriter.isStreamable("str"));
+    assertFalse(StreamingJsonWriter.isStreamable(null));
+
+    assertTrue(StreamingJsonWriter.isStreamableType(Stream.class));
+    assertTrue(StreamingJsonWriter.isStreamableType(Iterator.class));
+    assertTrue(StreamingJsonWriter.isStreamableType(Iterable.class));
+    assertFalse(StreamingJsonWriter.isStreamableType(JsonNode.class));
+    assertFalse(StreamingJsonWriter.isStreamableType(Path.class));
+    assertFalse(StreamingJsonWriter.isStreamableType(List.class));
+    assertFalse(StreamingJsonWriter.isStreamableType(Object.class));
+    assertFalse(StreamingJsonWriter.isStreamableType(null));
+  }
+
+  @Test
+  public void testNegotiationCacheBounded() throws Exception {
+    for (int ix = 0; ix < LockssHttpEntityMethodProcessor.MAX_NEGOTIATION_CACHE_SIZE + 10; ix++) {
+      handle(ResponseEntity.ok("x"), "text/plain;q=0." + (100 + ix));
+      assertTrue(processor.getNegotiationCacheSize()
+		 <= LockssHttpEntityMethodProcessor.MAX_NEGOTIATION_CACHE_SIZE);
+    }
+  }
+}